@@ -0,0 +1,121 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compares writing and restoring snapshots with no compression, Deflate and LZ. The compression ratio is printed at the end of
+ * each trial. A real save file can be used with {@code -p save=path}.
+ * @author Nathan Sweet */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+	@Param({"4", "16", "32"}) public int saveMB;
+	@Param({"raw", "deflate1", "deflate6", "lz"}) public String codec;
+	/** If set, this file is used instead of a synthetic save file. */
+	@Param({""}) public String save;
+
+	File dir, saveFile, snapshot, restored;
+	Store store;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException {
+		dir = Files.createTempDirectory("compression").toFile();
+		saveFile = new File(dir, "save.sl2");
+		restored = new File(dir, "restored.sl2");
+		if (!save.isEmpty())
+			Files.copy(new File(save).toPath(), saveFile.toPath());
+		else
+			Files.write(saveFile.toPath(), saveBytes(saveMB * 1024 * 1024));
+		File backupDir = new File(dir, "backup");
+		if (codec.equals("raw"))
+			store = new Store(backupDir);
+		else
+			store = new CompressedStore(backupDir, codec.equals("lz") ? 0 : codec.charAt(7) - '0', 0);
+		snapshot = new File(backupDir, "backup1." + store.extension);
+		store.write(saveFile, snapshot);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		System.out.println();
+		System.out.println(String.format("Size: %d KB of %d KB, %.1fx", snapshot.length() / 1024, saveFile.length() / 1024,
+			saveFile.length() / (double)snapshot.length()));
+		StoreBenchmark.delete(dir);
+	}
+
+	@Benchmark
+	public long write () throws IOException {
+		return store.write(saveFile, snapshot);
+	}
+
+	@Benchmark
+	public void restore () throws IOException {
+		store.read(snapshot, restored);
+	}
+
+	/** Like a save file: character slots with a header, tables of small values, repeated structures and zero padding. */
+	static byte[] saveBytes (int size) {
+		Random random = new Random(0);
+		byte[] bytes = new byte[size];
+		int slots = 10, slotSize = size / (slots + 1);
+		byte[] record = new byte[64];
+		random.nextBytes(record);
+		for (int slot = 0; slot <= slots; slot++) {
+			int start = slot * slotSize, used = slot == 0 ? slotSize / 8 : slotSize / 2 + random.nextInt(slotSize / 4);
+			for (int i = start; i < start + used; i++) {
+				int kind = (i - start) / 4096 % 4;
+				if (kind == 0)
+					bytes[i] = (byte)random.nextInt(); // Noise, such as checksums and coordinates.
+				else if (kind == 1)
+					bytes[i] = (byte)random.nextInt(4); // Flags and small counts.
+				else if (kind == 2) {
+					bytes[i] = record[(i - start) % record.length]; // Repeated item records.
+					if (random.nextInt(16) == 0) bytes[i] = (byte)random.nextInt();
+				}
+				// Kind 3 and the rest of the slot stay zero.
+			}
+		}
+		return bytes;
+	}
+}
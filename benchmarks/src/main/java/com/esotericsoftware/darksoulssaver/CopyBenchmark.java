@@ -0,0 +1,102 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Copies a save file with each of FileCopy's strategies, to pick copyParallelMB for a disk.
+ * @author Nathan Sweet */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+	@Param({"1", "8", "32", "64"}) public int saveMB;
+	/** Files.copy, transfer, or the number of ranges copied on separate threads. */
+	@Param({"copy", "transfer", "2", "4"}) public String strategy;
+	@Param({"false"}) public boolean sync;
+
+	File dir, from, to;
+	long parallelSize;
+	int threads;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException {
+		dir = Files.createTempDirectory("copy").toFile();
+		from = new File(dir, "from.sl2");
+		to = new File(dir, "to.sl2");
+		byte[] bytes = new byte[saveMB * 1024 * 1024];
+		new Random(0).nextBytes(bytes);
+		Files.write(from.toPath(), bytes);
+		parallelSize = FileCopy.parallelSize;
+		threads = FileCopy.threads;
+		if (strategy.equals("copy") || strategy.equals("transfer"))
+			FileCopy.parallelSize = Long.MAX_VALUE;
+		else {
+			FileCopy.parallelSize = 0;
+			FileCopy.threads = Integer.parseInt(strategy);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () throws IOException {
+		if (Fingerprint.of(to) != Fingerprint.of(from)) throw new IOException("Copy differs: " + saveMB + " MB, " + strategy);
+		FileCopy.parallelSize = parallelSize;
+		FileCopy.threads = threads;
+		from.delete();
+		to.delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public long copy () throws IOException {
+		if (!strategy.equals("transfer")) return FileCopy.copy(from, to, sync);
+		try (FileChannel input = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+			FileChannel output = FileChannel.open(to.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long count = FileCopy.transfer(input, output, 0, Long.MAX_VALUE);
+			if (sync) output.force(true);
+			return count;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.awt.event.KeyEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.KeyStroke;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** A hotkey press and release going through the dispatch table and ring buffer, compared to scanning the keystrokes and queuing
+ * an index as the keyboard hook used to. The table includes a key release and the volatile write that publishes the hotkey.
+ * @author Nathan Sweet */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotkeysBenchmark {
+	static private final int[] keys = {KeyEvent.VK_F1, KeyEvent.VK_F2, KeyEvent.VK_F3, KeyEvent.VK_F4, KeyEvent.VK_F5,
+		KeyEvent.VK_F8};
+
+	Hotkeys hotkeys;
+	ArrayList<KeyStroke> keystrokes;
+	ArrayDeque<Integer> queue;
+	int next;
+
+	@Setup
+	public void setup () {
+		hotkeys = new Hotkeys(64);
+		keystrokes = new ArrayList();
+		for (int key : keys) {
+			hotkeys.add(key, 0);
+			keystrokes.add(KeyStroke.getKeyStroke(key, 0));
+		}
+		queue = new ArrayDeque();
+	}
+
+	@Benchmark
+	public int table () {
+		int vk = keys[next++ % keys.length];
+		hotkeys.key(vk, true, 0);
+		hotkeys.key(vk, false, 0);
+		return hotkeys.poll();
+	}
+
+	@Benchmark
+	public int scan () {
+		int vk = keys[next++ % keys.length];
+		for (int i = 0, n = keystrokes.size(); i < n; i++)
+			if (keystrokes.get(i).getKeyCode() == vk) queue.addLast(i);
+		return queue.pollFirst();
+	}
+}
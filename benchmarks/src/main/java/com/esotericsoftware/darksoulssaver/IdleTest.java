@@ -0,0 +1,100 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Scanner;
+
+/** Measures the CPU time and thread wake-ups of a headless saver while the save file doesn't change, as when the game is idle or
+ * not running. Wake-ups are the context switches of all the process' threads, so they are only measured on Linux.
+ * <p>
+ * Arguments: the seconds to measure (30), then config options for the saver.
+ * @author Nathan Sweet */
+public class IdleTest {
+	static public void main (String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		File dir = Files.createTempDirectory("idle").toFile();
+		File saveFile = new File(dir, "DRAKS0005.sl2");
+		Files.write(saveFile.toPath(), new byte[1024 * 1024]);
+		File configFile = new File(dir, "idle.txt");
+		try (FileWriter writer = new FileWriter(configFile)) {
+			writer.write(saveFile.getAbsolutePath() + "\nnone\nnone\n10\n");
+			writer.write("dir=" + dir.getAbsolutePath() + "\n");
+			writer.write("journal=" + new File(dir, "journal.bin").getAbsolutePath() + "\n");
+			writer.write("latencyInterval=0\n");
+			for (int i = 1; i < args.length; i++)
+				writer.write(args[i] + "\n");
+		}
+
+		Daemon daemon = new Daemon(new String[] {configFile.getAbsolutePath()}, new Audio(null));
+		daemon.start();
+		// Let startup work such as reconciling and staging finish.
+		Thread.sleep(2000);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long cpu = cpuTime(threads), switches = contextSwitches(), start = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		cpu = cpuTime(threads) - cpu;
+		switches = contextSwitches() - switches;
+
+		System.out.println(String.format("Idle for %.1f s: %.1f ms CPU, %d threads", elapsed, cpu / 1e6, threads.getThreadCount()));
+		if (switches >= 0) System.out.println(String.format("Wake-ups: %.1f per second", switches / elapsed));
+		daemon.stop();
+		StoreBenchmark.delete(dir);
+		System.exit(0);
+	}
+
+	static private long cpuTime (ThreadMXBean threads) {
+		long total = 0;
+		for (long id : threads.getAllThreadIds()) {
+			long time = threads.getThreadCpuTime(id);
+			if (time > 0) total += time;
+		}
+		return total;
+	}
+
+	/** @return The voluntary and involuntary context switches of all the process' threads, or -1 if unknown. */
+	static private long contextSwitches () throws IOException {
+		File[] tasks = new File("/proc/self/task").listFiles();
+		if (tasks == null) return -1;
+		long total = 0;
+		for (File task : tasks) {
+			List<String> lines;
+			try {
+				lines = Files.readAllLines(new File(task, "status").toPath());
+			} catch (IOException ex) { // The thread exited.
+				continue;
+			}
+			for (String line : lines) {
+				if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:"))
+					total += new Scanner(line.substring(line.indexOf(':') + 1).trim()).nextLong();
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,313 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Checksum;
+
+/** Writes a save file the way the game does while a headless saver backs it up, then reports how the backups went. No game,
+ * keyboard hook or sound is used, so it runs on any OS.
+ * <p>
+ * Each burst is several writes a short time apart, then the file is quiet until the next burst. A burst rewrites the whole file
+ * in pieces, rewrites a few 4 KB regions in place, or rewrites the whole file with the same bytes, as the game does when the menu
+ * is opened and closed. Every state the file is in after a write is fingerprinted, so each snapshot can be checked against what
+ * was on disk:
+ * <ul>
+ * <li>Missed: a burst that changed the file but never got a backup, though it was on disk for twice the saver's longest quiet
+ * time. Bursts replaced sooner are expected to be backed up together with the bursts after them.
+ * <li>Torn: a snapshot of the file in the middle of a burst, or of bytes that were never on disk.
+ * <li>Lag: the time from a burst's last write until its backup is committed, recorded as load.lag with the saver's latencies.
+ * <li>Written: the bytes the store wrote to disk, compared to the bytes the game wrote.
+ * </ul>
+ * Arguments are name=value. saveMB (1), bursts (20), gap (4000 ms between bursts), writes (4 per burst), spacing (50 ms between
+ * writes) and seed (0) are used here, anything else is a config option for the saver, eg store=delta.
+ * @author Nathan Sweet */
+public class LoadGenerator {
+	static private final int region = 4096;
+
+	final Random random;
+	final int saveMB, bursts, gap, writes, spacing;
+	final File dir, saveFile;
+	/** What the game wants in the save file, and what is actually on disk. */
+	final byte[] content, disk;
+	final Checksum checksum = Fingerprint.checksum();
+	long gameBytes;
+
+	/** Every state the save file has been in. */
+	final Set<Long> states = Collections.newSetFromMap(new ConcurrentHashMap());
+	/** The state at the end of each burst that changed the save file. Added before the burst is written. */
+	final ConcurrentHashMap<Long, Burst> finals = new ConcurrentHashMap();
+	final ArrayList<Burst> changed = new ArrayList();
+	int full, partial, same;
+
+	// Check thread.
+	final HashSet<File> seen = new HashSet();
+	final Checksum snapshotChecksum = Fingerprint.checksum();
+	int snapshots, torn, mixed, unreadable, mismatched;
+
+	Daemon daemon;
+	DarkSoulsSaver saver;
+	Latency latency;
+
+	public LoadGenerator (HashMap<String, String> options) throws Exception {
+		saveMB = Integer.parseInt(remove(options, "saveMB", "1"));
+		bursts = Integer.parseInt(remove(options, "bursts", "20"));
+		gap = Integer.parseInt(remove(options, "gap", "4000"));
+		writes = Math.max(1, Integer.parseInt(remove(options, "writes", "4")));
+		spacing = Integer.parseInt(remove(options, "spacing", "50"));
+		random = new Random(Long.parseLong(remove(options, "seed", "0")));
+
+		dir = Files.createTempDirectory("load").toFile();
+		saveFile = new File(dir, "DRAKS0005.sl2");
+		content = new byte[saveMB * 1024 * 1024];
+		random.nextBytes(content);
+		disk = content.clone();
+		Files.write(saveFile.toPath(), disk);
+		states.add(state());
+
+		File configFile = new File(dir, "load.txt");
+		try (FileWriter writer = new FileWriter(configFile)) {
+			writer.write(saveFile.getAbsolutePath() + "\nnone\nnone\n10\n");
+			// Keep every backup so none are deleted before they are checked, and only print latencies on exit.
+			if (!options.containsKey("maxBackups")) options.put("maxBackups", "0");
+			if (!options.containsKey("latencyInterval")) options.put("latencyInterval", "0");
+			options.put("dir", dir.getAbsolutePath());
+			if (!options.containsKey("journal")) options.put("journal", new File(dir, "journal.bin").getAbsolutePath());
+			for (Entry<String, String> entry : options.entrySet())
+				writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+		}
+
+		daemon = new Daemon(new String[] {configFile.getAbsolutePath()}, new Audio(null));
+		saver = daemon.savers.get(0);
+		latency = daemon.latency;
+		daemon.start();
+	}
+
+	static private String remove (HashMap<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return value == null ? defaultValue : value;
+	}
+
+	public void run () throws Exception {
+		Thread checker = new Thread("Check") {
+			public void run () {
+				while (true) {
+					check();
+					DarkSoulsSaver.zzz(10);
+				}
+			}
+		};
+		checker.setDaemon(true);
+		checker.start();
+
+		for (int i = 0; i < bursts; i++) {
+			DarkSoulsSaver.zzz(gap / 2 + random.nextInt(gap + 1));
+			burst();
+		}
+
+		// Give the last burst time to be backed up.
+		DarkSoulsSaver.zzz(Math.max(gap, 5000));
+		check();
+		report();
+	}
+
+	/** Changes the content, then writes it as one burst. */
+	void burst () throws IOException {
+		int kind = random.nextInt(3);
+		int[] offsets = null;
+		if (kind == 0) {
+			full++;
+			change(1 + random.nextInt(8));
+		} else if (kind == 1) {
+			partial++;
+			offsets = new int[writes];
+			for (int i = 0; i < writes; i++)
+				offsets[i] = change(1);
+		} else
+			same++;
+
+		// The burst is known before it is written, so a backup can't be checked before the burst is.
+		Burst burst = null;
+		checksum.reset();
+		checksum.update(content, 0, content.length);
+		long hash = Fingerprint.value(checksum);
+		if (!Arrays.equals(content, disk)) {
+			burst = new Burst();
+			finals.put(hash, burst);
+			synchronized (this) {
+				if (!changed.isEmpty()) changed.get(changed.size() - 1).replaced = System.nanoTime();
+				changed.add(burst);
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(saveFile, "rw")) {
+			if (kind == 0) {
+				// Rewrite the whole file in pieces.
+				int piece = (content.length + writes - 1) / writes;
+				for (int i = 0, offset = 0; offset < content.length; i++, offset += piece) {
+					if (i > 0) DarkSoulsSaver.zzz(spacing);
+					write(file, offset, Math.min(piece, content.length - offset));
+				}
+			} else if (kind == 1) {
+				// Rewrite a few regions in place.
+				for (int i = 0; i < writes; i++) {
+					if (i > 0) DarkSoulsSaver.zzz(spacing);
+					write(file, offsets[i], Math.min(region, content.length - offsets[i]));
+				}
+			} else {
+				// Rewrite the whole file with the same bytes, as the game does when the menu is opened and closed.
+				write(file, 0, content.length);
+			}
+		}
+		if (burst != null) burst.lastWrite = System.nanoTime();
+	}
+
+	/** Changes random regions of the content.
+	 * @return The offset of the last region changed. */
+	private int change (int count) {
+		int offset = 0;
+		byte[] bytes = new byte[region];
+		for (int i = 0; i < count; i++) {
+			random.nextBytes(bytes);
+			offset = random.nextInt(Math.max(1, content.length - region));
+			System.arraycopy(bytes, 0, content, offset, Math.min(region, content.length - offset));
+		}
+		return offset;
+	}
+
+	private void write (RandomAccessFile file, int offset, int length) throws IOException {
+		System.arraycopy(content, offset, disk, offset, length);
+		states.add(state());
+		file.seek(offset);
+		file.write(disk, offset, length);
+		gameBytes += length;
+	}
+
+	/** @return The fingerprint of the bytes on disk. */
+	private long state () {
+		checksum.reset();
+		checksum.update(disk, 0, disk.length);
+		return Fingerprint.value(checksum);
+	}
+
+	/** Fingerprints new snapshots and matches them to the states of the save file. */
+	synchronized void check () {
+		ArrayList<File> files = new ArrayList();
+		ArrayList<Long> hashes = new ArrayList();
+		synchronized (saver) {
+			BackupIndex backupFiles = saver.backupFiles;
+			for (int i = 0, n = backupFiles.size(); i < n; i++) {
+				File file = backupFiles.file(i);
+				if (seen.add(file)) {
+					files.add(file);
+					hashes.add(backupFiles.hash(i));
+				}
+			}
+		}
+		long now = System.nanoTime();
+		for (int i = 0, n = files.size(); i < n; i++) {
+			File file = files.get(i);
+			snapshots++;
+			byte[] bytes;
+			try {
+				bytes = saver.backupStore.bytes(file);
+			} catch (IOException ex) {
+				DarkSoulsSaver.print("Unable to read snapshot: " + file.getAbsolutePath());
+				ex.printStackTrace(System.out);
+				unreadable++;
+				continue;
+			}
+			snapshotChecksum.reset();
+			snapshotChecksum.update(bytes, 0, bytes.length);
+			long hash = Fingerprint.value(snapshotChecksum);
+			if (hashes.get(i) != 0 && hashes.get(i) != hash) mismatched++;
+			Burst burst = finals.get(hash);
+			if (burst != null) {
+				if (!burst.backedUp) {
+					burst.backedUp = true;
+					long lastWrite = burst.lastWrite;
+					if (lastWrite != 0) latency.histogram("load.lag").record(now - lastWrite);
+				}
+			} else if (states.contains(hash)) {
+				mixed++;
+				torn++;
+			} else
+				torn++;
+		}
+	}
+
+	synchronized void report () {
+		long settle = saver.quiescence.maxQuiet * 2 * 1000000, end = System.nanoTime();
+		int settled = 0, missed = 0;
+		for (Burst burst : changed) {
+			long replaced = burst.replaced != 0 ? burst.replaced : end;
+			if (replaced - burst.lastWrite < settle) continue;
+			settled++;
+			if (!burst.backedUp) missed++;
+		}
+		System.out.println();
+		System.out.println("Save file: " + saveMB + " MB, " + bursts + " bursts: " + full + " full, " + partial + " partial, " + same
+			+ " same");
+		System.out.println("Snapshots: " + snapshots + ", unreadable: " + unreadable + ", wrong fingerprint: " + mismatched);
+		System.out.println("Missed: " + missed + " of " + settled + " changed bursts (" + (changed.size() - settled)
+			+ " replaced before they could be backed up)");
+		System.out.println("Torn: " + torn + " (" + mixed + " in the middle of a burst)");
+		long written = saver.backupStore.writtenBytes;
+		System.out.println(String.format("Written: %.1f MB by the store, %.1f MB by the game", written / 1048576d,
+			gameBytes / 1048576d));
+		System.out.println("Lag: " + latency.histogram("load.lag"));
+	}
+
+	static class Burst {
+		/** The {@link System#nanoTime()} of the burst's last write, or 0 while it is being written. */
+		volatile long lastWrite;
+		/** The {@link System#nanoTime()} when the next burst that changed the save file started, or 0. */
+		long replaced;
+		boolean backedUp;
+	}
+
+	static public void main (String[] args) throws Exception {
+		HashMap<String, String> options = new HashMap();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals == -1) throw new IllegalArgumentException("Expected name=value: " + arg);
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		LoadGenerator generator = new LoadGenerator(options);
+		generator.run();
+		generator.daemon.stop();
+		StoreBenchmark.delete(generator.dir);
+		System.exit(0);
+	}
+}
@@ -0,0 +1,158 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.esotericsoftware.darksoulssaver.QuiescenceDetector.State;
+
+/** Replays bursts of writes to a file and reports the time from the last write of each burst until a snapshot is taken, and how
+ * many snapshots were torn. The adaptive {@link QuiescenceDetector} is compared with one that always waits for the longest quiet
+ * time.
+ * <p>
+ * The optional argument is a file with the milliseconds between writes, one per line, with an empty line between bursts.
+ * @author Nathan Sweet */
+public class QuiescenceReplay {
+	static public void main (String[] args) throws Exception {
+		ArrayList<long[]> bursts = args.length > 0 ? readBursts(new File(args[0])) : randomBursts(40);
+		for (boolean adaptive : new boolean[] {false, true})
+			replay(bursts, adaptive);
+	}
+
+	static private void replay (final ArrayList<long[]> bursts, boolean adaptive) throws Exception {
+		final File file = File.createTempFile("quiescence", ".sl2");
+		final int size = 4 * 1024 * 1024;
+		final AtomicLongArray lastWrite = new AtomicLongArray(bursts.size());
+		final AtomicBoolean done = new AtomicBoolean();
+		write(file, size, -1, 0);
+
+		Thread writer = new Thread("Writer") {
+			public void run () {
+				try {
+					for (int i = 0, n = bursts.size(); i < n; i++) {
+						long[] gaps = bursts.get(i);
+						for (int ii = 0; ii < gaps.length; ii++) {
+							Thread.sleep(gaps[ii]);
+							write(file, size, i, ii);
+						}
+						lastWrite.set(i, System.nanoTime());
+						Thread.sleep(2500);
+					}
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+				done.set(true);
+			}
+		};
+		writer.start();
+
+		QuiescenceDetector detector = new QuiescenceDetector(file, 50, 1000, adaptive);
+		FileWatcher watcher = new FileWatcher(file);
+		int snapshots = 0, torn = 0, retries = 0;
+		long totalLatency = 0, maxLatency = 0, lastModified = detector.sample(false).modified;
+		while (!done.get()) {
+			watcher.waitForChange(500);
+			if (detector.sample(false).modified == lastModified) continue;
+			while (true) {
+				State state = detector.await();
+				lastModified = state.modified;
+				byte[] snapshot = Files.readAllBytes(file.toPath());
+				if (detector.changedSince(state)) {
+					retries++;
+					continue;
+				}
+				snapshots++;
+				// The snapshot is torn if it isn't the last write of its burst.
+				int burst = snapshot[0], index = snapshot[1];
+				if (burst < 0 || index != bursts.get(burst).length - 1 || snapshot[size - 1] != snapshot[1]) {
+					torn++;
+					break;
+				}
+				while (lastWrite.get(burst) == 0)
+					Thread.sleep(1);
+				long latency = (System.nanoTime() - lastWrite.get(burst)) / 1000000;
+				totalLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+				break;
+			}
+		}
+		watcher.close();
+		file.delete();
+		System.out.println((adaptive ? "Adaptive" : "Fixed") + ": " + bursts.size() + " bursts, " + snapshots + " snapshots, "
+			+ torn + " torn (" + torn * 100 / Math.max(1, snapshots) + "%), " + retries + " retries, time to backup: "
+			+ totalLatency / Math.max(1, snapshots - torn) + " ms average, " + maxLatency + " ms max, quiet: " + detector.quiet
+			+ " ms");
+	}
+
+	/** Rewrites the file in place with the same length, with the burst and write index at the start and end. */
+	static private void write (File file, int size, int burst, int index) throws IOException {
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			byte[] bytes = new byte[size];
+			bytes[0] = (byte)burst;
+			bytes[1] = (byte)index;
+			bytes[size - 1] = (byte)index;
+			output.write(bytes);
+		}
+	}
+
+	static private ArrayList<long[]> randomBursts (int count) {
+		Random random = new Random(0);
+		ArrayList<long[]> bursts = new ArrayList();
+		for (int i = 0; i < count; i++) {
+			long[] gaps = new long[2 + random.nextInt(6)];
+			for (int ii = 1; ii < gaps.length; ii++)
+				gaps[ii] = 20 + random.nextInt(130);
+			bursts.add(gaps);
+		}
+		return bursts;
+	}
+
+	static private ArrayList<long[]> readBursts (File file) throws IOException {
+		ArrayList<long[]> bursts = new ArrayList();
+		ArrayList<Long> gaps = new ArrayList();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			while (true) {
+				String line = reader.readLine();
+				if (line == null || line.trim().isEmpty()) {
+					if (!gaps.isEmpty()) {
+						long[] burst = new long[gaps.size()];
+						for (int i = 0; i < burst.length; i++)
+							burst[i] = gaps.get(i);
+						bursts.add(burst);
+						gaps.clear();
+					}
+					if (line == null) break;
+				} else
+					gaps.add(Long.parseLong(line.trim()));
+			}
+		}
+		return bursts;
+	}
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Replaces the save file with a snapshot by copying it, by writing and renaming it, and by renaming a staged file. Staging is
+ * done before each invocation and isn't measured, as it is done in the background after each backup.
+ * @author Nathan Sweet */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestoreBenchmark {
+	@Param({"1", "8", "32"}) public int saveMB;
+
+	File dir, save, snapshot, other;
+	Store store;
+	StagedRestore restorer;
+	long hash;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException {
+		dir = Files.createTempDirectory("restore").toFile();
+		save = new File(dir, "save.sl2");
+		byte[] bytes = new byte[saveMB * 1024 * 1024];
+		new Random(0).nextBytes(bytes);
+		Files.write(save.toPath(), bytes);
+		store = new Store(new File(dir, "backup"));
+		snapshot = new File(store.dir, "backup1.sl2");
+		Files.write(snapshot.toPath(), bytes);
+		other = new File(store.dir, "backup2.sl2");
+		Files.write(other.toPath(), bytes);
+		hash = Fingerprint.of(bytes, 0, bytes.length);
+		restorer = new StagedRestore(save);
+	}
+
+	@Setup(Level.Invocation)
+	public void stage () throws IOException {
+		restorer.stage(snapshot, 0, store, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		StoreBenchmark.delete(dir);
+	}
+
+	/** Copies the snapshot onto the save file, as restoring did before staging. */
+	@Benchmark
+	public File copy () throws IOException {
+		Files.copy(snapshot.toPath(), save.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return save;
+	}
+
+	/** Restores a snapshot that isn't staged: written next to the save file, verified, then renamed. */
+	@Benchmark
+	public boolean unstaged () throws IOException {
+		return restorer.restore(other, hash, other.lastModified(), store, null);
+	}
+
+	@Benchmark
+	public boolean staged () throws IOException {
+		return restorer.restore(snapshot, hash, snapshot.lastModified(), store, null);
+	}
+}
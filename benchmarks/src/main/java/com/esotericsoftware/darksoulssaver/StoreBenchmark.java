@@ -0,0 +1,121 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Writes snapshots of a save file that changes a few KB between snapshots, like the game's save file does.
+ * @author Nathan Sweet */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+	@Param({"1", "8", "32"}) public int saveMB;
+	@Param({"raw", "chunks", "delta"}) public String store;
+	/** The number of snapshots kept by retention. */
+	@Param({"100"}) public int history;
+
+	File dir, save, snapshot;
+	Store snapshots;
+	BackupIndex files;
+	Retention retention;
+	final Random random = new Random(0);
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException {
+		dir = Files.createTempDirectory("store").toFile();
+		save = new File(dir, "save.sl2");
+		snapshot = new File(dir, "snapshot");
+		byte[] bytes = new byte[saveMB * 1024 * 1024];
+		random.nextBytes(bytes);
+		Files.write(save.toPath(), bytes);
+		File backupDir = new File(dir, "backup");
+		backupDir.mkdirs();
+		if (store.equals("raw"))
+			snapshots = new Store(backupDir);
+		else if (store.equals("chunks"))
+			snapshots = new ChunkStore(backupDir);
+		else
+			snapshots = new DeltaStore(backupDir, 20);
+		snapshot = new File(backupDir, "copy." + snapshots.extension);
+		files = new BackupIndex();
+		retention = new Retention(history, Long.MAX_VALUE);
+	}
+
+	/** Changes 4 KB of the save file, as the game does when it saves. */
+	@Setup(Level.Invocation)
+	public void change () throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(save, "rw")) {
+			byte[] bytes = new byte[4096];
+			random.nextBytes(bytes);
+			file.seek(random.nextInt((int)file.length() - bytes.length));
+			file.write(bytes);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		delete(dir);
+	}
+
+	/** Copies the save file to the same snapshot each time. */
+	@Benchmark
+	public long copy () throws IOException {
+		return snapshots.write(save, snapshot);
+	}
+
+	/** Writes a new snapshot and applies retention, deleting the oldest once there are more than history. */
+	@Benchmark
+	public File backup () {
+		return DarkSoulsSaver.backup(save, snapshots, files, "backup", retention, 0);
+	}
+
+	static void delete (File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files)
+				delete(child);
+		}
+		file.delete();
+	}
+}
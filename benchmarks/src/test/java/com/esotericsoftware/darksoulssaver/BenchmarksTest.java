@@ -0,0 +1,122 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Runs each benchmark method once, with the setup and tear down JMH would do, so the benchmarks keep working between runs of
+ * JMH. Numeric parameters use their first and smallest value, other parameters use each value.
+ * @author Nathan Sweet */
+public class BenchmarksTest {
+	static private final Class[] benchmarks = {CompressionBenchmark.class, CopyBenchmark.class, FilesBenchmark.class,
+		FingerprintBenchmark.class, HotkeysBenchmark.class, IndexBenchmark.class, LatencyBenchmark.class, RestoreBenchmark.class,
+		SoundBenchmark.class, StoreBenchmark.class};
+
+	@Test
+	public void runsEachBenchmark () throws Throwable {
+		for (Class type : benchmarks) {
+			ArrayList<Field> params = new ArrayList();
+			for (Field field : type.getFields())
+				if (field.isAnnotationPresent(Param.class)) params.add(field);
+			run(type, params, new String[params.size()], 0);
+		}
+	}
+
+	/** Runs the benchmark for each combination of parameter values. */
+	static private void run (Class type, ArrayList<Field> params, String[] values, int index) throws Throwable {
+		if (index < params.size()) {
+			Field field = params.get(index);
+			String[] options = field.getAnnotation(Param.class).value();
+			boolean numeric = field.getType() == int.class || field.getType() == long.class;
+			for (int i = 0, n = numeric ? 1 : options.length; i < n; i++) {
+				values[index] = options[i];
+				run(type, params, values, index + 1);
+			}
+			return;
+		}
+
+		Object benchmark = type.newInstance();
+		for (int i = 0; i < params.size(); i++) {
+			Field field = params.get(i);
+			if (field.getType() == int.class)
+				field.setInt(benchmark, Integer.parseInt(values[i]));
+			else if (field.getType() == long.class)
+				field.setLong(benchmark, Long.parseLong(values[i]));
+			else if (field.getType() == boolean.class)
+				field.setBoolean(benchmark, Boolean.parseBoolean(values[i]));
+			else
+				field.set(benchmark, values[i]);
+		}
+		String name = type.getSimpleName() + Arrays.toString(values);
+		invoke(benchmark, Setup.class, Level.Trial, name);
+		invoke(benchmark, Setup.class, Level.Iteration, name);
+		try {
+			int count = 0;
+			for (Method method : type.getMethods()) {
+				if (!method.isAnnotationPresent(Benchmark.class)) continue;
+				invoke(benchmark, Setup.class, Level.Invocation, name);
+				invoke(benchmark, method, name);
+				invoke(benchmark, TearDown.class, Level.Invocation, name);
+				count++;
+			}
+			assertTrue("No benchmarks: " + name, count > 0);
+		} finally {
+			invoke(benchmark, TearDown.class, Level.Iteration, name);
+			invoke(benchmark, TearDown.class, Level.Trial, name);
+		}
+	}
+
+	/** Invokes the setup or tear down methods for the level. */
+	static private void invoke (Object benchmark, Class annotation, Level level, String name) throws Throwable {
+		for (Method method : benchmark.getClass().getMethods()) {
+			Level methodLevel;
+			if (annotation == Setup.class) {
+				Setup setup = method.getAnnotation(Setup.class);
+				methodLevel = setup == null ? null : setup.value();
+			} else {
+				TearDown tearDown = method.getAnnotation(TearDown.class);
+				methodLevel = tearDown == null ? null : tearDown.value();
+			}
+			if (methodLevel == level) invoke(benchmark, method, name);
+		}
+	}
+
+	static private void invoke (Object benchmark, Method method, String name) throws Throwable {
+		try {
+			method.invoke(benchmark);
+		} catch (InvocationTargetException ex) {
+			throw new AssertionError(name + " " + method.getName() + " failed.", ex.getCause());
+		}
+	}
+}
@@ -1,54 +1,171 @@
-
 package com.esotericsoftware.darksoulssaver;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.SourceDataLine;
 
+/** Plays sounds on a mixer thread, so {@link #play(Sound)} returns immediately. Sounds that overlap are mixed together.
+ * @author Nathan Sweet */
 public class Audio {
 	static final int sampleRate = 16000;
+	/** Samples mixed at a time, 16 ms. */
+	static private final int blockSamples = 256;
 
-	private SourceDataLine line;
-	private byte[] empty;
+	private final Sink sink;
+	private final ConcurrentLinkedQueue<Cue> queue = new ConcurrentLinkedQueue();
+	private final Thread thread;
+	/** May be null. */
+	volatile Latency latency;
 
 	public Audio () {
+		this(openLine());
+	}
+
+	/** @param sink May be null for no sound. */
+	public Audio (Sink sink) {
+		this.sink = sink;
+		if (sink == null) {
+			thread = null;
+			return;
+		}
+		thread = Threads.platform("Audio", new Runnable() {
+			public void run () {
+				mix();
+			}
+		}, true);
+		thread.start();
+	}
+
+	static private Sink openLine () {
 		AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+		SourceDataLine line = null;
 		try {
 			line = (SourceDataLine)AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
 			line.open(format);
 			line.start();
-			empty = new byte[line.getBufferSize()];
+			return new LineSink(line);
 		} catch (Throwable ex) {
-			System.out.println("Error opening playback" + (line == null ? "." : ": " + line.getFormat()));
-			ex.printStackTrace(System.out);
-			line = null;
+			DarkSoulsSaver.print("Error opening playback" + (line == null ? "." : ": " + line.getFormat()), ex);
+			return null;
 		}
 	}
 
+	/** Queues a sound to be played. Doesn't block or lock.
+	 * @return false if there is no audio output. */
 	public boolean play (Sound sound) {
-		SourceDataLine line = this.line;
-		if (line == null) return false;
-		try {
-			play(sound.bytes);
-			play(empty);
-			return true;
-		} catch (IOException ex) {
-			System.out.println("Error writing audio.");
-			ex.printStackTrace(System.out);
-			return false;
-		}
-	}
-
-	private void play (byte[] bytes) throws IOException {
-		int count = bytes.length;
-		int written = 0;
-		while (written < count) {
-			int result = line.write(bytes, written, count - written);
-			if (result == -1) throw new IOException("Error writing audio: stream closed");
-			written += result;
+		if (sink == null) return false;
+		queue.offer(new Cue(sound.bytes, System.nanoTime()));
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	private void mix () {
+		ArrayList<Cue> playing = new ArrayList();
+		int[] samples = new int[blockSamples];
+		byte[] block = new byte[blockSamples * 2], empty = new byte[sink.bufferSize()];
+		boolean drained = true;
+		while (true) {
+			try {
+				for (Cue cue; (cue = queue.poll()) != null;) {
+					Latency latency = this.latency;
+					if (latency != null) latency.record("audio.cue", cue.queued);
+					playing.add(cue);
+				}
+				if (playing.isEmpty()) {
+					if (!drained) {
+						// Push the end of the last sound out of the line's buffer.
+						sink.write(empty, 0, empty.length);
+						drained = true;
+					}
+					LockSupport.park(this);
+					continue;
+				}
+				drained = false;
+
+				int count = 0;
+				for (int i = playing.size() - 1; i >= 0; i--) {
+					Cue cue = playing.get(i);
+					int n = Math.min(blockSamples, (cue.bytes.length - cue.position) >> 1);
+					for (int s = 0, p = cue.position; s < n; s++, p += 2)
+						samples[s] += (short)((cue.bytes[p] & 0xff) | cue.bytes[p + 1] << 8);
+					cue.position += n << 1;
+					if (cue.position + 1 >= cue.bytes.length) playing.remove(i);
+					count = Math.max(count, n);
+				}
+				for (int s = 0; s < count; s++) {
+					int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, samples[s]));
+					samples[s] = 0;
+					block[s << 1] = (byte)sample;
+					block[(s << 1) + 1] = (byte)(sample >> 8);
+				}
+				sink.write(block, 0, count << 1);
+			} catch (Throwable ex) {
+				DarkSoulsSaver.print("Error writing audio.", ex);
+				playing.clear();
+			}
+		}
+	}
+
+	static class Cue {
+		final byte[] bytes;
+		final long queued;
+		int position;
+
+		Cue (byte[] bytes, long queued) {
+			this.bytes = bytes;
+			this.queued = queued;
+		}
+	}
+
+	/** Where mixed 16 bit mono samples are written. Writing blocks until the samples are buffered. */
+	static public interface Sink {
+		public void write (byte[] bytes, int offset, int count) throws IOException;
+
+		/** @return The number of bytes the output buffers. */
+		public int bufferSize ();
+	}
+
+	static public class LineSink implements Sink {
+		final SourceDataLine line;
+
+		public LineSink (SourceDataLine line) {
+			this.line = line;
+		}
+
+		public void write (byte[] bytes, int offset, int count) throws IOException {
+			int end = offset + count;
+			while (offset < end) {
+				int result = line.write(bytes, offset, end - offset);
+				if (result == -1) throw new IOException("Error writing audio: stream closed");
+				offset += result;
+			}
+		}
+
+		public int bufferSize () {
+			return line.getBufferSize();
+		}
+	}
+
+	/** Discards the samples, taking as long as they would take to play, so sound can be tested without a sound card. */
+	static public class NullSink implements Sink {
+		private long time = System.nanoTime();
+
+		public void write (byte[] bytes, int offset, int count) {
+			long now = System.nanoTime();
+			// The buffer empties in real time, and writing blocks only when it is full.
+			time = Math.max(time, now) + count / 2 * 1000000000L / sampleRate;
+			long full = time - now - bufferSize() / 2 * 1000000000L / sampleRate;
+			if (full > 0) LockSupport.parkNanos(full);
+		}
+
+		public int bufferSize () {
+			return sampleRate / 2; // 250 ms.
 		}
 	}
 }
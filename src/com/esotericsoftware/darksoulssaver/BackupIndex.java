@@ -0,0 +1,283 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** The snapshots in a folder, oldest first. The modified time, size and number of each snapshot are stored so lookups don't
+ * need to access the disk. Snapshots are added at the end and removed from the start, both in constant time.
+ * @author Nathan Sweet */
+public class BackupIndex {
+	private File[] files;
+	private long[] modified, sizes, numbers, hashes;
+	private int start, size;
+	private long totalSize;
+	/** If not null, changes are appended to the manifest. */
+	Manifest manifest;
+
+	public BackupIndex () {
+		this(16);
+	}
+
+	public BackupIndex (int capacity) {
+		files = new File[capacity];
+		modified = new long[capacity];
+		sizes = new long[capacity];
+		numbers = new long[capacity];
+		hashes = new long[capacity];
+	}
+
+	/** @param modified If older than the last snapshot's modified time, the last snapshot's time is used so the times stay sorted
+	 *           for {@link #olderThan(long)}. */
+	public void add (File file, long modified, long size, long number) {
+		add(file, modified, size, number, 0);
+	}
+
+	/** @param hash A checksum of the snapshot's contents, or 0 if unknown. */
+	public void add (File file, long modified, long size, long number, long hash) {
+		int end = start + this.size;
+		if (this.size > 0) modified = Math.max(modified, this.modified[end - 1]);
+		if (end == files.length) {
+			if (start > files.length >> 1) {
+				// Reuse the space freed by removeFirst.
+				System.arraycopy(files, start, files, 0, this.size);
+				System.arraycopy(this.modified, start, this.modified, 0, this.size);
+				System.arraycopy(sizes, start, sizes, 0, this.size);
+				System.arraycopy(numbers, start, numbers, 0, this.size);
+				System.arraycopy(hashes, start, hashes, 0, this.size);
+				Arrays.fill(files, this.size, end, null);
+				start = 0;
+			} else {
+				int capacity = Math.max(16, files.length << 1);
+				files = Arrays.copyOf(files, capacity);
+				this.modified = Arrays.copyOf(this.modified, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+				numbers = Arrays.copyOf(numbers, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+			}
+			end = start + this.size;
+		}
+		files[end] = file;
+		this.modified[end] = modified;
+		sizes[end] = size;
+		numbers[end] = number;
+		hashes[end] = hash;
+		this.size++;
+		totalSize += size;
+		if (manifest != null) manifest.add(file, modified, size, number, hash);
+	}
+
+	/** Removes the oldest snapshot. */
+	public File removeFirst () {
+		if (size == 0) throw new IllegalStateException("No snapshots.");
+		File file = files[start];
+		files[start] = null;
+		totalSize -= sizes[start];
+		start++;
+		size--;
+		if (size == 0) start = 0;
+		if (manifest != null) manifest.remove(file);
+		return file;
+	}
+
+	/** Removes a snapshot, moving the newer snapshots down. Prefer {@link #removeFirst()} when removing the oldest. */
+	public File remove (int index) {
+		if (index == 0) return removeFirst();
+		int i = start + check(index);
+		File file = files[i];
+		totalSize -= sizes[i];
+		int count = size - index - 1;
+		System.arraycopy(files, i + 1, files, i, count);
+		System.arraycopy(modified, i + 1, modified, i, count);
+		System.arraycopy(sizes, i + 1, sizes, i, count);
+		System.arraycopy(numbers, i + 1, numbers, i, count);
+		System.arraycopy(hashes, i + 1, hashes, i, count);
+		size--;
+		files[start + size] = null;
+		if (manifest != null) manifest.remove(file);
+		return file;
+	}
+
+	/** Removes the snapshots at the indices, moving the newer snapshots down once for all of them.
+	 * @param indices Ascending.
+	 * @param removed Receives the removed files. */
+	public void remove (int[] indices, int count, ArrayList<File> removed) {
+		if (count == 0) return;
+		check(indices[count - 1]);
+		int to = start + check(indices[0]), end = start + size;
+		for (int from = to, i = 0; from < end; from++) {
+			if (i < count && from == start + indices[i]) {
+				File file = files[from];
+				removed.add(file);
+				totalSize -= sizes[from];
+				if (manifest != null) manifest.remove(file);
+				i++;
+				continue;
+			}
+			files[to] = files[from];
+			modified[to] = modified[from];
+			sizes[to] = sizes[from];
+			numbers[to] = numbers[from];
+			hashes[to] = hashes[from];
+			to++;
+		}
+		Arrays.fill(files, to, end, null);
+		size = to - start;
+		if (size == 0) start = 0;
+	}
+
+	/** Changes a snapshot's size, such as after it is stored in another format. */
+	public void setSize (int index, long size) {
+		int i = start + check(index);
+		totalSize += size - sizes[i];
+		sizes[i] = size;
+		if (manifest != null) manifest.add(files[i], modified[i], size, numbers[i], hashes[i]);
+	}
+
+	public int size () {
+		return size;
+	}
+
+	/** @return The sum of the sizes of all the snapshots. */
+	public long totalSize () {
+		return totalSize;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	public File file (int index) {
+		return files[start + check(index)];
+	}
+
+	public long modified (int index) {
+		return modified[start + check(index)];
+	}
+
+	public long size (int index) {
+		return sizes[start + check(index)];
+	}
+
+	public long number (int index) {
+		return numbers[start + check(index)];
+	}
+
+	public long hash (int index) {
+		return hashes[start + check(index)];
+	}
+
+	/** Removes all snapshots without writing to the manifest. */
+	public void clear () {
+		Arrays.fill(files, null);
+		start = 0;
+		size = 0;
+		totalSize = 0;
+	}
+
+	/** Makes the index match the snapshots found in the directory, keeping the times and hashes this index has for them. Snapshots
+	 * newer than the newest in this index are ignored, since they may not be committed yet.
+	 * @param store Each difference is checked on disk, since snapshots may have been committed or deleted after the directory was
+	 *           listed.
+	 * @return The number of snapshots added and removed. */
+	public int reconcile (BackupIndex found, Store store) {
+		long newest = size == 0 ? Long.MAX_VALUE : numbers[start + size - 1];
+		BackupIndex merged = new BackupIndex(Math.max(16, found.size + size));
+		int changes = 0, ii = 0;
+		for (int i = 0; i < found.size; i++) {
+			long number = found.number(i);
+			if (number > newest) break;
+			for (; ii < size && numbers[start + ii] < number; ii++) {
+				// Missing from the directory.
+				int j = start + ii;
+				if (store.file(files[j]).exists())
+					merged.add(files[j], modified[j], sizes[j], numbers[j], hashes[j]);
+				else
+					changes++;
+			}
+			if (ii < size && numbers[start + ii] == number) {
+				int j = start + ii++;
+				merged.add(files[j], modified[j], sizes[j], number, hashes[j]);
+			} else if (store.file(found.file(i)).exists()) {
+				merged.add(found.file(i), found.modified(i), found.size(i), number, found.hash(i));
+				changes++;
+			}
+		}
+		for (; ii < size; ii++) {
+			// Newer than the directory listing.
+			int j = start + ii;
+			if (store.file(files[j]).exists())
+				merged.add(files[j], modified[j], sizes[j], numbers[j], hashes[j]);
+			else
+				changes++;
+		}
+		if (changes == 0) return 0;
+		clear();
+		Manifest manifest = this.manifest;
+		this.manifest = null;
+		for (int i = 0; i < merged.size; i++)
+			add(merged.file(i), merged.modified(i), merged.size(i), merged.number(i), merged.hash(i));
+		this.manifest = manifest;
+		if (manifest != null) manifest.rewrite(this);
+		return changes;
+	}
+
+	/** @return The index of the newest snapshot, or -1 if there are none. */
+	public int last () {
+		return size - 1;
+	}
+
+	/** Returns the newest snapshot modified before the specified time using a binary search.
+	 * @return The index of the newest snapshot older than the time, else 0 for the oldest snapshot, or -1 if there are none. */
+	public int olderThan (long time) {
+		int low = 0, high = size - 1, found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (modified[start + mid] < time) {
+				found = mid;
+				low = mid + 1;
+			} else
+				high = mid - 1;
+		}
+		if (found == -1 && size > 0) return 0;
+		return found;
+	}
+
+	/** @return The index of the oldest snapshot with a number greater than the specified number, or size() if there are none. */
+	public int after (long number) {
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (numbers[start + mid] <= number)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private int check (int index) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index must be >= 0 and < " + size + ": " + index);
+		return index;
+	}
+}
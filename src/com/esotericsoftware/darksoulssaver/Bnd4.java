@@ -0,0 +1,250 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/** Reads the entries of a BND4 container, the format of the save files for Dark Souls Remastered, 2 and 3. The save file has an
+ * entry for each character slot and one for the menu. Entries are slices of the buffer, so nothing is copied.
+ * <p>
+ * The buffer may contain only the header, which is enough to get the offset, size and name of the entries.
+ * @author Nathan Sweet */
+public class Bnd4 {
+	static private final int headerSize = 0x40;
+	static private final int formatIDs = 0x02, formatNames = 0x0c, formatLongOffsets = 0x10, formatCompression = 0x20;
+
+	final ByteBuffer buffer;
+	private final long[] offsets, sizes;
+	private final String[] names;
+	private final long dataStart;
+
+	/** @param buffer The container, or at least its header. The position and limit are not changed. */
+	public Bnd4 (ByteBuffer buffer) throws IOException {
+		this.buffer = buffer = buffer.duplicate();
+		buffer.position(0);
+		if (!is(buffer)) throw new IOException("Not a BND4 file.");
+		buffer.order(buffer.get(0x09) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		int count = buffer.getInt(0x0c);
+		if (buffer.getLong(0x10) != headerSize) throw new IOException("Invalid BND4 header size: " + buffer.getLong(0x10));
+		long entryHeaderSize = buffer.getLong(0x20);
+		if (count < 0 || entryHeaderSize < 16 || entryHeaderSize > 64 || headerSize + count * entryHeaderSize > buffer.limit())
+			throw new IOException("Invalid BND4 entries: " + count + ", " + entryHeaderSize);
+		boolean unicode = buffer.get(0x30) != 0;
+		int format = format(buffer.get(0x31), buffer.get(0x0a) == 0);
+
+		offsets = new long[count];
+		sizes = new long[count];
+		names = new String[count];
+		long dataStart = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int p = headerSize + (int)(i * entryHeaderSize) + 8; // Skip the flags and -1.
+			sizes[i] = buffer.getLong(p);
+			p += 8;
+			if ((format & formatCompression) != 0) p += 8; // Uncompressed size.
+			if ((format & formatLongOffsets) != 0) {
+				offsets[i] = buffer.getLong(p);
+				p += 8;
+			} else {
+				offsets[i] = buffer.getInt(p) & 0xffffffffL;
+				p += 4;
+			}
+			if ((format & formatIDs) != 0) p += 4;
+			if ((format & formatNames) != 0) names[i] = string(buffer, buffer.getInt(p) & 0xffffffffL, unicode);
+			if (sizes[i] < 0 || offsets[i] < 0) throw new IOException("Invalid BND4 entry: " + i);
+			if (sizes[i] > 0) dataStart = Math.min(dataStart, offsets[i]);
+		}
+		this.dataStart = dataStart == Long.MAX_VALUE ? headerSize + count * entryHeaderSize : dataStart;
+	}
+
+	public int size () {
+		return offsets.length;
+	}
+
+	public long offset (int index) {
+		return offsets[index];
+	}
+
+	public long size (int index) {
+		return sizes[index];
+	}
+
+	/** @return May be null. */
+	public String name (int index) {
+		return names[index];
+	}
+
+	/** @return The offset of the first entry's data. Everything before it is the header. */
+	public long dataStart () {
+		return dataStart;
+	}
+
+	/** @return A slice of the buffer with the entry's data. */
+	public ByteBuffer entry (int index) throws IOException {
+		long end = offsets[index] + sizes[index];
+		if (end > buffer.limit()) throw new IOException("Entry " + index + " is outside the buffer: " + end);
+		ByteBuffer entry = buffer.duplicate();
+		entry.limit((int)end).position((int)offsets[index]);
+		return entry.slice();
+	}
+
+	/** Returns the entries ordered by offset, or null if any overlap. Entries with no data are not included. */
+	int[] layout () {
+		int count = 0;
+		Integer[] order = new Integer[offsets.length];
+		for (int i = 0; i < offsets.length; i++)
+			if (sizes[i] > 0) order[count++] = i;
+		Arrays.sort(order, 0, count, new Comparator<Integer>() {
+			public int compare (Integer o1, Integer o2) {
+				return Long.compare(offsets[o1], offsets[o2]);
+			}
+		});
+		int[] layout = new int[count];
+		long end = dataStart;
+		for (int i = 0; i < count; i++) {
+			layout[i] = order[i];
+			if (offsets[layout[i]] < end) return null;
+			end = offsets[layout[i]] + sizes[layout[i]];
+		}
+		return layout;
+	}
+
+	static public boolean is (ByteBuffer buffer) {
+		return buffer.limit() >= headerSize && buffer.get(0) == 'B' && buffer.get(1) == 'N' && buffer.get(2) == 'D'
+			&& buffer.get(3) == '4';
+	}
+
+	/** Reads only the header of a container, which is small compared to the entries. The file isn't mapped, since on Windows a
+	 * mapped file can't be replaced until the mapping is garbage collected.
+	 * @return null if the file isn't a BND4 container. */
+	static public Bnd4 header (FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(headerSize);
+		channel.read(buffer, 0);
+		buffer.flip();
+		if (!is(buffer)) return null;
+		buffer.order(buffer.get(0x09) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		// The header, entry headers, names and hash table end at the first entry's data, found by reading the entry headers.
+		long end = headerSize + Math.max(0, buffer.getInt(0x0c)) * Math.max(0, buffer.getLong(0x20));
+		for (int i = 0; i < 2; i++) {
+			end = Math.min(end, Math.min(channel.size(), 16 * 1024 * 1024));
+			buffer = ByteBuffer.allocate((int)end);
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+			}
+			buffer.flip();
+			Bnd4 bnd = new Bnd4(buffer);
+			if (bnd.dataStart <= end) return bnd;
+			end = bnd.dataStart;
+		}
+		throw new IOException("Invalid BND4 header.");
+	}
+
+	/** Overwrites an entry in a container with the same layout, leaving the rest of the file as it is. The file isn't mapped, so it
+	 * can still be replaced by the game. */
+	static public void writeEntry (File file, int index, ByteBuffer data) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			Bnd4 bnd = header(channel);
+			if (bnd == null) throw new IOException("Not a BND4 file: " + file.getAbsolutePath());
+			if (index < 0 || index >= bnd.size()) throw new IOException("Entry " + index + " not found: " + file.getAbsolutePath());
+			if (bnd.size(index) != data.remaining())
+				throw new IOException("Entry " + index + " size differs, " + data.remaining() + " != " + bnd.size(index));
+			for (long position = bnd.offset(index); data.hasRemaining();)
+				position += channel.write(data, position);
+		}
+	}
+
+	/** Writes a container laid out like a Dark Souls save file, with the entry headers, UTF-16 names, then the entries each aligned
+	 * to 16 bytes. */
+	static public ByteBuffer write (String[] names, ByteBuffer[] entries) {
+		int count = entries.length, entryHeaderSize = 0x20;
+		int namesStart = headerSize + count * entryHeaderSize, position = namesStart;
+		int[] nameOffsets = new int[count], offsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			nameOffsets[i] = position;
+			position += (names[i].length() + 1) * 2;
+		}
+		for (int i = 0; i < count; i++) {
+			position = (position + 15) & ~15;
+			offsets[i] = position;
+			position += entries[i].remaining();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(position).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(new byte[] {'B', 'N', 'D', '4'});
+		buffer.put(0x0a, (byte)1); // Bits aren't big endian.
+		buffer.putInt(0x0c, count);
+		buffer.putLong(0x10, headerSize);
+		buffer.position(0x18);
+		buffer.put(new byte[] {'0', '0', '0', '0', '0', '0', '0', '0'});
+		buffer.putLong(0x20, entryHeaderSize);
+		buffer.putLong(0x28, namesStart);
+		buffer.put(0x30, (byte)1); // Unicode.
+		buffer.put(0x31, (byte)0x24); // Names and uncompressed sizes. Reads the same with the bits reversed.
+		for (int i = 0; i < count; i++) {
+			int p = headerSize + i * entryHeaderSize;
+			buffer.put(p, (byte)0x40);
+			buffer.putInt(p + 4, -1);
+			buffer.putLong(p + 8, entries[i].remaining());
+			buffer.putLong(p + 16, entries[i].remaining());
+			buffer.putInt(p + 24, offsets[i]);
+			buffer.putInt(p + 28, nameOffsets[i]);
+			buffer.position(nameOffsets[i]);
+			buffer.put(names[i].getBytes(StandardCharsets.UTF_16LE));
+			buffer.position(offsets[i]);
+			buffer.put(entries[i].duplicate());
+		}
+		buffer.position(0);
+		return buffer;
+	}
+
+	/** The format's bits are stored reversed unless the header says otherwise, except some files that have bit 0 set and bit 7
+	 * clear. */
+	static private int format (byte raw, boolean bitBigEndian) {
+		int format = raw & 0xff;
+		if (bitBigEndian || ((format & 1) != 0 && (format & 0x80) == 0)) return format;
+		return Integer.reverse(format) >>> 24;
+	}
+
+	static private String string (ByteBuffer buffer, long offset, boolean unicode) {
+		if (offset <= 0 || offset >= buffer.limit()) return null;
+		int start = (int)offset, end = start;
+		Charset charset;
+		if (unicode) {
+			while (end + 1 < buffer.limit() && (buffer.get(end) != 0 || buffer.get(end + 1) != 0))
+				end += 2;
+			charset = buffer.order() == ByteOrder.BIG_ENDIAN ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE;
+		} else {
+			while (end < buffer.limit() && buffer.get(end) != 0)
+				end++;
+			charset = StandardCharsets.US_ASCII;
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, charset);
+	}
+}
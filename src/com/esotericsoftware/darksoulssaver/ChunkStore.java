@@ -0,0 +1,290 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** Stores each snapshot as a small list of chunk hashes. The chunks are stored once in the chunks folder, named by their hash, so
+ * unchanged regions of the save file cost no disk space or bandwidth. Save files are rewritten in place with the same layout, so
+ * fixed size chunks line up between snapshots.
+ * @author Nathan Sweet */
+public class ChunkStore extends Store {
+	static private final int magic = 0x44535343; // DSSC
+	static private final int hashSize = 20;
+
+	final File chunkDir;
+	final int chunkSize;
+	private HashMap<String, Integer> references;
+	private final MessageDigest digest;
+
+	public ChunkStore (File dir) {
+		this(dir, 32 * 1024);
+	}
+
+	public ChunkStore (File dir, int chunkSize) {
+		this(dir, "chunks", chunkSize);
+	}
+
+	protected ChunkStore (File dir, String extension, int chunkSize) {
+		super(dir, extension);
+		this.chunkSize = chunkSize;
+		chunkDir = new File(dir, "chunks");
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public long write (File from, File to) throws IOException {
+		try (InputStream input = new FileInputStream(from)) {
+			return write(input, chunkSizes(from), to);
+		}
+	}
+
+	public byte[] writeBytes (File from, File to) throws IOException {
+		byte[] bytes = Files.readAllBytes(from.toPath());
+		write(new ByteArrayInputStream(bytes), chunkSizes(from), to);
+		return bytes;
+	}
+
+	private long write (InputStream input, int[] sizes, File to) throws IOException {
+		HashMap<String, Integer> references = references();
+		ArrayList<String> hashes = new ArrayList();
+		int bufferSize = chunkSize;
+		if (sizes != null) {
+			for (int size : sizes)
+				bufferSize = Math.max(bufferSize, size);
+		}
+		byte[] buffer = new byte[bufferSize];
+		long length = 0, written = 0;
+		for (int i = 0;; i++) {
+			// Any bytes after the chunk sizes use the chunk size.
+			int size = sizes != null && i < sizes.length ? sizes[i] : chunkSize;
+			int count = readFully(input, buffer, size);
+			if (count == 0) break;
+			length += count;
+			digest.update(buffer, 0, count);
+			String hash = hex(digest.digest());
+			hashes.add(hash);
+			if (!references.containsKey(hash)) {
+				writeAtomic(buffer, count, chunk(hash));
+				references.put(hash, 0);
+				written += count;
+			}
+			if (count < size) break;
+		}
+
+		File temp = new File(to.getPath() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			output.writeInt(magic);
+			output.writeInt(chunkSize);
+			output.writeLong(length);
+			output.writeInt(hashes.size());
+			for (String hash : hashes)
+				output.write(unhex(hash));
+		}
+		written += temp.length();
+		Files.move(temp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		for (String hash : hashes)
+			references.put(hash, references.get(hash) + 1);
+		totalBytes += length;
+		writtenBytes += written;
+		return written;
+	}
+
+	/** Returns the size of each chunk for the file, so chunks can follow the file's structure. Chunks after the last size, or all
+	 * chunks if null is returned, use the chunk size. */
+	protected int[] chunkSizes (File from) throws IOException {
+		return null;
+	}
+
+	public void read (File snapshot, File to) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) {
+			super.read(snapshot, to);
+			return;
+		}
+		try (OutputStream output = new FileOutputStream(to)) {
+			read(snapshot, output);
+		}
+	}
+
+	public byte[] bytes (File snapshot) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) return super.bytes(snapshot);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		read(snapshot, output);
+		return output.toByteArray();
+	}
+
+	private void read (File snapshot, OutputStream output) throws IOException {
+		long length = 0, expected;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+			if (input.readInt() != magic) throw new IOException("Invalid chunk list: " + snapshot.getAbsolutePath());
+			input.readInt();
+			expected = input.readLong();
+			int count = input.readInt();
+			byte[] hash = new byte[hashSize];
+			for (int i = 0; i < count; i++) {
+				input.readFully(hash);
+				File chunk = chunk(hex(hash));
+				if (!chunk.exists()) throw new IOException("Missing chunk: " + chunk.getAbsolutePath());
+				length += Files.copy(chunk.toPath(), output);
+			}
+		}
+		if (length != expected) throw new IOException("Restored " + length + " bytes, expected " + expected + ": " + snapshot);
+	}
+
+	/** @return The length of the file the snapshot was written from, since the chunk list's length isn't the space it uses. */
+	public long size (File snapshot) {
+		if (!snapshot.getName().endsWith('.' + extension)) return super.size(snapshot);
+		try (DataInputStream input = new DataInputStream(new FileInputStream(snapshot))) {
+			if (input.readInt() != magic) return super.size(snapshot);
+			input.readInt();
+			return input.readLong();
+		} catch (IOException ex) {
+			return super.size(snapshot);
+		}
+	}
+
+	public BackupIndex list (String prefix) {
+		BackupIndex index = super.list(prefix);
+		for (int i = 0, n = index.size(); i < n; i++)
+			index.setSize(i, size(index.file(i)));
+		return index;
+	}
+
+	public void delete (File snapshot) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) {
+			super.delete(snapshot);
+			return;
+		}
+		HashMap<String, Integer> references = references();
+		ArrayList<String> hashes = hashes(snapshot);
+		snapshot.delete();
+		for (String hash : hashes) {
+			Integer count = references.get(hash);
+			if (count == null) continue;
+			if (count > 1)
+				references.put(hash, count - 1);
+			else {
+				references.remove(hash);
+				chunk(hash).delete();
+			}
+		}
+	}
+
+	public String stats () {
+		if (writtenBytes == 0) return "";
+		return String.format(" (%d KB written, %.1fx dedup)", writtenBytes / 1024, totalBytes / (double)writtenBytes);
+	}
+
+	/** Counts the snapshots that use each chunk. This is loaded from the existing snapshots the first time it's needed. */
+	private HashMap<String, Integer> references () throws IOException {
+		if (references != null) return references;
+		HashMap<String, Integer> references = new HashMap();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.getName().endsWith('.' + extension)) continue;
+				for (String hash : hashes(file)) {
+					Integer count = references.get(hash);
+					references.put(hash, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		this.references = references;
+		return references;
+	}
+
+	ArrayList<String> hashes (File snapshot) throws IOException {
+		ArrayList<String> hashes = new ArrayList();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+			if (input.readInt() != magic) throw new IOException("Invalid chunk list: " + snapshot.getAbsolutePath());
+			input.readInt();
+			input.readLong();
+			byte[] hash = new byte[hashSize];
+			for (int i = 0, n = input.readInt(); i < n; i++) {
+				input.readFully(hash);
+				hashes.add(hex(hash));
+			}
+		}
+		return hashes;
+	}
+
+	File chunk (String hash) {
+		return new File(chunkDir, hash.substring(0, 2) + File.separatorChar + hash.substring(2));
+	}
+
+	static void writeAtomic (byte[] bytes, int count, File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+		try (OutputStream output = new FileOutputStream(temp)) {
+			output.write(bytes, 0, count);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static int readFully (InputStream input, byte[] buffer, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int count = input.read(buffer, offset, length - offset);
+			if (count == -1) break;
+			offset += count;
+		}
+		return offset;
+	}
+
+	static private final char[] digits = "0123456789abcdef".toCharArray();
+
+	static String hex (byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0, ii = 0; i < bytes.length; i++) {
+			chars[ii++] = digits[(bytes[i] >> 4) & 0xf];
+			chars[ii++] = digits[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	static byte[] unhex (String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		return bytes;
+	}
+}
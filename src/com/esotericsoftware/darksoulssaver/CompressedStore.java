@@ -0,0 +1,296 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Stores each snapshot as independently compressed blocks. The blocks are compressed in parallel when written. When restored,
+ * blocks are decompressed in parallel a few ahead of the block being written, so the file is written as a stream.
+ * <p>
+ * If restoring spends longer than the restore budget waiting for blocks to be decompressed, new snapshots use a faster codec:
+ * Deflate, then {@link Lz}, then no compression.
+ * @author Nathan Sweet */
+public class CompressedStore extends Store {
+	static private final int magic = 0x4453535A; // DSSZ
+	static private final int blockSize = 256 * 1024;
+	static final byte stored = 0, deflate = 1, lz = 2;
+	static private final String[] codecNames = {"stored", "deflate", "lz"};
+
+	final int level;
+	final long restoreBudget;
+	private volatile byte codec;
+	private final ForkJoinPool pool = ForkJoinPool.commonPool();
+	private byte[] previous;
+	private String previousName;
+
+	/** @param level The Deflate level, 1 to 9, or 0 to use {@link Lz}.
+	 * @param restoreBudget The milliseconds restoring may spend waiting for decompression before new snapshots use a faster
+	 *           codec, or 0 for no limit. */
+	public CompressedStore (File dir, int level, long restoreBudget) {
+		super(dir, "z");
+		if (level < 0 || level > 9) throw new IllegalArgumentException("level must be >= 0 and <= 9: " + level);
+		this.level = level;
+		this.restoreBudget = restoreBudget;
+		codec = level == 0 ? lz : deflate;
+	}
+
+	public synchronized long write (File from, File to) throws IOException {
+		byte[] bytes = Files.readAllBytes(from.toPath());
+		int count = (bytes.length + blockSize - 1) / blockSize;
+		ArrayList<Compress> tasks = new ArrayList(count);
+		for (int i = 0; i < count; i++) {
+			int offset = i * blockSize;
+			tasks.add(new Compress(bytes, offset, Math.min(blockSize, bytes.length - offset), codec, level));
+		}
+		if (count > 1)
+			pool.invoke(new Batch(tasks));
+		else if (count == 1) tasks.get(0).invoke();
+
+		File temp = new File(to.getPath() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			output.writeInt(magic);
+			output.writeInt(blockSize);
+			output.writeLong(bytes.length);
+			for (Compress task : tasks) {
+				output.writeByte(task.codec);
+				output.writeInt(task.length);
+				output.write(task.getRawResult(), 0, task.length);
+			}
+		}
+		long written = temp.length();
+		Files.move(temp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		previous = bytes;
+		previousName = to.getName();
+		totalBytes += bytes.length;
+		writtenBytes += written;
+		return written;
+	}
+
+	public synchronized byte[] writeBytes (File from, File to) throws IOException {
+		write(from, to);
+		return previous;
+	}
+
+	public void read (File snapshot, File to) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) {
+			super.read(snapshot, to);
+			return;
+		}
+		File temp = new File(to.getPath() + ".tmp");
+		try (OutputStream output = new FileOutputStream(temp)) {
+			decompress(snapshot, output);
+		}
+		Files.move(temp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public byte[] bytes (File snapshot) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) return super.bytes(snapshot);
+		synchronized (this) {
+			if (snapshot.getName().equals(previousName)) return previous;
+		}
+		return decompress(snapshot, null);
+	}
+
+	/** Decompresses the blocks of a snapshot in parallel, writing each to the output as soon as it and the blocks before it are
+	 * done.
+	 * @param output If null, the blocks are decompressed into a byte array instead.
+	 * @return The snapshot's bytes if output is null. */
+	private byte[] decompress (File snapshot, OutputStream output) throws IOException {
+		byte[] bytes = null;
+		int ahead = Math.max(2, pool.getParallelism() * 2);
+		long waited = 0;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 64 * 1024))) {
+			if (input.readInt() != magic) throw new IOException("Invalid compressed snapshot: " + snapshot.getAbsolutePath());
+			int blockSize = input.readInt();
+			long length = input.readLong();
+			if (output == null) {
+				if (length > Integer.MAX_VALUE) throw new IOException("Snapshot too large: " + snapshot.getAbsolutePath());
+				bytes = new byte[(int)length];
+			}
+			ArrayDeque<Decompress> tasks = new ArrayDeque();
+			long offset = 0;
+			while (offset < length || !tasks.isEmpty()) {
+				// Read and start decompressing blocks until enough are ahead, then write the oldest.
+				if (offset < length && tasks.size() < ahead) {
+					int rawLength = (int)Math.min(blockSize, length - offset);
+					byte codec = input.readByte();
+					byte[] block = new byte[input.readInt()];
+					input.readFully(block);
+					Decompress task = new Decompress(block, codec, rawLength, bytes, (int)offset);
+					pool.execute(task);
+					tasks.add(task);
+					offset += rawLength;
+					continue;
+				}
+				Decompress task = tasks.removeFirst();
+				long start = System.nanoTime();
+				byte[] block = join(task);
+				waited += System.nanoTime() - start;
+				if (output != null) output.write(block, 0, task.rawLength);
+			}
+		}
+		budget(waited / 1000000);
+		return bytes;
+	}
+
+	/** Uses a faster codec for new snapshots if restoring waited too long for decompression. */
+	private void budget (long waited) {
+		if (restoreBudget <= 0 || waited <= restoreBudget || codec == stored) return;
+		codec = codec == deflate ? lz : stored;
+		DarkSoulsSaver.print("Restore waited " + waited + " ms for decompression, using codec: " + codecNames[codec]);
+	}
+
+	static private byte[] join (Decompress task) throws IOException {
+		try {
+			return task.join();
+		} catch (RuntimeException ex) {
+			// The exception may have been wrapped again when rethrown in this thread.
+			for (Throwable cause = ex; cause != null; cause = cause.getCause())
+				if (cause instanceof IOException) throw (IOException)cause;
+			throw ex;
+		}
+	}
+
+	public String stats () {
+		if (writtenBytes == 0) return "";
+		return String.format(" (%d KB written, %.1fx compression, %s)", writtenBytes / 1024, totalBytes / (double)writtenBytes,
+			codecNames[codec]);
+	}
+
+	static class Batch extends RecursiveTask<Void> {
+		final ArrayList<Compress> tasks;
+
+		Batch (ArrayList<Compress> tasks) {
+			this.tasks = tasks;
+		}
+
+		protected Void compute () {
+			ForkJoinTask.invokeAll(tasks);
+			return null;
+		}
+	}
+
+	static class Compress extends RecursiveTask<byte[]> {
+		final byte[] bytes;
+		final int offset, rawLength, level;
+		byte codec;
+		int length;
+
+		Compress (byte[] bytes, int offset, int rawLength, byte codec, int level) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.rawLength = rawLength;
+			this.codec = codec;
+			this.level = level;
+		}
+
+		protected byte[] compute () {
+			byte[] output = null;
+			if (codec == deflate) {
+				Deflater deflater = new Deflater(level);
+				try {
+					deflater.setInput(bytes, offset, rawLength);
+					deflater.finish();
+					output = new byte[rawLength];
+					length = deflater.deflate(output);
+					if (!deflater.finished()) output = null;
+				} finally {
+					deflater.end();
+				}
+			} else if (codec == lz) {
+				output = new byte[Lz.maxCompressed(rawLength)];
+				length = Lz.compress(bytes, offset, rawLength, output);
+				if (length >= rawLength) output = null;
+			}
+			if (output == null) {
+				// Incompressible.
+				codec = stored;
+				length = rawLength;
+				output = new byte[rawLength];
+				System.arraycopy(bytes, offset, output, 0, rawLength);
+			}
+			return output;
+		}
+	}
+
+	static class Decompress extends RecursiveTask<byte[]> {
+		final byte[] block;
+		final byte codec;
+		final int rawLength, offset;
+		/** May be null. */
+		final byte[] bytes;
+
+		Decompress (byte[] block, byte codec, int rawLength, byte[] bytes, int offset) {
+			this.block = block;
+			this.codec = codec;
+			this.rawLength = rawLength;
+			this.bytes = bytes;
+			this.offset = offset;
+		}
+
+		protected byte[] compute () {
+			try {
+				byte[] output = bytes != null ? bytes : new byte[rawLength];
+				int outputOffset = bytes != null ? offset : 0;
+				if (codec == stored) {
+					if (block.length != rawLength) throw new IOException("Invalid block length: " + block.length);
+					System.arraycopy(block, 0, output, outputOffset, rawLength);
+				} else if (codec == deflate) {
+					Inflater inflater = new Inflater();
+					try {
+						inflater.setInput(block);
+						int count = inflater.inflate(output, outputOffset, rawLength);
+						if (count != rawLength) throw new IOException("Invalid block length: " + count);
+					} finally {
+						inflater.end();
+					}
+				} else if (codec == lz)
+					Lz.decompress(block, 0, block.length, output, outputOffset, rawLength);
+				else
+					throw new IOException("Unknown codec: " + codec);
+				return output;
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			} catch (DataFormatException ex) {
+				throw new RuntimeException(new IOException("Invalid compressed block.", ex));
+			}
+		}
+	}
+}
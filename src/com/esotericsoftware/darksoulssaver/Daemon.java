@@ -0,0 +1,208 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.management.JMException;
+import javax.swing.KeyStroke;
+
+/** Backs up the save files of any number of games. The games share one keyboard hook, one file watcher and a fixed number of
+ * I/O threads, so the number of threads doesn't grow with the number of save files. Backups are scheduled by
+ * {@link IoScheduler}, so a game with a large save file doesn't keep the others waiting.
+ * <p>
+ * Games can use the same hotkeys. A hotkey shared by several games goes to the first one that is running, or to the first one if
+ * none are running.
+ * @author Nathan Sweet */
+public class Daemon {
+	static private final long pollMillis = 3000;
+
+	final ArrayList<DarkSoulsSaver> savers = new ArrayList();
+	final ArrayList<IoScheduler.Owner> owners = new ArrayList();
+	final ArrayList<Metrics> metrics = new ArrayList();
+	final HashMap<KeyStroke, ArrayList<Binding>> bindings = new HashMap();
+	final Latency latency = new Latency();
+	final Audio audio;
+	final IoScheduler scheduler;
+	final FileWatcher watcher = new FileWatcher();
+	Keyboard keyboard;
+	Thread watch;
+	volatile boolean running;
+
+	/** Starts the hotkeys and backups.
+	 * @see #Daemon(String[], Audio) */
+	public Daemon (String[] configFiles) throws Exception {
+		this(configFiles, new Audio());
+		startHotkeys();
+		start();
+	}
+
+	/** Loads the configs without starting the hotkeys or backups. The latencyInterval, ioThreads, copyParallelMB, copySync,
+	 * journal, journalMB and metricsPort options are read from the first config. Each game's metrics are registered as an MBean. */
+	public Daemon (String[] configFiles, Audio audio) throws Exception {
+		this.audio = audio;
+		audio.latency = latency;
+		latency.add(Fingerprint.throughput);
+		latency.add(FileCopy.single);
+		latency.add(FileCopy.parallel);
+		for (String path : configFiles) {
+			File configFile = new File(path);
+			// With several games, each has its own save and backup folders.
+			String dir = configFiles.length > 1 ? DarkSoulsSaver.name(configFile) : null;
+			DarkSoulsSaver saver = new DarkSoulsSaver(configFile, dir, audio, latency);
+			savers.add(saver);
+			metrics.add(saver.metrics);
+			try {
+				saver.metrics.register();
+			} catch (JMException ex) {
+				DarkSoulsSaver.print("Unable to register metrics: " + saver.name, ex);
+			}
+		}
+		scheduler = new IoScheduler(Integer.parseInt(savers.get(0).option("ioThreads", "2")));
+		FileCopy.parallelSize = Long.parseLong(savers.get(0).option("copyParallelMB", "32")) * 1024 * 1024;
+		FileCopy.sync = Boolean.parseBoolean(savers.get(0).option("copySync", "false"));
+	}
+
+	public void startHotkeys () {
+		keyboard = new Keyboard() {
+			protected void hotkey (String key, KeyStroke keyStroke) {
+				keyPressed(keyStroke);
+			}
+		};
+		keyboard.latency = latency;
+		bind(keyboard);
+		keyboard.start();
+	}
+
+	/** Registers each game's hotkeys with the keyboard. A hotkey used by several games is registered once. */
+	void bind (Keyboard keyboard) {
+		for (DarkSoulsSaver saver : savers) {
+			String[] actions = DarkSoulsSaver.actions;
+			for (int i = 0; i < actions.length; i += 2) {
+				KeyStroke keyStroke = saver.keyStroke(actions[i], actions[i + 1]);
+				ArrayList<Binding> list = bindings.get(keyStroke);
+				if (list == null) {
+					list = new ArrayList();
+					bindings.put(keyStroke, list);
+					keyboard.registerHotkey(keyStroke.toString(), keyStroke);
+				}
+				list.add(new Binding(saver, actions[i]));
+			}
+		}
+	}
+
+	/** Starts watching the save files and backing them up. */
+	public void start () {
+		String journalFile = savers.get(0).option("journal", "journal.bin");
+		if (!journalFile.isEmpty()) {
+			try {
+				long maxLength = Long.parseLong(savers.get(0).option("journalMB", "16")) * 1024 * 1024;
+				DarkSoulsSaver.journal.open(new File(journalFile), maxLength);
+			} catch (IOException ex) {
+				DarkSoulsSaver.print("Unable to open journal: " + new File(journalFile).getAbsolutePath(), ex);
+			}
+		}
+		latency.start(Integer.parseInt(savers.get(0).option("latencyInterval", "600")));
+		int metricsPort = Integer.parseInt(savers.get(0).option("metricsPort", "0"));
+		if (metricsPort > 0) {
+			try {
+				Metrics.serve(metricsPort, metrics);
+				DarkSoulsSaver.print("Metrics: http://localhost:" + metricsPort + "/metrics");
+			} catch (IOException ex) {
+				DarkSoulsSaver.print("Unable to serve metrics on port: " + metricsPort, ex);
+			}
+		}
+		for (DarkSoulsSaver saver : savers) {
+			IoScheduler.Owner owner = scheduler.owner(saver.name);
+			owners.add(owner);
+			saver.io = owner;
+			owner.submit(saver.reconcile);
+			owner.submit(saver.stage);
+			if (saver.tieredStore != null) owner.submit(saver.migrate);
+			watcher.add(saver.saveFile);
+		}
+
+		running = true;
+		watch = Threads.start("Watch", new Runnable() {
+			public void run () {
+				ArrayList<File> changed = new ArrayList();
+				long polled = System.currentTimeMillis();
+				while (running) {
+					// Wake as soon as a save file is written. Every save file is checked periodically in case a notification is missed.
+					changed.clear();
+					boolean poll = !watcher.waitForChanges(pollMillis, changed);
+					long now = System.currentTimeMillis();
+					if (now - polled >= pollMillis) {
+						poll = true;
+						polled = now;
+					}
+					for (int i = 0, n = savers.size(); i < n; i++) {
+						DarkSoulsSaver saver = savers.get(i);
+						if (poll || changed.contains(saver.saveFile.getAbsoluteFile())) owners.get(i).submit(saver.backup);
+					}
+				}
+			}
+		});
+	}
+
+	/** Stops the hotkeys and backups. A backup step that is running is finished, then queued backups are dropped. */
+	public void stop () {
+		running = false;
+		if (keyboard != null) keyboard.stop();
+		if (watch != null) watch.interrupt();
+		watcher.close();
+		scheduler.shutdown(5000);
+		Threads.shutdown(1000);
+		DarkSoulsSaver.journal.flush();
+	}
+
+	void keyPressed (KeyStroke keyStroke) {
+		ArrayList<Binding> list = bindings.get(keyStroke);
+		if (list == null) return;
+		Binding binding = list.get(0);
+		if (list.size() > 1) {
+			for (Binding other : list) {
+				try {
+					if (other.saver.game.isRunning()) {
+						binding = other;
+						break;
+					}
+				} catch (IOException ex) {
+					DarkSoulsSaver.print("Unable to check if game is running: " + other.saver.exeName, ex);
+				}
+			}
+		}
+		binding.saver.keyPressed(binding.action);
+	}
+
+	static class Binding {
+		final DarkSoulsSaver saver;
+		final String action;
+
+		Binding (DarkSoulsSaver saver, String action) {
+			this.saver = saver;
+			this.action = action;
+		}
+	}
+}
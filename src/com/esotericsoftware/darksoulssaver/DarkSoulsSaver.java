@@ -20,23 +20,21 @@
 
 package com.esotericsoftware.darksoulssaver;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.KeyStroke;
 
-import java.awt.event.KeyEvent;
-
 /** This app allows you to just play Dark Souls as normal and if you die, press F5 within 10 seconds of dying to:<br>
  * a) replace the game's save file with the last backup where you are alive,<br>
  * b) close Dark Souls, and<br>
@@ -55,77 +53,217 @@ import java.awt.event.KeyEvent;
  * May need to run as Administrator for some games (eg Dark Souls 2).<br>
  * @author Nathan Sweet */
 public class DarkSoulsSaver {
-	static final DateFormat dateFormat = new SimpleDateFormat("MM/dd/yy kk:mm:ss");
+	/** Prints status lines and events on another thread, and writes them to the journal file once it is opened. */
+	static final Journal journal = new Journal(1024);
+
+	/** The hotkey actions and their default keys. */
+	static final String[] actions = {"replaceWithLastSave", "F1", "replaceWithPreviousBackup", "F2", "restart", "F3", "stop", "F4",
+		"replaceWithLatestAndRestart", "F5", "save", "F8"};
+	static private final HashMap<String, HotkeyTimers> hotkeyTimers = new HashMap();
+	static {
+		for (int i = 0; i < actions.length; i += 2)
+			hotkeyTimers.put(actions[i], new HotkeyTimers(actions[i]));
+	}
 
-	File saveDir = new File("save"), backupDir = new File("backup");
-	final ArrayList<File> saveFiles, backupFiles;
-	long lastModified, skipBackupTime;
-	Audio audio;
+	final String name;
+	File saveDir, backupDir;
+	final BackupIndex saveFiles, backupFiles;
+	final Store saveStore, backupStore;
+	/** The backup store if backups are moved from a hot folder to the backup folder as they get older, else null. */
+	final TieredStore tieredStore;
+	long hotAge, hotBytes, migrateRate;
+	/** The number of the newest backup known to be in the backup folder rather than the hot folder. */
+	private long migrated;
+	final Retention saveRetention, backupRetention;
+	/** The save file's modified time when it was last backed up or replaced. */
+	volatile long lastModified;
+	volatile long skipBackupTime;
+	/** Incremented for each hotkey, so a backup in progress knows to give way. */
+	final AtomicInteger hotkeys = new AtomicInteger();
+	int backupHotkeys;
+	QuiescenceDetector quiescence;
+	GameProcessController game;
+	final Latency latency;
+	final Audio audio;
+	final Backup backup = new Backup();
+	StagedRestore restorer;
+	/** Runs this save file's backups and staging, or null. */
+	IoScheduler.Owner io;
+	/** The time the save file changed without a backup yet, or 0. */
+	volatile long pendingTime;
+	private long suppressedModified;
+
+	final Metrics metrics;
+	final Metrics.Counter backups, backupBytes, backupsUnchanged, backupsSuppressed, backupsCanceled, stabilizeNanos, saves,
+		restores, restoreNanos, restoreFailures, gameStops, gameStopNanos, migrations, migrationBytes;
 
 	File saveFile;
 	String runCommand, exeName;
 	int backupDelay;
-
-	public DarkSoulsSaver (File configFile) throws Exception {
+	/** The BND4 entry to restore, or -1 to restore the whole save file. */
+	int slot = -1;
+	/** The time of the snapshot whose slot was last restored, and the save file's modified time after restoring it. */
+	private long slotSnapshotModified, slotSaveModified;
+	final HashMap<String, String> options = new HashMap();
+
+	/** Loads the config and the snapshot indexes. No threads are started, see {@link Daemon}.
+	 * @param dir The folder for the save and backup folders if the config doesn't set one, or null for the current folder. */
+	public DarkSoulsSaver (File configFile, String dir, Audio audio, Latency latency) throws Exception {
+		this.audio = audio;
+		this.latency = latency;
+		name = name(configFile);
 		loadConfig(configFile);
 
-		saveFiles = files(saveDir, "save");
-		backupFiles = files(backupDir, "backup");
-		audio = new Audio();
-
-		Keyboard keyboard = new Keyboard() {
-			protected void hotkey (String key, KeyStroke keyStroke) {
-				keyPressed(key);
+		dir = option("dir", dir);
+		saveDir = dir == null ? new File("save") : new File(dir, "save");
+		backupDir = dir == null ? new File("backup") : new File(dir, "backup");
+		saveStore = createStore(saveDir);
+		String hotDir = option("hotDir", null);
+		if (hotDir != null) {
+			tieredStore = new TieredStore(new Store(new File(hotDir, name)), createStore(backupDir));
+			backupStore = tieredStore;
+			hotAge = TieredRetention.millis(option("hotAge", "10m"));
+			hotBytes = Long.parseLong(option("hotMB", "0")) * 1024 * 1024;
+			migrateRate = Long.parseLong(option("migrateMBps", "10")) * 1024 * 1024;
+		} else {
+			tieredStore = null;
+			backupStore = createStore(backupDir);
+		}
+		int cacheSize = Integer.parseInt(option("cacheSize", "64"));
+		if (cacheSize > 0) {
+			saveStore.cache = new SnapshotCache(cacheSize * 1024L * 1024);
+			backupStore.cache = new SnapshotCache(cacheSize * 1024L * 1024);
+		}
+		saveRetention = new Retention(100, Long.MAX_VALUE);
+		backupRetention = createRetention();
+		slot = Integer.parseInt(option("slot", "-1"));
+		saveFiles = index(saveStore, "save");
+		backupFiles = index(backupStore, "backup");
+		game = GameProcessController.create(exeName);
+
+		quiescence = new QuiescenceDetector(saveFile) {
+			protected boolean canceled () {
+				return hotkeys.get() != backupHotkeys;
 			}
 		};
-		keyboard.registerHotkey("replaceWithLastSave", KeyStroke.getKeyStroke(KeyEvent.VK_F1, 0));
-		keyboard.registerHotkey("replaceWithPreviousBackup", KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0));
-		keyboard.registerHotkey("restart", KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
-		keyboard.registerHotkey("stop", KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0));
-		keyboard.registerHotkey("replaceWithLatestAndRestart", KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
-		keyboard.registerHotkey("save", KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0));
-		keyboard.start();
-
-		new Thread("Backup") {
-			public void run () {
-				lastModified = saveFile.lastModified();
-				while (true) {
-					backup();
-					zzz(3000);
+		lastModified = saveFile.lastModified();
+		restorer = new StagedRestore(saveFile);
+
+		metrics = new Metrics(name);
+		backups = metrics.add(new Metrics.Counter("backups", "Backups kept."));
+		backupBytes = metrics.add(new Metrics.Counter("backupBytes", "Bytes written to disk for backups, including discarded ones."));
+		backupsUnchanged = metrics.add(new Metrics.Counter("backupsUnchanged", "Backups skipped because the save file was unchanged."));
+		backupsSuppressed = metrics.add(
+			new Metrics.Counter("backupsSuppressed", "Save file changes not backed up because a hotkey was used shortly before."));
+		backupsCanceled = metrics.add(new Metrics.Counter("backupsCanceled", "Backups canceled by a hotkey."));
+		stabilizeNanos = metrics.add(
+			new Metrics.Counter("stabilizeNanos", "Nanoseconds spent waiting for the save file to stop changing before backups."));
+		saves = metrics.add(new Metrics.Counter("saves", "Saves kept."));
+		restores = metrics.add(new Metrics.Counter("restores", "Snapshots restored."));
+		restoreNanos = metrics.add(new Metrics.Counter("restoreNanos", "Nanoseconds spent restoring snapshots."));
+		restoreFailures = metrics.add(new Metrics.Counter("restoreFailures", "Snapshots that failed to restore."));
+		gameStops = metrics.add(new Metrics.Counter("gameStops", "Times the game was stopped."));
+		gameStopNanos = metrics.add(new Metrics.Counter("gameStopNanos", "Nanoseconds spent waiting for the game to stop."));
+		migrations = metrics.add(new Metrics.Counter("migrations", "Backups moved from the hot folder to the backup folder."));
+		migrationBytes = metrics.add(
+			new Metrics.Counter("migrationBytes", "Bytes written to the backup folder for backups moved from the hot folder."));
+		metrics.add(new Metrics.Gauge("backupLagMillis", "Milliseconds since the save file changed without a backup, or 0.") {
+			public long value () {
+				long time = pendingTime;
+				return time == 0 ? 0 : Math.max(0, System.currentTimeMillis() - time);
+			}
+		});
+		metrics.add(new Metrics.Counter("retentionDeletions", "Snapshots deleted by retention.") {
+			public long value () {
+				return saveRetention.deleted + backupRetention.deleted;
+			}
+		});
+		metrics.add(new Metrics.Gauge("backupFiles", "Backups in the backup folder.") {
+			public long value () {
+				synchronized (DarkSoulsSaver.this) {
+					return backupFiles.size();
+				}
+			}
+		});
+		metrics.add(new Metrics.Gauge("backupFileBytes", "Size of the backups in the backup folder.") {
+			public long value () {
+				synchronized (DarkSoulsSaver.this) {
+					return backupFiles.totalSize();
+				}
+			}
+		});
+		metrics.add(new Metrics.Gauge("saveFiles", "Saves in the save folder.") {
+			public long value () {
+				synchronized (DarkSoulsSaver.this) {
+					return saveFiles.size();
 				}
 			}
-		}.start();
+		});
+		metrics.add(new Metrics.Gauge("saveFileBytes", "Size of the saves in the save folder.") {
+			public long value () {
+				synchronized (DarkSoulsSaver.this) {
+					return saveFiles.totalSize();
+				}
+			}
+		});
+	}
+
+	/** @return The config file's name without the extension. */
+	static String name (File configFile) {
+		String name = configFile.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/** @return The key for a hotkey action, set with the option key.action=keystroke, eg key.save=ctrl F8. */
+	KeyStroke keyStroke (String action, String defaultKey) {
+		String value = option("key." + action, defaultKey);
+		KeyStroke keyStroke = KeyStroke.getKeyStroke(value);
+		if (keyStroke == null) throw new IllegalArgumentException("Invalid key for " + action + ": " + value);
+		return keyStroke;
 	}
 
+	/** Lists the snapshot folders and fixes the indexes, as a task for the {@link IoScheduler}. */
+	final IoScheduler.Task reconcile = new IoScheduler.Task() {
+		public long run () {
+			reconcile(saveFiles, saveStore, "save");
+			reconcile(backupFiles, backupStore, "backup");
+			return -1;
+		}
+	};
+
 	void loadConfig (File configFile) throws FileNotFoundException {
 		runCommand = "C:\\Apps\\Steam\\steam.exe -applaunch 570940";
 		exeName = "DarkSoulsRemastered.exe";
 		backupDelay = 10;
 
-		System.out.println("Config: " + configFile.getAbsolutePath());
+		print("Config: " + configFile.getAbsolutePath());
 		if (!configFile.exists()) {
-			System.out.println("Config file not found.");
+			print("Config file not found.");
 			return;
 		}
 		Scanner scanner = new Scanner(configFile);
 		for (int i = 0; scanner.hasNextLine(); i++) {
 			String line = scanner.nextLine();
-			if (i == 0)
+			int equals = line.indexOf('=');
+			if (i >= 3 && equals != -1)
+				options.put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+			else if (i == 0)
 				saveFile = new File(line);
 			else if (i == 1)
 				runCommand = line;
 			else if (i == 2)
 				exeName = line;
-			else if (i == 3)
+			else if (i == 3 && !line.trim().isEmpty())
 				backupDelay = Integer.parseInt(line);
-			else
-				break;
 		}
 
-		System.out.println("Save file: " + saveFile.getAbsolutePath());
-		System.out.println("Run command: " + runCommand);
-		System.out.println("Executable: " + exeName);
-		System.out.println("Backup delay: " + backupDelay + " s");
+		print("Save file: " + saveFile.getAbsolutePath());
+		print("Run command: " + runCommand);
+		print("Executable: " + exeName);
+		print("Backup delay: " + backupDelay + " s");
+		for (Entry<String, String> entry : options.entrySet())
+			print("Option: " + entry.getKey() + "=" + entry.getValue());
 
 		if (!saveFile.exists()) {
 			print("Save file not found: " + saveFile.getAbsolutePath());
@@ -134,31 +272,159 @@ public class DarkSoulsSaver {
 		}
 	}
 
-	synchronized void backup () {
-		if (System.currentTimeMillis() < skipBackupTime) return;
+	Store createStore (File dir) {
+		String type = option("store", "raw");
+		if (type.equals("raw")) return new Store(dir);
+		if (type.equals("chunks")) return new ChunkStore(dir);
+		if (type.equals("delta")) return new DeltaStore(dir, Integer.parseInt(option("keyframeInterval", "20")));
+		if (type.equals("slots")) return new SlotStore(dir);
+		if (type.equals("compressed")) {
+			return new CompressedStore(dir, Integer.parseInt(option("compressLevel", "1")),
+				Long.parseLong(option("restoreBudget", "100")));
+		}
+		throw new IllegalArgumentException("Unknown store: " + type);
+	}
 
-		long newLastModified = saveFile.lastModified();
-		if (newLastModified != lastModified) {
-			lastModified = newLastModified;
+	Retention createRetention () {
+		String tiers = option("retention", null);
+		int maxCount = Integer.parseInt(option("maxBackups", tiers == null ? "100" : "0"));
+		long maxBytes = Long.parseLong(option("maxBackupMB", "0")) * 1024 * 1024;
+		if (maxCount <= 0) maxCount = Integer.MAX_VALUE;
+		if (maxBytes <= 0) maxBytes = Long.MAX_VALUE;
+		if (tiers == null) return new Retention(maxCount, maxBytes);
+		return TieredRetention.parse(tiers, maxCount, maxBytes);
+	}
 
-			// Wait a bit after the file size stops changing.
-			long length = saveFile.length();
-			for (int i = 0; i < 10; i++) {
-				zzz(100);
-				long newLength = saveFile.length();
-				if (length != newLength) {
-					i = 0;
-					length = newLength;
+	/** Backs up the save file if it changed, as a task for the {@link IoScheduler}. Waiting for the save file to stop changing is
+	 * done in steps, so it doesn't hold a thread. Only the last step holds the lock, so hotkeys don't wait for the save file to
+	 * stop changing or for the snapshot to be written. A hotkey pressed before the last step cancels the backup. */
+	class Backup implements IoScheduler.Task {
+		private QuiescenceDetector.Wait wait;
+		private long start, time, detected, previousModified;
+		private int hotkeyCount;
+
+		public long run () {
+			if (wait == null) {
+				// Detect.
+				start = System.nanoTime();
+				if (System.currentTimeMillis() < skipBackupTime) {
+					long modified = saveFile.lastModified();
+					if (modified != lastModified && modified != suppressedModified) {
+						suppressedModified = modified;
+						backupsSuppressed.increment();
+					}
+					return -1;
 				}
+				long newLastModified = saveFile.lastModified();
+				if (newLastModified == lastModified) return -1;
+				previousModified = lastModified;
+				lastModified = newLastModified;
+				detected = newLastModified;
+				if (pendingTime == 0) pendingTime = System.currentTimeMillis();
+				hotkeyCount = hotkeys.get();
+				backupHotkeys = hotkeyCount;
+				time = latency.record("backup.detect", start);
+				wait = quiescence.new Wait();
+				return wait.delay();
 			}
 
-			// Backup the file.
-			File file = backup(saveFile, backupDir, backupFiles, "backup", 100);
-			if (file != null) print("Backup: " + file.getName());
+			// Stabilize: wait until the save file stops changing.
+			long delay = wait.step();
+			if (delay == -1) {
+				wait = null;
+				retry();
+				backupsCanceled.increment();
+				print("Backup canceled by hotkey.");
+				return -1;
+			}
+			if (delay > 0) return delay;
+			QuiescenceDetector.State state = wait.state();
+			wait = null;
+			long stabilized = latency.record("backup.stabilize", time);
+			stabilizeNanos.add(stabilized - time);
+			time = stabilized;
+
+			// Skip the backup if the game rewrote the save file with the same bytes.
+			synchronized (DarkSoulsSaver.this) {
+				if (!backupFiles.isEmpty() && backupFiles.hash(backupFiles.last()) == state.checksum) {
+					pendingTime = 0;
+					backupsUnchanged.increment();
+					log(Journal.skip, state.checksum,
+						"Backup skipped, save file is unchanged: " + backupFiles.file(backupFiles.last()).getName());
+					return -1;
+				}
+			}
+
+			// Snapshot and persist.
+			long written = backupStore.writtenBytes;
+			File file = write(saveFile, backupStore, backupFiles, "backup");
+			backupBytes.add(backupStore.writtenBytes - written);
+			if (file == null) return -1;
+			time = latency.record("backup.write", time);
+			if (quiescence.changedSince(state)) {
+				discard(file, backupStore);
+				print("Save file changed during backup, retrying with quiet time: " + quiescence.getQuiet() + " ms");
+				wait = quiescence.new Wait();
+				return wait.delay();
+			}
+			lastModified = saveFile.lastModified();
+			commit(file, state.checksum);
+			return -1;
+		}
+
+		/** Lets the change a canceled backup found be found again once backups aren't skipped, so a save written while a hotkey
+		 * such as F3 or F4 was pressed is still backed up. Not done if a hotkey replaced the save file since. */
+		private void retry () {
+			synchronized (DarkSoulsSaver.this) {
+				if (lastModified == detected) lastModified = previousModified;
+			}
+		}
+
+		/** Retains the snapshot unless a hotkey was pressed. */
+		private void commit (File file, long hash) {
+			long time = System.nanoTime(), locked;
+			synchronized (DarkSoulsSaver.this) {
+				locked = latency.record("backup.lock", time);
+				if (hotkeys.get() != hotkeyCount || System.currentTimeMillis() < skipBackupTime) {
+					// A hotkey may have changed the save file while it was being written.
+					discard(file, backupStore);
+					retry();
+					backupsCanceled.increment();
+					print("Backup canceled by hotkey.");
+					return;
+				}
+				DarkSoulsSaver.commit(file, backupStore, backupFiles, "backup", backupRetention, hash);
+				pendingTime = 0;
+				backups.increment();
+				time = latency.record("backup.commit", locked);
+			}
+			long held = time - locked;
+			latency.record("backup", start);
+			log(Journal.backup, backupStore.file(file).length(), "Backup: " + file.getName() + backupStore.stats());
+			if (held > 10000000) print("Backup held lock: " + held / 1000000 + " ms");
+			if (io != null) {
+				io.submit(stage);
+				if (tieredStore != null) io.submit(migrate);
+			}
 		}
 	}
 
-	synchronized void keyPressed (String key) {
+	void keyPressed (String key) {
+		hotkeys.incrementAndGet();
+		long start = System.nanoTime();
+		HotkeyTimers timers = hotkeyTimers.get(key);
+		if (timers == null) timers = new HotkeyTimers(key);
+		synchronized (this) {
+			long time = latency.record(timers.lock, start);
+			long waited = time - start;
+			if (waited > 10000000) print("Hotkey waited: " + waited / 1000000 + " ms");
+			hotkey(key, timers, time);
+		}
+		latency.record(key, start);
+	}
+
+	/** @param time The {@link System#nanoTime()} when the lock was acquired, used to time each phase. */
+	private void hotkey (String key, HotkeyTimers timers, long time) {
 		if (!saveFile.exists()) {
 			print("Save file not found: " + saveFile.getAbsolutePath());
 			audio.play(Sound.stop);
@@ -172,10 +438,13 @@ public class DarkSoulsSaver {
 				return;
 			}
 
-			File last = last(saveFiles);
-			print("Replace with last save: " + fileNameAndDate(last));
+			int last = saveFiles.last();
+			log(Journal.restore, saveFiles.hash(last), "Replace with last save: " + fileNameAndDate(saveFiles, last));
+			time = latency.record(timers.lookup, time);
 			audio.play(Sound.replace);
-			copy(last, saveFile);
+			time = latency.record(timers.audio, time);
+			restore(saveFiles, last);
+			latency.record(timers.restore, time);
 			skipBackup(20);
 
 		} else if (key.equals("replaceWithPreviousBackup")) {
@@ -186,22 +455,27 @@ public class DarkSoulsSaver {
 			}
 
 			// Last backup older than the current save file.
-			File last;
-			last = last(backupFiles, saveFile.lastModified());
-			print("Replace with previous backup: " + fileNameAndDate(last));
+			int last = backupFiles.olderThan(saveTime());
+			log(Journal.restore, backupFiles.hash(last), "Replace with previous backup: " + fileNameAndDate(backupFiles, last));
+			time = latency.record(timers.lookup, time);
 			audio.play(Sound.replace);
-			copy(last, saveFile);
+			time = latency.record(timers.audio, time);
+			restore(backupFiles, last);
+			latency.record(timers.restore, time);
 			skipBackup(20);
 
 		} else if (key.equals("restart")) {
 			print("Restart game.");
 			stopGame();
+			time = latency.record(timers.stopGame, time);
 			startGame();
+			latency.record(timers.startGame, time);
 			skipBackup(15);
 
 		} else if (key.equals("stop")) {
 			print("Stop game.");
 			stopGame();
+			latency.record(timers.stopGame, time);
 			skipBackup(15);
 
 		} else if (key.equals("replaceWithLatestAndRestart")) {
@@ -211,33 +485,38 @@ public class DarkSoulsSaver {
 				return;
 			}
 
-			// Use newer of last backup file and save file.
-			File last = null;
-			String type = null;
-			if (!backupFiles.isEmpty()) {
-				// Last backup older than X seconds ago.
-				last = last(backupFiles, System.currentTimeMillis() - backupDelay * 1000);
-				type = "backup";
-			}
-			if (!saveFiles.isEmpty()) {
-				File lastSave = last(saveFiles);
-				if (last == null || last.lastModified() <= lastSave.lastModified()) {
-					last = lastSave;
-					type = "save";
-				}
-			}
+			Latest latest = latest(System.currentTimeMillis());
+			BackupIndex files = latest.files;
+			int last = latest.index;
+			String type = files == saveFiles ? "save" : "backup";
 
-			print("Replace with last " + type + " and restart: " + fileNameAndDate(last));
+			log(Journal.restore, files.hash(last), "Replace with last " + type + " and restart: " + fileNameAndDate(files, last));
+			time = latency.record(timers.lookup, time);
 			stopGame();
+			time = latency.record(timers.stopGame, time);
 			audio.play(Sound.replace);
-			copy(last, saveFile);
+			time = latency.record(timers.audio, time);
+			restore(files, last);
+			time = latency.record(timers.restore, time);
 			startGame();
+			latency.record(timers.startGame, time);
 			skipBackup(20);
 
 		} else if (key.equals("save")) {
-			File file = backup(saveFile, saveDir, saveFiles, "save", 100);
+			long hash = fingerprint(saveFile);
+			if (hash != 0 && !saveFiles.isEmpty() && saveFiles.hash(saveFiles.last()) == hash) {
+				log(Journal.skip, hash, "Save file is unchanged: " + saveFiles.file(saveFiles.last()).getName());
+				backupsUnchanged.increment();
+				audio.play(Sound.save);
+				skipBackup(10);
+				return;
+			}
+			File file = backup(saveFile, saveStore, saveFiles, "save", saveRetention, hash);
+			latency.record(timers.backup, time);
 			if (file != null) {
-				print("Save: " + file.getName());
+				saves.increment();
+				log(Journal.save, saveStore.file(file).length(), "Save: " + file.getName() + saveStore.stats());
+				if (io != null) io.submit(stage);
 				audio.play(Sound.save);
 				skipBackup(10);
 			} else {
@@ -247,138 +526,342 @@ public class DarkSoulsSaver {
 		}
 	}
 
-	boolean isRunning () throws IOException {
-		ProcessBuilder builder = new ProcessBuilder();
-		builder.command("tasklist", "/NH", "/FI", "IMAGENAME eq " + exeName);
-		builder.redirectErrorStream(true);
-
-		Process process = builder.start();
-		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-		while (true) {
-			String line = reader.readLine();
-			if (line == null) break;
-			if (line.startsWith(exeName)) return true;
+	/** @return The snapshot F5 restores at the time: the newer of the last backup older than the backup delay and the last save.
+	 *         Null if there are no snapshots. */
+	Latest latest (long time) {
+		if (backupFiles.isEmpty() && saveFiles.isEmpty()) return null;
+		// Use newer of last backup file and save file.
+		BackupIndex files = backupFiles;
+		int last = -1;
+		if (!backupFiles.isEmpty()) {
+			// Last backup older than X seconds ago.
+			last = backupFiles.olderThan(time - backupDelay * 1000);
 		}
-		return false;
+		if (!saveFiles.isEmpty()) {
+			int lastSave = saveFiles.last();
+			if (last == -1 || backupFiles.modified(last) <= saveFiles.modified(lastSave)) {
+				files = saveFiles;
+				last = lastSave;
+			}
+		}
+		return new Latest(files, last);
 	}
 
 	void stopGame () {
 		try {
-			if (!isRunning()) return;
+			if (!game.isRunning()) return;
 			audio.play(Sound.stop);
-			String killCommand = "taskkill /IM " + exeName;
-			Runtime.getRuntime().exec(killCommand).waitFor();
-			zzz(500);
-			for (int i = 1;; i++) {
-				if (!isRunning()) return;
-				if (Runtime.getRuntime().exec(killCommand).waitFor() != 0) break;
-				if (i == 18) {
-					print("Unable to terminate process.");
-					return;
-				}
-				zzz(250);
-			}
+			long start = System.nanoTime();
+			boolean stopped = game.stop(5000);
+			gameStops.increment();
+			gameStopNanos.add(System.nanoTime() - start);
+			if (stopped)
+				log(Journal.stop, 0, "Game stopped: " + exeName);
+			else
+				print("Unable to terminate process.");
 		} catch (Throwable ex) {
-			print("Unable to stop:");
-			ex.printStackTrace();
+			print("Unable to stop:", ex);
 		}
 	}
 
 	void startGame () {
 		audio.play(Sound.start);
 		try {
-			Runtime.getRuntime().exec(runCommand);
+			game.start(runCommand);
+			log(Journal.start, 0, "Game started: " + runCommand);
 		} catch (Throwable ex) {
-			print("Unable to start:");
-			ex.printStackTrace();
+			print("Unable to start:", ex);
 		}
 	}
 
+	/** Replaces the save file with a snapshot from the save or backup folder. The restored file is verified with the snapshot's
+	 * {@link Fingerprint}, if known, and gets the snapshot's modified time. */
+	boolean restore (BackupIndex files, int index) {
+		File snapshot = files.file(index);
+		long hash = files.hash(index), modified = files.modified(index);
+		Store store = store(snapshot);
+		if (!store.file(snapshot).exists()) {
+			print("File does not exist: " + snapshot.getAbsolutePath());
+			restoreFailures.increment();
+			return false;
+		}
+		long start = System.nanoTime();
+		try {
+			SnapshotCache cache = store.cache;
+			if (slot != -1) {
+				// Only the slot's entry is written, the other characters are left as they are.
+				restorer.restoreEntry(snapshot, slot, store, cache);
+				synchronized (this) {
+					slotSnapshotModified = modified;
+					slotSaveModified = saveFile.lastModified();
+				}
+				print("Restored slot: " + slot);
+			} else {
+				if (restorer.restore(snapshot, hash, modified, store, cache))
+					print("Restored staged file.");
+				else if (cache != null) print("Restored: " + cache.stats());
+				// Stage again, since the snapshot is likely to be wanted again.
+				if (io != null) io.submit(stage);
+			}
+			// The save file's new contents are a snapshot, so they aren't backed up.
+			synchronized (this) {
+				lastModified = saveFile.lastModified();
+			}
+			restores.increment();
+			restoreNanos.add(System.nanoTime() - start);
+			return true;
+		} catch (IOException ex) {
+			restoreFailures.increment();
+			print("Error restoring file!");
+			print("From: " + snapshot.getAbsolutePath());
+			print("To: " + saveFile.getAbsolutePath(), ex);
+			audio.play(Sound.stop);
+			return false;
+		}
+	}
+
+	/** @return The time of the game state in the save file: its modified time, or if a slot was restored and the save file hasn't
+	 *         changed since, the time of the snapshot it was restored from. */
+	long saveTime () {
+		long modified = saveFile.lastModified();
+		return slot != -1 && modified == slotSaveModified ? slotSnapshotModified : modified;
+	}
+
+	Store store (File snapshot) {
+		return snapshot.getParentFile().equals(saveDir) ? saveStore : backupStore;
+	}
+
+	/** Writes the snapshot F5 would restore next to the save file, so restoring it is a rename. Runs as a task for the
+	 * {@link IoScheduler} after each backup, save and restore. */
+	final IoScheduler.Task stage = new IoScheduler.Task() {
+		public long run () {
+			if (slot != -1) return -1;
+			File snapshot;
+			long hash;
+			synchronized (DarkSoulsSaver.this) {
+				Latest latest = latest(System.currentTimeMillis());
+				if (latest == null) return -1;
+				snapshot = latest.files.file(latest.index);
+				hash = latest.files.hash(latest.index);
+			}
+			if (restorer.isStaged(snapshot)) return -1;
+			Store store = store(snapshot);
+			try {
+				long start = System.nanoTime();
+				restorer.stage(snapshot, hash, store, store.cache);
+				latency.record("stage", start);
+			} catch (IOException ex) {
+				print("Error staging file: " + snapshot.getAbsolutePath(), ex);
+			}
+			return -1;
+		}
+	};
+
+	/** Moves the oldest backup that is too old for the hot folder to the backup folder, as a task for the {@link IoScheduler}
+	 * after each backup. It is submitted again after a delay so moving runs at no more than migrateMBps, leaving the disk to the
+	 * game. Nothing is moved while a backup is waiting for the save file to stop changing. */
+	final IoScheduler.Task migrate = new IoScheduler.Task() {
+		public long run () {
+			File snapshot;
+			long number, size;
+			synchronized (DarkSoulsSaver.this) {
+				if (pendingTime != 0) return -1;
+				int index = nextMigration();
+				if (index == -1) return -1;
+				snapshot = backupFiles.file(index);
+				number = backupFiles.number(index);
+				size = backupFiles.size(index);
+			}
+			long start = System.nanoTime(), written;
+			try {
+				written = tieredStore.migrate(snapshot);
+			} catch (IOException ex) {
+				print("Error moving backup from the hot folder: " + snapshot.getAbsolutePath(), ex);
+				return -1;
+			}
+			latency.record("migrate", start);
+			if (written == -1) return -1;
+			synchronized (DarkSoulsSaver.this) {
+				migrated = number;
+				int index = backupFiles.after(number - 1);
+				// The index may have changed while the lock wasn't held.
+				if (index < backupFiles.size() && backupFiles.number(index) == number) backupFiles.setSize(index, tieredStore.size(snapshot));
+			}
+			migrations.increment();
+			migrationBytes.add(written);
+			long delay = migrateRate > 0 ? size * 1000 / migrateRate : 0;
+			Threads.schedule(submitMigrate, delay, TimeUnit.MILLISECONDS);
+			return -1;
+		}
+	};
+
+	private final Runnable submitMigrate = new Runnable() {
+		public void run () {
+			if (io != null) io.submit(migrate);
+		}
+	};
+
+	/** @return The index of the oldest backup in the hot folder if it is older than hotAge relative to the newest backup or the hot
+	 *         folder is larger than hotMB, else -1. The newest backup is never moved. */
+	int nextMigration () {
+		int last = backupFiles.last();
+		// Backups are moved oldest first, so only those after the last one moved need to be checked.
+		int first = backupFiles.after(migrated);
+		for (; first < last; first++) {
+			if (tieredStore.isHot(backupFiles.file(first))) break;
+			migrated = backupFiles.number(first);
+		}
+		if (first >= last) return -1;
+		if (backupFiles.modified(last) - backupFiles.modified(first) > hotAge) return first;
+		if (hotBytes > 0) {
+			long bytes = 0;
+			for (int i = first; i <= last; i++)
+				bytes += backupFiles.size(i);
+			if (bytes > hotBytes) return first;
+		}
+		return -1;
+	}
+
 	void skipBackup (int seconds) {
 		skipBackupTime = System.currentTimeMillis() + seconds * 1000;
+		// Changes before the hotkey were saved or replaced by it.
+		pendingTime = 0;
+	}
+
+	/** Returns the snapshots in the folder from its manifest, or lists the folder and writes the manifest if there isn't one. */
+	static BackupIndex index (Store store, String prefix) {
+		Manifest manifest = new Manifest(new File(store.dir, prefix + ".manifest"));
+		BackupIndex index = manifest.load(store.dir);
+		if (index == null) {
+			index = store.list(prefix);
+			index.manifest = manifest;
+			manifest.rewrite(index);
+		}
+		return index;
+	}
+
+	/** Lists the folder after startup and fixes the index if files were added or deleted while the app wasn't running. */
+	void reconcile (BackupIndex files, Store store, String prefix) {
+		BackupIndex found = store.list(prefix);
+		int changes;
+		synchronized (this) {
+			changes = files.reconcile(found, store);
+		}
+		if (changes > 0) print("Updated " + prefix + " manifest: " + changes + " files added or removed");
 	}
 
-	static ArrayList<File> files (File dir, String prefix) {
+	static BackupIndex files (File dir, String prefix) {
 		ArrayList<File> prefixFiles = new ArrayList();
 		dir.mkdirs();
 		File[] files = dir.listFiles();
-		if (files == null) return prefixFiles;
-		for (File file : files)
-			if (file.getName().startsWith(prefix) && suffix(file, prefix) > 0) prefixFiles.add(file);
+		if (files != null) {
+			for (File file : files)
+				if (file.getName().startsWith(prefix) && suffix(file, prefix) > 0) prefixFiles.add(file);
+		}
 		prefixFiles.sort(new Comparator<File>() {
 			public int compare (File o1, File o2) {
 				return Integer.compare(suffix(o1, prefix), suffix(o2, prefix));
 			}
 		});
-		return prefixFiles;
+		BackupIndex index = new BackupIndex(Math.max(16, prefixFiles.size() * 2));
+		for (File file : prefixFiles)
+			index.add(file, file.lastModified(), file.length(), suffix(file, prefix));
+		return index;
 	}
 
 	static int suffix (File file, String prefix) {
 		String name = file.getName();
 		try {
-			return Integer.parseInt(name.substring(prefix.length(), name.length() - 4));
-		} catch (NumberFormatException ex) {
+			return Integer.parseInt(name.substring(prefix.length(), name.lastIndexOf('.')));
+		} catch (NumberFormatException | IndexOutOfBoundsException ex) {
 			return 0;
 		}
 	}
 
-	static File last (ArrayList<File> files) {
-		return files.get(files.size() - 1);
+	static long highestSuffix (BackupIndex files) {
+		if (files.isEmpty()) return 0;
+		return files.number(files.last());
 	}
 
-	/** @param olderThan Return the newest file older than this, otherwise return the oldest file.
-	 * @return May be null if files is empty. */
-	static File last (ArrayList<File> files, long olderThan) {
-		File file = null;
-		for (int i = files.size() - 1; i >= 0; i--) {
-			file = files.get(i);
-			if (file.lastModified() < olderThan) return file;
-		}
-		return file;
+	/** @param hash The {@link Fingerprint} of the file before it is written, or 0.
+	 * @return May be null. */
+	static File backup (File from, Store store, BackupIndex files, String prefix, Retention retention, long hash) {
+		File to = write(from, store, files, prefix);
+		if (to == null) return null;
+		// If the file changed while being written, the hash isn't known.
+		if (hash != 0 && fingerprint(from) != hash) hash = 0;
+		commit(to, store, files, prefix, retention, hash);
+		return to;
 	}
 
-	static int highestSuffix (ArrayList<File> files, String prefix) {
-		if (files.isEmpty()) return 1;
-		return suffix(last(files), prefix);
+	/** @return The file's {@link Fingerprint}, or 0 if it can't be read. */
+	static long fingerprint (File file) {
+		try {
+			return Fingerprint.of(file);
+		} catch (IOException ex) {
+			print("Error reading file: " + file.getAbsolutePath(), ex);
+			return 0;
+		}
 	}
 
-	/** @return May be null. */
-	static File backup (File from, File toDir, ArrayList<File> files, String prefix, int max) {
+	/** Writes a snapshot to the store without adding it to the index.
+	 * @return May be null. */
+	static File write (File from, Store store, BackupIndex files, String prefix) {
 		if (!from.exists()) {
 			print("File does not exist: " + from.getAbsolutePath());
 			return null;
 		}
-		int suffix = highestSuffix(files, prefix);
+		long suffix = highestSuffix(files);
 		while (true) {
-			File to = new File(toDir, prefix + suffix++ + ".sl2");
-			if (!to.exists()) {
-				if (copy(from, to)) {
-					files.add(to);
-					while (files.size() > max)
-						files.remove(0).delete();
+			File to = new File(store.dir, prefix + ++suffix + '.' + store.extension);
+			if (!store.file(to).exists()) {
+				try {
+					// The snapshot gets the save file's time, so lookups by time find the game state from that time.
+					long modified = from.lastModified();
+					SnapshotCache cache = store.cache;
+					if (cache != null && from.length() <= cache.maxBytes) {
+						// Keep the newest snapshots in memory for restoring.
+						cache.put(to, store.writeBytes(from, to));
+					} else
+						store.write(from, to);
+					store.file(to).setLastModified(modified);
+				} catch (IOException ex) {
+					print("Error writing file!");
+					print("From: " + from.getAbsolutePath());
+					print("To: " + to.getAbsolutePath(), ex);
+					return null;
 				}
 				return to;
 			}
 		}
 	}
 
-	static boolean copy (File from, File to) {
-		if (!from.exists()) {
-			print("File does not exist: " + from.getAbsolutePath());
-			return false;
-		}
+	/** Adds a snapshot from {@link #write(File, Store, BackupIndex, String)} to the index and deletes the snapshots that are no
+	 * longer kept.
+	 * @param hash The snapshot's {@link Fingerprint}, or 0 if unknown. */
+	static void commit (File snapshot, Store store, BackupIndex files, String prefix, Retention retention, long hash) {
+		files.add(snapshot, store.file(snapshot).lastModified(), store.size(snapshot), suffix(snapshot, prefix), hash);
+		ArrayList<File> removed = new ArrayList();
+		retention.apply(files, removed);
+		retention.deleted += removed.size();
+		for (File file : removed)
+			discard(file, store);
+	}
+
+	static void discard (File snapshot, Store store) {
+		if (store.cache != null) store.cache.remove(snapshot);
 		try {
-			Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
-			return true;
+			store.delete(snapshot);
 		} catch (IOException ex) {
-			print("Error copying file!");
-			print("From: " + from.getAbsolutePath());
-			print("To: " + to.getAbsolutePath());
-			ex.printStackTrace(System.out);
-			return false;
+			print("Error deleting file: " + snapshot.getAbsolutePath(), ex);
 		}
 	}
 
+	String option (String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
 	static void zzz (int millis) {
 		try {
 			Thread.sleep(millis);
@@ -387,26 +870,55 @@ public class DarkSoulsSaver {
 	}
 
 	static String timestamp (long time) {
-		synchronized (dateFormat) {
-			return dateFormat.format(time);
-		}
+		return Journal.dateFormat.format(Instant.ofEpochMilli(time));
 	}
 
 	static void print (String message) {
-		StringBuilder buffer = new StringBuilder(128);
-		buffer.append(timestamp(System.currentTimeMillis()));
-		buffer.append(' ');
-		buffer.append(message);
-		System.out.println(buffer);
+		journal.log(Journal.message, null, 0, message, null);
+	}
+
+	static void print (String message, Throwable ex) {
+		journal.log(Journal.message, null, 0, message, ex);
+	}
+
+	/** Logs an event for this save file.
+	 * @param type One of the {@link Journal} event types. */
+	void log (int type, long value, String message) {
+		journal.log(type, name, value, message, null);
+	}
+
+	/** The latency names of a hotkey's phases, built once so pressing a hotkey doesn't build strings. */
+	static class HotkeyTimers {
+		final String lock, lookup, audio, restore, stopGame, startGame, backup;
+
+		HotkeyTimers (String key) {
+			lock = key + ".lock";
+			lookup = key + ".lookup";
+			audio = key + ".audio";
+			restore = key + ".restore";
+			stopGame = key + ".stopGame";
+			startGame = key + ".startGame";
+			backup = key + ".backup";
+		}
+	}
+
+	static class Latest {
+		final BackupIndex files;
+		final int index;
+
+		Latest (BackupIndex files, int index) {
+			this.files = files;
+			this.index = index;
+		}
 	}
 
-	static String fileNameAndDate (File file) {
-		return file.getName() + " (" + timestamp(file.lastModified()) + ')';
+	static String fileNameAndDate (BackupIndex files, int index) {
+		return files.file(index).getName() + " (" + timestamp(files.modified(index)) + ')';
 	}
 
 	static public void main (String[] args) throws Exception {
 		if (args.length == 0) {
-			System.out.println("Usage: config-file");
+			System.out.println("Usage: config-file [config-file ...]");
 			System.out.println("Config file contents:");
 			System.out.println("save-file");
 			System.out.println("run-command");
@@ -421,7 +933,9 @@ public class DarkSoulsSaver {
 			System.out.println("C:\\Users\\USERNAME\\AppData\\Roaming\\DarkSoulsII\\NUMBER\\DS2SOFS0000.sl2");
 			System.out.println("C:\\Apps\\Steam\\steam.exe -applaunch 335300");
 			System.out.println("DarkSoulsII.exe");
+			System.out.println("With more than one config file, each game's save and backup folders are in a folder named after");
+			System.out.println("its config file, eg ds1/save.");
 		} else
-			new DarkSoulsSaver(new File(args[0]));
+			new Daemon(args);
 	}
 }
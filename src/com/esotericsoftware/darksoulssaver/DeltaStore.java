@@ -0,0 +1,215 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Stores each snapshot as the byte ranges that differ from the snapshot before it. Every keyframeInterval snapshots a keyframe
+ * is stored with the whole file. A restore starts at the nearest keyframe and applies each delta after it.
+ * <p>
+ * A snapshot that a newer delta still depends on is not deleted until the delta is deleted. Until then it is renamed with the
+ * deferred extension, so it isn't listed as a snapshot and is still known to be deleted after a restart.
+ * @author Nathan Sweet */
+public class DeltaStore extends Store {
+	static private final int magic = 0x44535344; // DSSD
+	/** Changed ranges separated by fewer equal bytes than this are merged, so small gaps don't cost a range header. */
+	static private final int gap = 32;
+	static private final String deferredExtension = ".deferred";
+
+	final int keyframeInterval;
+	private byte[] previous;
+	private String previousName;
+	private int deltas;
+	private HashMap<String, String> bases, dependents;
+
+	public DeltaStore (File dir, int keyframeInterval) {
+		super(dir, "delta");
+		if (keyframeInterval < 1) throw new IllegalArgumentException("keyframeInterval must be > 0: " + keyframeInterval);
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	public synchronized long write (File from, File to) throws IOException {
+		byte[] bytes = Files.readAllBytes(from.toPath());
+		byte[] base = previous;
+		if (base == null || deltas >= keyframeInterval || !new File(dir, previousName).exists()) base = null;
+
+		File temp = new File(to.getPath() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			output.writeInt(magic);
+			output.writeUTF(base == null ? "" : previousName);
+			output.writeInt(bytes.length);
+			if (base == null)
+				writeRange(output, bytes, 0, bytes.length);
+			else
+				diff(base, bytes, output);
+			output.writeInt(-1);
+		}
+		long written = temp.length();
+		Files.move(temp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		if (bases != null && base != null) {
+			bases.put(to.getName(), previousName);
+			dependents.put(previousName, to.getName());
+		}
+		deltas = base == null ? 0 : deltas + 1;
+		previous = bytes;
+		previousName = to.getName();
+		totalBytes += bytes.length;
+		writtenBytes += written;
+		return written;
+	}
+
+	public synchronized byte[] writeBytes (File from, File to) throws IOException {
+		write(from, to);
+		return previous;
+	}
+
+	public synchronized void read (File snapshot, File to) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) {
+			super.read(snapshot, to);
+			return;
+		}
+		byte[] bytes = bytes(snapshot);
+		File temp = new File(to.getPath() + ".tmp");
+		Files.write(temp.toPath(), bytes);
+		Files.move(temp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public synchronized byte[] bytes (File snapshot) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) return super.bytes(snapshot);
+		if (snapshot.getName().equals(previousName)) return previous;
+		return rebuild(snapshot);
+	}
+
+	/** Rebuilds a snapshot from its keyframe and the deltas after it. */
+	private byte[] rebuild (File snapshot) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+			if (input.readInt() != magic) throw new IOException("Invalid delta: " + snapshot.getAbsolutePath());
+			String baseName = input.readUTF();
+			int length = input.readInt();
+			byte[] bytes;
+			if (baseName.isEmpty())
+				bytes = new byte[length];
+			else {
+				File base = new File(dir, baseName);
+				if (!base.exists()) {
+					base = deferred(baseName);
+					if (!base.exists()) throw new IOException("Missing delta base: " + new File(dir, baseName).getAbsolutePath());
+				}
+				bytes = Arrays.copyOf(rebuild(base), length);
+			}
+			while (true) {
+				int offset = input.readInt();
+				if (offset == -1) break;
+				input.readFully(bytes, offset, input.readInt());
+			}
+			return bytes;
+		}
+	}
+
+	public synchronized void delete (File snapshot) throws IOException {
+		String name = snapshot.getName();
+		if (!name.endsWith('.' + extension)) {
+			super.delete(snapshot);
+			return;
+		}
+		loadBases();
+		String dependent = dependents.get(name);
+		if (dependent != null && (new File(dir, dependent).exists() || deferred(dependent).exists())) {
+			if (snapshot.exists()) Files.move(snapshot.toPath(), deferred(name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return;
+		}
+		File file = snapshot;
+		while (true) {
+			file.delete();
+			dependents.remove(name);
+			name = bases.remove(name);
+			if (name == null) break;
+			file = deferred(name);
+			if (!file.exists()) break;
+		}
+	}
+
+	/** @return The file a snapshot is renamed to while a newer delta depends on it. */
+	private File deferred (String name) {
+		return new File(dir, name + deferredExtension);
+	}
+
+	public String stats () {
+		if (writtenBytes == 0) return "";
+		return String.format(" (%d KB written, %s)", writtenBytes / 1024, deltas == 0 ? "keyframe" : "delta " + deltas);
+	}
+
+	/** Reads the base of each delta from the existing and deferred snapshots, the first time it's needed. */
+	private void loadBases () throws IOException {
+		if (bases != null) return;
+		HashMap<String, String> bases = new HashMap(), dependents = new HashMap();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(deferredExtension)) name = name.substring(0, name.length() - deferredExtension.length());
+				if (!name.endsWith('.' + extension)) continue;
+				try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 512))) {
+					if (input.readInt() != magic) continue;
+					String base = input.readUTF();
+					if (base.isEmpty()) continue;
+					bases.put(name, base);
+					dependents.put(base, name);
+				}
+			}
+		}
+		this.bases = bases;
+		this.dependents = dependents;
+	}
+
+	static void diff (byte[] base, byte[] bytes, DataOutputStream output) throws IOException {
+		int i = 0, n = Math.min(base.length, bytes.length);
+		while (i < n) {
+			if (base[i] == bytes[i]) {
+				i++;
+				continue;
+			}
+			int start = i, same = 0;
+			for (i++; i < n && same < gap; i++)
+				same = base[i] == bytes[i] ? same + 1 : 0;
+			writeRange(output, bytes, start, i - same - start);
+		}
+		if (bytes.length > n) writeRange(output, bytes, n, bytes.length - n);
+	}
+
+	static private void writeRange (DataOutputStream output, byte[] bytes, int offset, int count) throws IOException {
+		output.writeInt(offset);
+		output.writeInt(count);
+		output.write(bytes, offset, count);
+	}
+}
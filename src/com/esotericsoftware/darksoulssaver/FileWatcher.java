@@ -0,0 +1,146 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/** Waits for files to change using the OS file notifications for their directories. Any number of files share one watch service.
+ * If the watch service is unavailable, waiting just sleeps and the caller falls back to polling.
+ * @author Nathan Sweet */
+public class FileWatcher {
+	final ArrayList<Path> files = new ArrayList();
+	final HashSet<Path> dirs = new HashSet();
+	WatchService service;
+
+	public FileWatcher () {
+		try {
+			service = FileSystems.getDefault().newWatchService();
+		} catch (IOException | RuntimeException ex) {
+			DarkSoulsSaver.print("Unable to watch files, polling instead.", ex);
+		}
+	}
+
+	public FileWatcher (File file) {
+		this();
+		add(file);
+	}
+
+	public synchronized void add (File file) {
+		Path path = file.getAbsoluteFile().toPath();
+		files.add(path);
+		if (service == null) return;
+		Path dir = path.getParent();
+		if (!dirs.add(dir)) return;
+		try {
+			dir.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+		} catch (IOException | RuntimeException ex) {
+			DarkSoulsSaver.print("Unable to watch file, polling instead: " + file.getAbsolutePath(), ex);
+			close();
+		}
+	}
+
+	/** Blocks until a file is created or modified, or until the timeout elapses.
+	 * @return true if a change to a file was seen, false if the timeout elapsed or the watch service is unavailable. */
+	public boolean waitForChange (long timeoutMillis) {
+		return waitForChanges(timeoutMillis, null);
+	}
+
+	/** Blocks until any of the files are created or modified, or until the timeout elapses.
+	 * @param changed May be null. The files that changed are added to it.
+	 * @return true if a change to a file was seen, false if the timeout elapsed or the watch service is unavailable. */
+	public boolean waitForChanges (long timeoutMillis, ArrayList<File> changed) {
+		WatchService service = this.service;
+		if (service == null) {
+			DarkSoulsSaver.zzz((int)timeoutMillis);
+			return false;
+		}
+		long end = System.currentTimeMillis() + timeoutMillis;
+		try {
+			while (true) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) return false;
+				WatchKey key = service.poll(remaining, TimeUnit.MILLISECONDS);
+				if (key == null) return false;
+				Path dir = (Path)key.watchable();
+				boolean found = false;
+				for (WatchEvent event : key.pollEvents()) {
+					Path path = event.kind() == OVERFLOW ? null : dir.resolve((Path)event.context());
+					found |= changed(dir, path, changed);
+				}
+				if (!key.reset()) {
+					DarkSoulsSaver.print("Watched directory is no longer accessible, polling instead: " + dir);
+					close();
+					return found;
+				}
+				if (found) {
+					// Collect changes to other files that are already queued.
+					while ((key = service.poll()) != null) {
+						dir = (Path)key.watchable();
+						for (WatchEvent event : key.pollEvents())
+							changed(dir, event.kind() == OVERFLOW ? null : dir.resolve((Path)event.context()), changed);
+						key.reset();
+					}
+					return true;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			return false;
+		}
+	}
+
+	/** @param path If null, every file in the directory is considered changed. */
+	private synchronized boolean changed (Path dir, Path path, ArrayList<File> changed) {
+		boolean found = false;
+		for (Path file : files) {
+			if (path == null ? !file.getParent().equals(dir) : !file.equals(path)) continue;
+			found = true;
+			if (changed != null && !changed.contains(file.toFile())) changed.add(file.toFile());
+		}
+		return found;
+	}
+
+	/** @return false if the watch service is unavailable and {@link #waitForChange(long)} only sleeps. */
+	public boolean isWatching () {
+		return service != null;
+	}
+
+	public void close () {
+		WatchService service = this.service;
+		this.service = null;
+		if (service == null) return;
+		try {
+			service.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/** Checksums the contents of save files and snapshots, so identical saves can be found and restores can be verified. CRC32C is
+ * used when available (Java 9+), which is hardware accelerated, otherwise CRC32. A fingerprint is never 0, so 0 means unknown.
+ * The algorithm is stored in a fingerprint's high bits, so one stored by a Java version with the other algorithm is unknown
+ * rather than a mismatch.
+ * @author Nathan Sweet */
+public class Fingerprint {
+	static private final Constructor<?> crc32c;
+	static {
+		Constructor<?> constructor = null;
+		try {
+			constructor = Class.forName("java.util.zip.CRC32C").getConstructor();
+		} catch (Exception ignored) {
+		}
+		crc32c = constructor;
+	}
+
+	static public final String algorithm = crc32c != null ? "CRC32C" : "CRC32";
+	static private final long crc32Bit = 1L << 33, crc32cBit = 1L << 34;
+	/** The bytes hashed by this class, for all save files. */
+	static public final Latency.Throughput throughput = new Latency.Throughput("hash (" + algorithm + ")");
+
+	static public Checksum checksum () {
+		if (crc32c != null) {
+			try {
+				return (Checksum)crc32c.newInstance();
+			} catch (Exception ignored) {
+			}
+		}
+		return new CRC32();
+	}
+
+	/** @return The fingerprint for the checksum's current value. */
+	static public long value (Checksum checksum) {
+		return checksum.getValue() | (checksum instanceof CRC32 ? crc32Bit : crc32cBit);
+	}
+
+	/** @return The fingerprint if it was made with the algorithm this Java version uses, else 0. */
+	static public long known (long fingerprint) {
+		return (fingerprint & ~0xffffffffL) == (crc32c != null ? crc32cBit : crc32Bit) ? fingerprint : 0;
+	}
+
+	static public long of (byte[] bytes, int offset, int length) {
+		long start = System.nanoTime();
+		Checksum checksum = checksum();
+		checksum.update(bytes, offset, length);
+		throughput.record(length, start);
+		return value(checksum);
+	}
+
+	static public long of (File file) throws IOException {
+		long start = System.nanoTime(), length = 0;
+		Checksum checksum = checksum();
+		byte[] buffer = new byte[64 * 1024];
+		try (FileInputStream input = new FileInputStream(file)) {
+			while (true) {
+				int count = input.read(buffer);
+				if (count == -1) break;
+				checksum.update(buffer, 0, count);
+				length += count;
+			}
+		}
+		throughput.record(length, start);
+		return value(checksum);
+	}
+}
@@ -0,0 +1,285 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Win.Kernel32.*;
+import static com.esotericsoftware.darksoulssaver.Win.User32.*;
+import static com.esotericsoftware.darksoulssaver.Win.Wtsapi32.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import com.esotericsoftware.darksoulssaver.Win.Parameter;
+import com.esotericsoftware.darksoulssaver.Win.WNDENUMPROC;
+import com.esotericsoftware.darksoulssaver.Win.WTS_PROCESS_INFO;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/** Finds, closes and starts the game's processes by calling the OS directly instead of running tasklist and taskkill.
+ * @author Nathan Sweet */
+abstract public class GameProcessController {
+	final String exeName;
+
+	public GameProcessController (String exeName) {
+		this.exeName = exeName;
+	}
+
+	/** @return The IDs of the running processes for the executable, may be empty. */
+	abstract public int[] find () throws IOException;
+
+	public boolean isRunning () throws IOException {
+		return find().length > 0;
+	}
+
+	/** Asks the game's processes to close and waits for them to exit.
+	 * @return false if a process was still running after the timeout. */
+	abstract public boolean stop (long timeoutMillis) throws IOException;
+
+	public void start (String runCommand) throws IOException {
+		Runtime.getRuntime().exec(runCommand);
+	}
+
+	static public GameProcessController create (String exeName) {
+		if (Platform.isWindows()) return new Windows(exeName);
+		return new Linux(exeName);
+	}
+
+	/** Closes the game the way taskkill does without /F, by posting WM_CLOSE to its windows, then waits on the process handles. */
+	static public class Windows extends GameProcessController {
+		public Windows (String exeName) {
+			super(exeName);
+		}
+
+		public int[] find () throws IOException {
+			PointerByReference infoRef = new PointerByReference();
+			IntByReference countRef = new IntByReference();
+			if (!WTSEnumerateProcesses(WTS_CURRENT_SERVER_HANDLE, null, 1, infoRef, countRef))
+				throw new IOException("Unable to enumerate processes: " + Native.getLastError());
+			Pointer info = infoRef.getValue();
+			try {
+				ArrayList<Integer> ids = new ArrayList();
+				for (int i = 0, n = countRef.getValue(); i < n; i++) {
+					WTS_PROCESS_INFO process = new WTS_PROCESS_INFO(info.share(i * WTS_PROCESS_INFO.size));
+					process.read();
+					if (process.pProcessName != null && exeName.equalsIgnoreCase(process.pProcessName.toString()))
+						ids.add(process.ProcessId);
+				}
+				return toArray(ids);
+			} finally {
+				WTSFreeMemory(info);
+			}
+		}
+
+		public boolean stop (long timeoutMillis) throws IOException {
+			final int[] ids = find();
+			if (ids.length == 0) return true;
+			Pointer[] handles = new Pointer[ids.length];
+			for (int i = 0; i < ids.length; i++)
+				handles[i] = OpenProcess(SYNCHRONIZE, false, ids[i]);
+			try {
+				WNDENUMPROC close = new WNDENUMPROC() {
+					final IntByReference id = new IntByReference();
+
+					public boolean callback (Pointer hWnd, Pointer lParam) {
+						GetWindowThreadProcessId(hWnd, id);
+						for (int processID : ids)
+							if (id.getValue() == processID) PostMessage(hWnd, WM_CLOSE, new Parameter(), new Parameter());
+						return true;
+					}
+				};
+				long end = System.currentTimeMillis() + timeoutMillis, posted = 0;
+				for (int i = 0; i < handles.length; i++) {
+					while (true) {
+						// The game may ignore WM_CLOSE while loading, so it is posted again periodically.
+						long now = System.currentTimeMillis();
+						if (now - posted >= 250) {
+							EnumWindows(close, null);
+							posted = now;
+						}
+						long remaining = end - now;
+						if (remaining <= 0) return false;
+						if (handles[i] != null) {
+							if (WaitForSingleObject(handles[i], (int)Math.min(250, remaining)) == WAIT_OBJECT_0) break;
+						} else {
+							// The process can't be opened, such as when the game runs as Administrator, so check if it still exists.
+							DarkSoulsSaver.zzz((int)Math.min(25, remaining));
+							if (!contains(find(), ids[i])) break;
+						}
+					}
+				}
+				return true;
+			} finally {
+				for (Pointer handle : handles)
+					if (handle != null) CloseHandle(handle);
+			}
+		}
+	}
+
+	/** Finds processes in /proc by their name or first argument, which for games run with Wine or Proton is the exe path. Closes
+	 * them with SIGTERM. */
+	static public class Linux extends GameProcessController {
+		static private final int SIGTERM = 15, POLLIN = 1;
+		/** The pidfd_open syscall number, the same on x86-64 and ARM64. */
+		static private final long SYS_pidfd_open = 434;
+
+		public Linux (String exeName) {
+			super(exeName);
+		}
+
+		public int[] find () throws IOException {
+			ArrayList<Integer> ids = new ArrayList();
+			File[] dirs = new File("/proc").listFiles();
+			if (dirs == null) throw new IOException("Unable to list processes.");
+			for (File dir : dirs) {
+				int id;
+				try {
+					id = Integer.parseInt(dir.getName());
+				} catch (NumberFormatException ex) {
+					continue;
+				}
+				if (matches(dir) && isAlive(id)) ids.add(id);
+			}
+			return toArray(ids);
+		}
+
+		private boolean matches (File dir) {
+			try {
+				// The name is limited to 15 characters.
+				String name = new String(Files.readAllBytes(new File(dir, "comm").toPath()), StandardCharsets.UTF_8).trim();
+				if (!name.isEmpty() && exeName.startsWith(name) && (name.length() == exeName.length() || name.length() == 15))
+					return true;
+				byte[] cmdline = Files.readAllBytes(new File(dir, "cmdline").toPath());
+				int end = 0;
+				while (end < cmdline.length && cmdline[end] != 0)
+					end++;
+				String command = new String(cmdline, 0, end, StandardCharsets.UTF_8);
+				int slash = Math.max(command.lastIndexOf('/'), command.lastIndexOf('\\'));
+				return command.substring(slash + 1).equals(exeName);
+			} catch (IOException ex) { // The process exited.
+				return false;
+			}
+		}
+
+		public boolean stop (long timeoutMillis) throws IOException {
+			int[] ids = find();
+			for (int id : ids)
+				kill(id);
+			long end = System.currentTimeMillis() + timeoutMillis;
+			for (int id : ids)
+				if (!waitFor(id, end)) return false;
+			return true;
+		}
+
+		/** Waits on a pidfd, which the kernel makes readable when the process exits. Without pidfds (Linux before 5.3, or if the JNA
+		 * native library isn't available) this checks /proc, less often the longer the process takes to exit.
+		 * @return false if the process was still running at the end time. */
+		static boolean waitFor (int id, long end) {
+			int fd = pidfd(id);
+			if (fd >= 0) {
+				try {
+					int[] pollfd = {fd, POLLIN}; // struct pollfd: int fd, short events, short revents.
+					while (true) {
+						long remaining = end - System.currentTimeMillis();
+						if (remaining <= 0) return !isAlive(id);
+						int result = LibC.poll(pollfd, 1, (int)Math.min(remaining, Integer.MAX_VALUE));
+						if (result > 0) return true;
+						if (result < 0) break; // Interrupted, check /proc instead.
+					}
+				} finally {
+					LibC.close(fd);
+				}
+			}
+			// Java 8 has no way to wait for a process that isn't a child.
+			for (int delay = 1; isAlive(id); delay = Math.min(delay << 1, 50)) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) return false;
+				DarkSoulsSaver.zzz((int)Math.min(delay, remaining));
+			}
+			return true;
+		}
+
+		/** @return A pidfd for the process, or -1. */
+		static private int pidfd (int id) {
+			try {
+				return (int)LibC.syscall(SYS_pidfd_open, id, 0);
+			} catch (LinkageError ex) {
+				return -1;
+			}
+		}
+
+		private void kill (int id) throws IOException {
+			try {
+				LibC.kill(id, SIGTERM);
+			} catch (LinkageError ex) {
+				// The JNA native library is only distributed for Windows.
+				try {
+					Runtime.getRuntime().exec(new String[] {"kill", "-TERM", Integer.toString(id)}).waitFor();
+				} catch (InterruptedException ignored) {
+				}
+			}
+		}
+
+		/** @return false if the process has exited, including if it has exited but not yet been reaped by its parent. */
+		static boolean isAlive (int id) {
+			try {
+				String stat = new String(Files.readAllBytes(new File("/proc/" + id + "/stat").toPath()), StandardCharsets.UTF_8);
+				int end = stat.lastIndexOf(')');
+				return end != -1 && end + 2 < stat.length() && stat.charAt(end + 2) != 'Z' && stat.charAt(end + 2) != 'X';
+			} catch (IOException ex) {
+				return false;
+			}
+		}
+
+		static class LibC {
+			static {
+				Native.register(Platform.C_LIBRARY_NAME);
+			}
+
+			static native int kill (int pid, int sig);
+
+			static native long syscall (long number, int pid, int flags);
+
+			static native int poll (int[] fds, int count, int timeoutMillis);
+
+			static native int close (int fd);
+		}
+	}
+
+	static boolean contains (int[] values, int value) {
+		for (int other : values)
+			if (other == value) return true;
+		return false;
+	}
+
+	static int[] toArray (ArrayList<Integer> values) {
+		int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = values.get(i);
+		return array;
+	}
+}
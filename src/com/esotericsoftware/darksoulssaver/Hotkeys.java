@@ -0,0 +1,161 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Matches key events to hotkeys and queues them for another thread, without locking or allocating. Key events come from a
+ * single thread, such as the keyboard hook, and hotkeys are taken by a single thread.
+ * <p>
+ * A table has an entry for each of the 256 virtual key codes, each with a slot for the 16 combinations of modifier keys. The
+ * modifiers are tracked from the key events. Hotkeys pass through a ring buffer. If it is full the hotkey is dropped, so the
+ * key event thread never waits.
+ * @author Nathan Sweet */
+public class Hotkeys {
+	/** The same bits as the Win32 MOD_* constants. */
+	static public final int alt = 1, control = 2, shift = 4, win = 8;
+
+	static private final int vkShift = 0x10, vkControl = 0x11, vkMenu = 0x12, vkLwin = 0x5b, vkRwin = 0x5c;
+	static private final int vkLshift = 0xa0, vkRshift = 0xa1, vkLcontrol = 0xa2, vkRcontrol = 0xa3, vkLmenu = 0xa4,
+		vkRmenu = 0xa5;
+
+	/** Hotkey + 1 for each virtual key code and modifiers, 0 for none. */
+	private final short[] table = new short[256 << 4];
+	private int count;
+
+	// Key event thread.
+	private final boolean[] down = new boolean[256];
+	private long headCache;
+	private volatile int dropped;
+
+	private final int[] hotkeys;
+	private final long[] times;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	private volatile Thread consumer;
+	private long time;
+
+	/** @param capacity The number of hotkeys that can be queued, rounded up to a power of two. */
+	public Hotkeys (int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		capacity = Integer.highestOneBit(capacity - 1) << 1;
+		if (capacity == 0) capacity = 1;
+		hotkeys = new int[capacity];
+		times = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/** Must not be called after key events are received.
+	 * @param modifiers Any of {@link #alt}, {@link #control}, {@link #shift} and {@link #win}.
+	 * @return The hotkey, or -1 if the key and modifiers are already a hotkey. */
+	public int add (int vk, int modifiers) {
+		if (vk < 0 || vk > 255) throw new IllegalArgumentException("vk must be >= 0 and <= 255: " + vk);
+		if (count == Short.MAX_VALUE) throw new IllegalStateException("Too many hotkeys.");
+		int index = vk << 4 | (modifiers & 15);
+		if (table[index] != 0) return -1;
+		table[index] = (short)++count;
+		return count - 1;
+	}
+
+	/** Called for each key event. Repeated key down events while a key is held are ignored.
+	 * @param time Stored with the hotkey, see {@link #time()}.
+	 * @return true if the key was a hotkey and it was queued. */
+	public boolean key (int vk, boolean pressed, long time) {
+		if (vk < 0 || vk > 255) return false;
+		if (!pressed) {
+			down[vk] = false;
+			return false;
+		}
+		if (down[vk]) return false;
+		down[vk] = true;
+		int hotkey = table[vk << 4 | modifiers()] - 1;
+		if (hotkey == -1) return false;
+		return offer(hotkey, time);
+	}
+
+	/** @return true if the key with the modifiers currently held is a hotkey. */
+	public boolean matches (int vk) {
+		if (vk < 0 || vk > 255) return false;
+		return table[vk << 4 | modifiers()] != 0;
+	}
+
+	private int modifiers () {
+		boolean[] down = this.down;
+		int modifiers = 0;
+		if (down[vkMenu] || down[vkLmenu] || down[vkRmenu]) modifiers |= alt;
+		if (down[vkControl] || down[vkLcontrol] || down[vkRcontrol]) modifiers |= control;
+		if (down[vkShift] || down[vkLshift] || down[vkRshift]) modifiers |= shift;
+		if (down[vkLwin] || down[vkRwin]) modifiers |= win;
+		return modifiers;
+	}
+
+	private boolean offer (int hotkey, long time) {
+		long tail = this.tail.get();
+		if (tail - headCache > mask) {
+			headCache = head.get();
+			if (tail - headCache > mask) {
+				dropped++; // Only written by this thread.
+				return false;
+			}
+		}
+		int index = (int)tail & mask;
+		hotkeys[index] = hotkey;
+		times[index] = time;
+		// A volatile write, so the consumer field read below can't see a stale null while the consumer misses this hotkey.
+		this.tail.set(tail + 1);
+		Thread consumer = this.consumer;
+		if (consumer != null) LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/** @return The next queued hotkey, or -1 if none are queued. */
+	public int poll () {
+		long head = this.head.get();
+		if (head == tail.get()) return -1;
+		int index = (int)head & mask;
+		int hotkey = hotkeys[index];
+		time = times[index];
+		this.head.lazySet(head + 1);
+		return hotkey;
+	}
+
+	/** Waits for the next queued hotkey. */
+	public int take () throws InterruptedException {
+		consumer = Thread.currentThread();
+		while (true) {
+			int hotkey = poll();
+			if (hotkey != -1) return hotkey;
+			LockSupport.park(this);
+			if (Thread.interrupted()) throw new InterruptedException();
+		}
+	}
+
+	/** @return The time passed with the key event for the hotkey last returned by {@link #poll()} or {@link #take()}. */
+	public long time () {
+		return time;
+	}
+
+	/** @return The number of hotkeys dropped because the queue was full. */
+	public int dropped () {
+		return dropped;
+	}
+}
@@ -0,0 +1,173 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/** Runs the tasks of any number of owners on a fixed number of threads. An owner's tasks run one at a time, in order. The next
+ * task run is from the ready owner that has spent the least time running, so an owner with a large save file can't keep the
+ * others waiting. An owner that was idle starts even with the others, so it doesn't get a burst of catching up.
+ * <p>
+ * A task can ask to run again after a delay, such as while waiting for a file to stop changing, without holding a thread.
+ * @author Nathan Sweet */
+public class IoScheduler {
+	private final ArrayList<Owner> owners = new ArrayList();
+	/** The least run time of an owner picked to run, which only increases. */
+	private long minRuntime;
+	private final Thread[] threads;
+	private boolean shutdown;
+
+	/** @param threads The number of tasks that can run at the same time. */
+	public IoScheduler (int threads) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be > 0: " + threads);
+		this.threads = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			// Platform threads, since they wait on this scheduler's monitor, which would hold a virtual thread's carrier on Java 21.
+			this.threads[i] = Threads.platform("IO " + (i + 1), new Runnable() {
+				public void run () {
+					while (runNext()) {
+					}
+				}
+			}, true);
+			this.threads[i].start();
+		}
+	}
+
+	/** Stops running tasks and waits for the tasks that are running to finish. Queued tasks are dropped. */
+	public void shutdown (long timeoutMillis) {
+		synchronized (this) {
+			shutdown = true;
+			notifyAll();
+		}
+		long end = System.currentTimeMillis() + timeoutMillis;
+		for (Thread thread : threads) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0) break;
+			try {
+				thread.join(remaining);
+			} catch (InterruptedException ignored) {
+			}
+		}
+	}
+
+	public synchronized Owner owner (String name) {
+		Owner owner = new Owner(name);
+		owners.add(owner);
+		return owner;
+	}
+
+	/** @return false if shut down. */
+	private boolean runNext () {
+		Owner owner;
+		Task task;
+		synchronized (this) {
+			while (true) {
+				if (shutdown) return false;
+				long now = System.nanoTime(), due = Long.MAX_VALUE;
+				owner = null;
+				for (Owner other : owners) {
+					if (other.running || other.tasks.isEmpty()) continue;
+					if (other.due - now > 0) {
+						due = Math.min(due, other.due - now);
+						continue;
+					}
+					if (owner == null || other.runtime < owner.runtime) owner = other;
+				}
+				if (owner != null) break;
+				try {
+					if (due == Long.MAX_VALUE)
+						wait();
+					else
+						wait(Math.max(1, due / 1000000));
+				} catch (InterruptedException ignored) {
+				}
+			}
+			minRuntime = Math.max(minRuntime, owner.runtime);
+			owner.running = true;
+			owner.started = true;
+			task = owner.tasks.peekFirst();
+		}
+
+		long start = System.nanoTime(), delay = -1;
+		try {
+			delay = task.run();
+		} catch (Throwable ex) {
+			DarkSoulsSaver.print("Error running task: " + owner.name, ex);
+		}
+		long now = System.nanoTime();
+
+		synchronized (this) {
+			owner.runtime += now - start;
+			owner.running = false;
+			if (delay >= 0)
+				owner.due = now + delay * 1000000;
+			else {
+				owner.tasks.removeFirst();
+				owner.started = false;
+				owner.due = now;
+			}
+			notifyAll();
+		}
+		return true;
+	}
+
+	/** A task that can run in steps. */
+	static public interface Task {
+		/** @return The milliseconds to wait before running the task again, or -1 when it is done. */
+		public long run ();
+	}
+
+	/** The tasks for one save file. */
+	public class Owner {
+		final String name;
+		final ArrayDeque<Task> tasks = new ArrayDeque();
+		/** The nanoseconds this owner's tasks have run, moved up to the others when it becomes ready after being idle. */
+		long runtime;
+		long due;
+		boolean running;
+		/** True when the first task has run at least one step. */
+		boolean started;
+
+		Owner (String name) {
+			this.name = name;
+		}
+
+		/** Queues the task to run after this owner's other tasks. If the task is already queued and hasn't started, it isn't queued
+		 * again. */
+		public void submit (Task task) {
+			synchronized (IoScheduler.this) {
+				boolean first = true;
+				for (Task queued : tasks) {
+					if (queued == task && !(first && started)) return;
+					first = false;
+				}
+				if (tasks.isEmpty()) {
+					// Start even with the others instead of catching up on the time spent idle.
+					runtime = Math.max(runtime, minRuntime);
+					due = System.nanoTime();
+				}
+				tasks.addLast(task);
+				IoScheduler.this.notifyAll();
+			}
+		}
+	}
+}
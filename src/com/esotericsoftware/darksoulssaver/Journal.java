@@ -0,0 +1,461 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** Logs events without locking or formatting on the thread that logs them. Events go into a ring buffer and a background thread
+ * prints them and appends them to a binary journal file. If the ring buffer is full the event is dropped, so logging never
+ * waits. When the journal file reaches its maximum length it is renamed with a .1 suffix, replacing the previous one, and a new
+ * file is started. The journal can be printed as text or CSV with {@link #main(String[])}.
+ * <p>
+ * The journal file starts with {@link #magic}, then each event is: byte type, long time in milliseconds since the epoch, long
+ * value, then the source, text and error as an int byte count and UTF-8 bytes.
+ * @author Nathan Sweet */
+public class Journal {
+	static public final int message = 0, start = 1, stop = 2, backup = 3, skip = 4, restore = 5, save = 6;
+	static public final String[] types = {"message", "start", "stop", "backup", "skip", "restore", "save"};
+	static public final int magic = 0x44534a31; // DSJ1
+
+	/** Thread safe. */
+	static public final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("MM/dd/yy kk:mm:ss")
+		.withZone(ZoneId.systemDefault());
+
+	static private final long flushMillis = 1000;
+
+	private final Event[] events;
+	/** For each event, the tail that can claim it, or the tail + 1 once it is written. */
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final Thread thread;
+	private volatile boolean sleeping;
+
+	// Journal thread.
+	private long head;
+	private final StringBuilder buffer = new StringBuilder(256);
+	private long second = -1;
+	private String timestamp;
+	private int droppedReported;
+	private DataOutputStream output;
+	private File file;
+	private long maxLength, openLength;
+	private long flushed, flushTime;
+
+	private volatile long flushRequest, flushedHead;
+
+	/** @param capacity The number of events that can be queued, rounded up to a power of two. */
+	public Journal (int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		capacity = Integer.highestOneBit(capacity - 1) << 1;
+		if (capacity == 0) capacity = 1;
+		events = new Event[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			events[i] = new Event();
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+
+		thread = Threads.platform("Journal", new Runnable() {
+			public void run () {
+				while (true) {
+					if (drain()) continue;
+					sleeping = true;
+					// Checked again after sleeping is set, so an event logged just before is seen or the logger unparks this thread.
+					if (!ready()) {
+						// Sleep until an event is logged, waking to flush the file if it has unflushed events.
+						if (head == flushed)
+							LockSupport.park(Journal.this);
+						else
+							LockSupport.parkNanos(Journal.this, flushMillis * 1000000);
+					}
+					sleeping = false;
+				}
+			}
+		}, true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread("Journal") {
+			public void run () {
+				flush();
+			}
+		});
+	}
+
+	/** Appends events to the file from now on. A partly written event at the end of the file, from a previous run that ended
+	 * while writing it, is removed.
+	 * @param maxLength The file's length in bytes when it is rotated, or 0 to never rotate it. */
+	public synchronized void open (File file, long maxLength) throws IOException {
+		close();
+		long length = validLength(file);
+		if (length != file.length()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(length);
+			}
+		}
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+		if (length == 0) output.writeInt(magic);
+		this.output = output;
+		this.file = file;
+		this.maxLength = maxLength;
+		openLength = length;
+		if (maxLength > 0 && length >= maxLength) rotate();
+	}
+
+	/** Stops writing events to the file. */
+	public synchronized void close () throws IOException {
+		if (output == null) return;
+		try {
+			output.close();
+		} finally {
+			output = null;
+		}
+	}
+
+	/** Renames the file with a .1 suffix and starts a new file. */
+	private void rotate () throws IOException {
+		output.close();
+		output = null;
+		Files.move(file.toPath(), rotated(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		output.writeInt(magic);
+		openLength = 0;
+	}
+
+	/** @return The file the journal file is renamed to when it is rotated. */
+	static public File rotated (File file) {
+		return new File(file.getPath() + ".1");
+	}
+
+	/** Queues an event. Doesn't lock or allocate.
+	 * @param source May be null.
+	 * @param error May be null.
+	 * @return false if the event was dropped because the queue is full. */
+	public boolean log (int type, String source, long value, String text, Throwable error) {
+		long time = System.currentTimeMillis();
+		long tail;
+		int index;
+		while (true) {
+			tail = this.tail.get();
+			index = (int)tail & mask;
+			long sequence = sequences.get(index);
+			if (sequence == tail) {
+				if (this.tail.compareAndSet(tail, tail + 1)) break;
+			} else if (sequence < tail) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		}
+		Event event = events[index];
+		event.type = type;
+		event.time = time;
+		event.value = value;
+		event.source = source;
+		event.text = text;
+		event.error = error;
+		// A volatile write, so the sleeping field read below can't see a stale false while the journal thread misses this event.
+		sequences.set(index, tail + 1);
+		if (sleeping) LockSupport.unpark(thread);
+		return true;
+	}
+
+	/** @return The number of events dropped because the queue was full. */
+	public int dropped () {
+		return dropped.get();
+	}
+
+	/** Waits up to 1 second for the events queued so far to be printed and written to the journal file. */
+	public void flush () {
+		long target = tail.get();
+		if (flushRequest < target) flushRequest = target;
+		LockSupport.unpark(thread);
+		long end = System.nanoTime() + 1000000000;
+		while (flushedHead < target && end - System.nanoTime() > 0)
+			LockSupport.parkNanos(1000000);
+	}
+
+	/** @return true if an event is ready to be written. */
+	private boolean ready () {
+		return sequences.get((int)head & mask) == head + 1;
+	}
+
+	/** @return true if any events were written. */
+	private boolean drain () {
+		long head = this.head;
+		boolean any = false;
+		while (true) {
+			int index = (int)head & mask;
+			if (sequences.get(index) != head + 1) break;
+			Event event = events[index];
+			write(event);
+			event.source = null;
+			event.text = null;
+			event.error = null;
+			sequences.lazySet(index, head + mask + 1);
+			this.head = ++head;
+			any = true;
+		}
+		int dropped = this.dropped.get();
+		if (dropped != droppedReported) {
+			System.out.println(timestamp(System.currentTimeMillis()) + " Journal dropped events: " + (dropped - droppedReported));
+			droppedReported = dropped;
+		}
+		long now = System.currentTimeMillis();
+		if (head != flushed && (now - flushTime >= flushMillis || flushRequest > flushedHead)) {
+			synchronized (this) {
+				if (output != null) {
+					try {
+						output.flush();
+					} catch (IOException ex) {
+						System.out.println("Error writing journal.");
+						ex.printStackTrace(System.out);
+						output = null;
+					}
+				}
+			}
+			flushed = head;
+			flushTime = now;
+		}
+		flushedHead = head;
+		return any;
+	}
+
+	private void write (Event event) {
+		StringBuilder buffer = this.buffer;
+		buffer.setLength(0);
+		buffer.append(timestamp(event.time));
+		buffer.append(' ');
+		buffer.append(event.text);
+		System.out.println(buffer);
+		if (event.error != null) event.error.printStackTrace(System.out);
+
+		synchronized (this) {
+			if (output == null) return;
+			try {
+				output.writeByte(event.type);
+				output.writeLong(event.time);
+				output.writeLong(event.value);
+				writeString(output, event.source);
+				writeString(output, event.text);
+				writeString(output, event.error == null ? null : stackTrace(event.error));
+				if (maxLength > 0 && openLength + output.size() >= maxLength) rotate();
+			} catch (IOException ex) {
+				System.out.println("Error writing journal.");
+				ex.printStackTrace(System.out);
+				output = null;
+			}
+		}
+	}
+
+	/** @return The time formatted with {@link #dateFormat}, reusing the last result when it is in the same second. */
+	private String timestamp (long time) {
+		long second = time / 1000;
+		if (second != this.second) {
+			this.second = second;
+			timestamp = dateFormat.format(Instant.ofEpochMilli(time));
+		}
+		return timestamp;
+	}
+
+	static private void writeString (DataOutputStream output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static private String readString (DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length == -1) return null;
+		if (length < 0 || length > 1024 * 1024) throw new IOException("Invalid journal string length: " + length);
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static private String stackTrace (Throwable error) {
+		StringWriter writer = new StringWriter(512);
+		error.printStackTrace(new PrintWriter(writer));
+		return writer.toString();
+	}
+
+	/** @return The length of the file up to the end of the last complete event, or 0 if it isn't a journal. */
+	static long validLength (File file) throws IOException {
+		if (!file.exists() || file.length() < 4) return 0;
+		long valid = 4;
+		try (CountingInput counting = new CountingInput(file)) {
+			DataInputStream input = new DataInputStream(counting);
+			if (input.readInt() != magic) return 0;
+			Event event = new Event();
+			while (read(input, event))
+				valid = counting.count;
+		} catch (IOException ex) {
+		}
+		return valid;
+	}
+
+	static boolean read (DataInputStream input, Event event) throws IOException {
+		int type;
+		try {
+			type = input.readByte();
+		} catch (EOFException ex) {
+			return false;
+		}
+		event.type = type;
+		event.time = input.readLong();
+		event.value = input.readLong();
+		event.source = readString(input);
+		event.text = readString(input);
+		event.errorText = readString(input);
+		return true;
+	}
+
+	static String type (int type) {
+		return type >= 0 && type < types.length ? types[type] : Integer.toString(type);
+	}
+
+	static private String csv (String value) {
+		if (value == null) return "";
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	static class Event {
+		int type;
+		long time, value;
+		String source, text;
+		Throwable error;
+		/** The error's stack trace, when read from a journal file. */
+		String errorText;
+	}
+
+	static private class CountingInput extends BufferedInputStream {
+		long count;
+
+		CountingInput (File file) throws IOException {
+			super(new FileInputStream(file), 64 * 1024);
+		}
+
+		public synchronized int read () throws IOException {
+			int b = super.read();
+			if (b != -1) count++;
+			return b;
+		}
+
+		public synchronized int read (byte[] bytes, int offset, int length) throws IOException {
+			int count = super.read(bytes, offset, length);
+			if (count > 0) this.count += count;
+			return count;
+		}
+	}
+
+	/** Prints a journal file as text, or as CSV with the csv argument. Events can be filtered by type, eg type=backup. */
+	static public void main (String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: journal-file [csv] [type=name]");
+			return;
+		}
+		boolean csv = false;
+		String type = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("csv"))
+				csv = true;
+			else if (args[i].startsWith("type="))
+				type = args[i].substring(5);
+			else
+				throw new IllegalArgumentException("Unknown argument: " + args[i]);
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 64 * 1024))) {
+			if (input.readInt() != magic) throw new IOException("Not a journal file: " + args[0]);
+			if (csv) System.out.println("time,type,source,value,text,error");
+			Event event = new Event();
+			StringBuilder buffer = new StringBuilder(256);
+			while (true) {
+				try {
+					if (!read(input, event)) break;
+				} catch (EOFException ex) {
+					break; // Partly written event.
+				}
+				if (type != null && !type.equals(type(event.type))) continue;
+				buffer.setLength(0);
+				if (csv) {
+					buffer.append(Instant.ofEpochMilli(event.time));
+					buffer.append(',');
+					buffer.append(type(event.type));
+					buffer.append(',');
+					buffer.append(csv(event.source));
+					buffer.append(',');
+					buffer.append(event.value);
+					buffer.append(',');
+					buffer.append(csv(event.text));
+					buffer.append(',');
+					buffer.append(csv(event.errorText));
+				} else {
+					buffer.append(dateFormat.format(Instant.ofEpochMilli(event.time)));
+					buffer.append(' ');
+					buffer.append(type(event.type));
+					if (event.source != null) {
+						buffer.append(' ');
+						buffer.append(event.source);
+					}
+					if (event.value != 0) {
+						buffer.append(" (");
+						buffer.append(event.value);
+						buffer.append(')');
+					}
+					buffer.append(": ");
+					buffer.append(event.text);
+					if (event.errorText != null) {
+						buffer.append('\n');
+						buffer.append(event.errorText.trim());
+					}
+				}
+				System.out.println(buffer);
+			}
+		}
+	}
+}
@@ -24,11 +24,11 @@ import static com.esotericsoftware.darksoulssaver.Win.Kernel32.*;
 import static com.esotericsoftware.darksoulssaver.Win.User32.*;
 import static java.awt.event.KeyEvent.*;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.KeyStroke;
 
@@ -39,7 +39,6 @@ import com.esotericsoftware.darksoulssaver.Win.Parameter;
 
 import com.sun.jna.Pointer;
 
-import java.awt.EventQueue;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 
@@ -82,25 +81,23 @@ public class Keyboard {
 	final ArrayList<String> names = new ArrayList();
 	final byte[] keys = new byte[256];
 	boolean started;
-	final ArrayDeque<Integer> fireEventQueue = new ArrayDeque();
-	final Runnable fireEvent = new Runnable() {
-		public void run () {
-			int index = fireEventQueue.pollFirst();
-			hotkey(names.get(index), keystrokes.get(index));
-		}
-	};
+	final Hotkeys hotkeys = new Hotkeys(64);
+	/** Records the time from the key event to dispatching the hotkey, if set. */
+	volatile Latency latency;
 
 	Pointer hook;
+	private volatile int hookThreadId;
+	private Thread dispatch;
+	/** Runs on the hook thread, which must return quickly. JNA allocates the event, but nothing else is allocated. Hotkey presses
+	 * aren't passed on, so like RegisterHotKey the game doesn't see them. */
 	final LowLevelKeyboardProc hookProc = new LowLevelKeyboardProc() {
 		public int callback (int code, Parameter wParam, KBDLLHOOKSTRUCT event) {
-			if (code >= 0 && event.flags == 0) { // Key down.
-				for (int i = 0, n = keystrokes.size(); i < n; i++) {
-					KeyStroke keyStroke = keystrokes.get(i);
-					if (keyStroke.getKeyCode() == event.vkCode) {
-						if (DEBUG) System.out.println("Received hotkey: " + names.get(i) + ", " + keystrokes.get(i));
-						fireEventQueue.addLast(i);
-						EventQueue.invokeLater(fireEvent);
-					}
+			if (code >= 0) {
+				// Injected key presses are ignored, so sent keys can't trigger hotkeys.
+				boolean pressed = (event.flags & LLKHF_UP) == 0;
+				if (!pressed || (event.flags & LLKHF_INJECTED) == 0) {
+					hotkeys.key(event.vkCode, pressed, System.nanoTime());
+					if (pressed && hotkeys.matches(event.vkCode)) return 1;
 				}
 			}
 			return CallNextHookEx(hook, code, wParam, event);
@@ -110,47 +107,93 @@ public class Keyboard {
 	public void registerHotkey (String name, KeyStroke keyStroke) {
 		if (keyStroke == null) throw new IllegalArgumentException("keyStroke cannot be null.");
 		if (started) throw new IllegalStateException();
+		if (hotkeys.add(getVK(keyStroke), getModifiers(keyStroke) & ~MOD_NOREPEAT) == -1) {
+			DarkSoulsSaver.print("Hotkey already registered: " + name + ", " + keyStroke);
+			return;
+		}
 		keystrokes.add(keyStroke);
 		names.add(name);
 	}
 
+	/** Installs the keyboard hook and returns once it is ready.
+	 * @throws RuntimeException if the hook couldn't be installed. */
 	public void start () {
 		started = true;
 
-		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final CompletableFuture<Void> ready = new CompletableFuture();
 		final Pointer hInstance = GetModuleHandle(null);
 
-		new Thread("Hotkeys") {
+		// A platform thread, since hotkeys hold the saver's lock while they wait for the game and disk.
+		dispatch = Threads.platform("Hotkey dispatch", new Runnable() {
+			public void run () {
+				int dropped = 0;
+				while (true) {
+					int index;
+					try {
+						index = hotkeys.take();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					Latency latency = Keyboard.this.latency;
+					if (latency != null) latency.record("hotkey.queue", hotkeys.time());
+					if (hotkeys.dropped() != dropped) {
+						DarkSoulsSaver.print("Hotkeys dropped, queue full: " + (hotkeys.dropped() - dropped));
+						dropped = hotkeys.dropped();
+					}
+					if (DEBUG) DarkSoulsSaver.print("Received hotkey: " + names.get(index) + ", " + keystrokes.get(index));
+					try {
+						hotkey(names.get(index), keystrokes.get(index));
+					} catch (Throwable ex) {
+						DarkSoulsSaver.print("Error handling hotkey: " + names.get(index), ex);
+					}
+				}
+			}
+		}, true);
+		dispatch.start();
+
+		// The hook is called on the thread that installed it, which must run a message loop.
+		Threads.platform("Hotkeys", new Runnable() {
 			public void run () {
-				if (DEBUG) System.out.println("Entered keyboard thread.");
+				if (DEBUG) DarkSoulsSaver.print("Entered keyboard thread.");
 
+				hookThreadId = GetCurrentThreadId();
 				hook = SetWindowsHookEx(WH_KEYBOARD_LL, hookProc, hInstance, 0);
-				if (hook == null) throw new RuntimeException("Unable to setup keyboard hook.");
+				if (hook == null) {
+					ready.completeExceptionally(new RuntimeException("Unable to setup keyboard hook."));
+					return;
+				}
 
 				// Registered hotkeys.
 				for (int i = 0, n = keystrokes.size(); i < n; i++) {
 					KeyStroke keyStroke = keystrokes.get(i);
-					System.out.println("Registered hotkey: " + names.get(i) + ", " + keyStroke);
+					DarkSoulsSaver.print("Registered hotkey: " + names.get(i) + ", " + keyStroke);
 				}
 
-				try {
-					barrier.await();
-				} catch (Exception ignored) {
-				}
+				ready.complete(null);
 
-				// Listen for hotkeys.
+				// Listen for hotkeys until stopped.
 				MSG msg = new MSG();
-				while (true)
-					GetMessage(msg, null, 0, 0);
+				while (GetMessage(msg, null, 0, 0)) {
+				}
+				UnhookWindowsHookEx(hook);
 			}
-		}.start();
+		}, false).start();
 
 		try {
-			barrier.await();
-		} catch (Exception ignored) {
+			ready.get();
+		} catch (ExecutionException ex) {
+			throw (RuntimeException)ex.getCause();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
 		}
 	}
 
+	/** Removes the keyboard hook and stops dispatching hotkeys. */
+	public void stop () {
+		if (hookThreadId != 0) PostThreadMessage(hookThreadId, WM_QUIT, null, null);
+		if (dispatch != null) dispatch.interrupt();
+	}
+
 	protected void hotkey (String name, KeyStroke keyStroke) {
 	}
 
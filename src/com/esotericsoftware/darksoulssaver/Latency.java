@@ -0,0 +1,212 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Records how long each phase of a hotkey or backup takes in a histogram per phase. Recording doesn't lock or allocate once a
+ * phase has been seen, so it can be done while holding the saver's lock. The percentiles are printed periodically and on exit.
+ * @author Nathan Sweet */
+public class Latency {
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap();
+	private final CopyOnWriteArrayList<Throughput> throughputs = new CopyOnWriteArrayList();
+
+	public Histogram histogram (String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histograms.putIfAbsent(name, new Histogram(name));
+			histogram = histograms.get(name);
+		}
+		return histogram;
+	}
+
+	/** Records the time since the start of a phase.
+	 * @param start The {@link System#nanoTime()} when the phase started.
+	 * @return The current {@link System#nanoTime()}, so it can be used as the start of the next phase. */
+	public long record (String name, long start) {
+		long now = System.nanoTime();
+		histogram(name).record(now - start);
+		return now;
+	}
+
+	/** Adds a throughput to be printed with the histograms. */
+	public void add (Throughput throughput) {
+		throughputs.addIfAbsent(throughput);
+	}
+
+	/** Prints the histograms and throughputs that have new samples since the last dump.
+	 * @param all If true, every histogram is printed. */
+	public void dump (boolean all) {
+		ArrayList<String> names = new ArrayList(histograms.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			Histogram histogram = histograms.get(name);
+			long count = histogram.count();
+			if (count == 0 || (!all && count == histogram.dumped)) continue;
+			histogram.dumped = count;
+			DarkSoulsSaver.print("Latency " + histogram);
+		}
+		for (Throughput throughput : throughputs) {
+			long bytes = throughput.bytes();
+			if (bytes == 0 || (!all && bytes == throughput.dumped)) continue;
+			throughput.dumped = bytes;
+			DarkSoulsSaver.print("Throughput " + throughput);
+		}
+	}
+
+	/** Dumps new samples every interval and all samples on exit.
+	 * @param intervalSeconds 0 to only dump on exit. */
+	public void start (final int intervalSeconds) {
+		Runtime.getRuntime().addShutdownHook(new Thread("Latency") {
+			public void run () {
+				dump(true);
+				DarkSoulsSaver.journal.flush();
+			}
+		});
+		if (intervalSeconds <= 0) return;
+		Threads.repeat(new Runnable() {
+			public void run () {
+				dump(false);
+			}
+		}, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/** A histogram of nanosecond durations with buckets that get wider as the durations get longer, like HdrHistogram. Values are
+	 * recorded with less than 1% error from 0 to over 100 days. All methods are thread safe and recording is lock free. */
+	static public class Histogram {
+		/** Each power of two is split into this many buckets. */
+		static private final int subBucketBits = 7, subBuckets = 1 << subBucketBits;
+
+		final String name;
+		private final AtomicLongArray counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+		private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+		long dumped;
+
+		public Histogram (String name) {
+			this.name = name;
+		}
+
+		public void record (long nanos) {
+			if (nanos < 0) nanos = 0;
+			counts.incrementAndGet(index(nanos));
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			while (true) {
+				long current = max.get();
+				if (nanos <= current || max.compareAndSet(current, nanos)) break;
+			}
+		}
+
+		public long count () {
+			return count.get();
+		}
+
+		public long max () {
+			return max.get();
+		}
+
+		public long mean () {
+			long count = this.count.get();
+			return count == 0 ? 0 : total.get() / count;
+		}
+
+		/** @param percentile 0 to 100.
+		 * @return The duration in nanoseconds that the percentile of samples are less than or equal to, within the bucket's error. */
+		public long percentile (double percentile) {
+			long count = 0;
+			long[] counts = new long[this.counts.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = this.counts.get(i);
+				count += counts[i];
+			}
+			if (count == 0) return 0;
+			long target = Math.max(1, (long)Math.ceil(count * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) return Math.min(highest(i), max.get());
+			}
+			return max.get();
+		}
+
+		/** Values less than twice the sub-bucket count have their own bucket. Above that, each power of two has subBuckets
+		 * buckets. */
+		static int index (long value) {
+			if (value < subBuckets << 1) return (int)value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value), shift = exponent - subBucketBits;
+			return (subBuckets << 1) + (shift - 1) * subBuckets + (int)((value >>> shift) - subBuckets);
+		}
+
+		/** @return The largest value stored in the bucket. */
+		static long highest (int index) {
+			if (index < subBuckets << 1) return index;
+			int shift = (index - (subBuckets << 1)) / subBuckets + 1;
+			long top = subBuckets + (index - (subBuckets << 1)) % subBuckets;
+			return ((top + 1) << shift) - 1;
+		}
+
+		public String toString () {
+			return name + ": " + count() + " samples, p50 " + millis(percentile(50)) + ", p90 " + millis(percentile(90)) + ", p99 "
+				+ millis(percentile(99)) + ", max " + millis(max()) + ", mean " + millis(mean());
+		}
+
+		static String millis (long nanos) {
+			return String.format("%.3f ms", nanos / 1e6);
+		}
+	}
+
+	/** The bytes processed and the time spent processing them. Recording is lock free. */
+	static public class Throughput {
+		final String name;
+		private final AtomicLong bytes = new AtomicLong(), nanos = new AtomicLong();
+		long dumped;
+
+		public Throughput (String name) {
+			this.name = name;
+		}
+
+		/** @param start The {@link System#nanoTime()} when processing the bytes started. */
+		public void record (long bytes, long start) {
+			nanos.addAndGet(System.nanoTime() - start);
+			this.bytes.addAndGet(bytes);
+		}
+
+		public long bytes () {
+			return bytes.get();
+		}
+
+		/** @return Megabytes per second. */
+		public double rate () {
+			long nanos = this.nanos.get();
+			return nanos == 0 ? 0 : bytes.get() * 1e9 / nanos / (1024 * 1024);
+		}
+
+		public String toString () {
+			return String.format("%s: %d MB, %.0f MB/s", name, bytes() / (1024 * 1024), rate());
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.IOException;
+
+/** A byte oriented LZ77 codec in the style of LZ4. It compresses less than Deflate, but decompresses many times faster since there
+ * is no entropy coding. Each sequence is a token with the literal count in the high 4 bits and the match length minus 4 in the
+ * low 4 bits, longer counts continued in bytes of 255, the literals, then a 2 byte offset back to the match. The last sequence
+ * has only literals.
+ * @author Nathan Sweet */
+public class Lz {
+	static private final int minMatch = 4, hashBits = 14, maxOffset = 65535;
+
+	/** @return The maximum compressed size for the number of bytes. */
+	static public int maxCompressed (int length) {
+		return length + length / 255 + 16;
+	}
+
+	/** @param output Must have at least {@link #maxCompressed(int)} bytes.
+	 * @return The number of bytes written to output. */
+	static public int compress (byte[] input, int offset, int length, byte[] output) {
+		int[] table = new int[1 << hashBits]; // Position + 1 of the last occurrence of each hash, 0 for none.
+		int end = offset + length, limit = end - minMatch, o = 0, anchor = offset, i = offset;
+		while (i <= limit) {
+			int value = readInt(input, i), hash = value * 0x9E3779B1 >>> 32 - hashBits;
+			int match = table[hash] - 1 + offset;
+			table[hash] = i - offset + 1;
+			if (match < offset || i - match > maxOffset || readInt(input, match) != value) {
+				i++;
+				continue;
+			}
+			int matchLength = minMatch;
+			while (i + matchLength < end && input[match + matchLength] == input[i + matchLength])
+				matchLength++;
+			o = sequence(input, anchor, i - anchor, output, o, matchLength);
+			output[o++] = (byte)(i - match);
+			output[o++] = (byte)(i - match >>> 8);
+			o = count(output, o, matchLength - minMatch);
+			i += matchLength;
+			anchor = i;
+		}
+		return sequence(input, anchor, end - anchor, output, o, 0);
+	}
+
+	/** Writes the token, literal count and literals. */
+	static private int sequence (byte[] input, int literals, int literalCount, byte[] output, int o, int matchLength) {
+		int token = Math.min(literalCount, 15) << 4;
+		if (matchLength != 0) token |= Math.min(matchLength - minMatch, 15);
+		output[o++] = (byte)token;
+		o = count(output, o, literalCount);
+		System.arraycopy(input, literals, output, o, literalCount);
+		return o + literalCount;
+	}
+
+	/** Writes the part of a count that didn't fit in the token. */
+	static private int count (byte[] output, int o, int count) {
+		if (count < 15) return o;
+		count -= 15;
+		while (count >= 255) {
+			output[o++] = (byte)255;
+			count -= 255;
+		}
+		output[o++] = (byte)count;
+		return o;
+	}
+
+	/** @param output Must have exactly the number of bytes that were compressed, starting at outputOffset. */
+	static public void decompress (byte[] input, int offset, int length, byte[] output, int outputOffset, int outputLength)
+		throws IOException {
+		int i = offset, end = offset + length, o = outputOffset, outputEnd = outputOffset + outputLength;
+		try {
+			while (true) {
+				if (i >= end) throw new IOException("Compressed data ends early.");
+				int token = input[i++] & 0xff;
+				int literalCount = token >>> 4;
+				if (literalCount == 15) {
+					int b;
+					do {
+						b = input[i++] & 0xff;
+						literalCount += b;
+					} while (b == 255);
+				}
+				// The output may be part of a larger array, so nothing may be written past its end.
+				if (literalCount > outputEnd - o) throw new IOException("Literals past end of output.");
+				if (literalCount > end - i) throw new IOException("Literals past end of compressed data.");
+				System.arraycopy(input, i, output, o, literalCount);
+				i += literalCount;
+				o += literalCount;
+				if (o == outputEnd) break;
+
+				if (end - i < 2) throw new IOException("Compressed data ends early.");
+				int match = o - ((input[i++] & 0xff) | (input[i++] & 0xff) << 8);
+				if (match < outputOffset || match >= o) throw new IOException("Invalid match offset.");
+				int matchLength = token & 15;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = input[i++] & 0xff;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += minMatch;
+				if (matchLength > outputEnd - o) throw new IOException("Match past end of output.");
+				// An overlapping match repeats the bytes before it, so it is copied in pieces that double in size.
+				while (matchLength > 0) {
+					int count = Math.min(o - match, matchLength);
+					System.arraycopy(output, match, output, o, count);
+					o += count;
+					matchLength -= count;
+				}
+			}
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IOException("Invalid compressed data.", ex);
+		}
+		if (i != end) throw new IOException("Invalid compressed length: " + (i - offset) + " != " + length);
+	}
+
+	static private int readInt (byte[] bytes, int i) {
+		return (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16 | (bytes[i + 3] & 0xff) << 24;
+	}
+}
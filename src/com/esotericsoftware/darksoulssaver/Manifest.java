@@ -0,0 +1,245 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/** An append only journal of the snapshots in a folder, so the folder doesn't need to be listed at startup. Each record has a
+ * checksum, so a record torn by a crash is ignored. When most records are for snapshots that were deleted, the journal is
+ * rewritten with only the current snapshots on a background thread.
+ * @author Nathan Sweet */
+public class Manifest {
+	static private final int magic = 0x4453534D; // DSSM
+	static private final byte added = 1, removed = 2;
+
+	final File file;
+	private final LinkedHashMap<String, Record> records = new LinkedHashMap();
+	private FileOutputStream output;
+	private int journalRecords;
+	private boolean compacting, failed;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+	private final CRC32 crc = new CRC32();
+
+	public Manifest (File file) {
+		this.file = file;
+	}
+
+	/** Reads the journal with a single read.
+	 * @param dir The folder with the snapshots.
+	 * @return null if there is no journal or it is invalid. */
+	public synchronized BackupIndex load (File dir) {
+		records.clear();
+		journalRecords = 0;
+		if (!file.exists()) return null;
+		boolean torn = false;
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+			if (input.readInt() != magic) throw new IOException("Invalid manifest: " + file.getAbsolutePath());
+			while (input.available() > 0) {
+				byte[] payload;
+				try {
+					int length = input.readInt();
+					if (length < 0 || length > input.available()) throw new EOFException();
+					payload = new byte[length];
+					input.readFully(payload);
+					crc.reset();
+					crc.update(payload);
+					if (input.readInt() != (int)crc.getValue()) throw new IOException("Invalid checksum.");
+				} catch (IOException ex) {
+					torn = true;
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				byte kind = record.readByte();
+				String name = record.readUTF();
+				if (kind == added)
+					records.put(name, new Record(name, record.readLong(), record.readLong(), record.readLong(), record.readLong()));
+				else
+					records.remove(name);
+				journalRecords++;
+			}
+		} catch (IOException ex) {
+			DarkSoulsSaver.print("Unable to read manifest: " + file.getAbsolutePath(), ex);
+			records.clear();
+			return null;
+		}
+
+		ArrayList<Record> sorted = new ArrayList(records.values());
+		Collections.sort(sorted, new Comparator<Record>() {
+			public int compare (Record o1, Record o2) {
+				return Long.compare(o1.number, o2.number);
+			}
+		});
+		BackupIndex index = new BackupIndex(Math.max(16, sorted.size() * 2));
+		for (Record record : sorted)
+			index.add(new File(dir, record.name), record.modified, record.size, record.number, Fingerprint.known(record.hash));
+		index.manifest = this;
+		// A torn record is dropped by rewriting the journal, so appends don't follow it.
+		if (torn) rewrite(index);
+		return index;
+	}
+
+	public synchronized void add (File snapshot, long modified, long size, long number, long hash) {
+		Record record = new Record(snapshot.getName(), number, modified, size, hash);
+		records.put(record.name, record);
+		append(added, record);
+	}
+
+	public synchronized void remove (File snapshot) {
+		Record record = records.remove(snapshot.getName());
+		if (record != null) append(removed, record);
+	}
+
+	/** Replaces the journal with a record for each snapshot in the index. */
+	public synchronized void rewrite (BackupIndex index) {
+		records.clear();
+		for (int i = 0, n = index.size(); i < n; i++) {
+			Record record = new Record(index.file(i).getName(), index.number(i), index.modified(i), index.size(i), index.hash(i));
+			records.put(record.name, record);
+		}
+		compact();
+	}
+
+	private void append (byte kind, Record record) {
+		if (failed) return;
+		try {
+			if (output == null) {
+				boolean exists = file.exists();
+				output = new FileOutputStream(file, true);
+				if (!exists) writeHeader(output);
+			}
+			output.write(encode(kind, record));
+			journalRecords++;
+		} catch (IOException ex) {
+			fail(ex);
+			return;
+		}
+		if (journalRecords > 64 && journalRecords > records.size() * 2 && !compacting) {
+			compacting = true;
+			Threads.start("Manifest", new Runnable() {
+				public void run () {
+					synchronized (Manifest.this) {
+						compact();
+						compacting = false;
+					}
+				}
+			});
+		}
+	}
+
+	/** Writes only the current snapshots to a new journal, then replaces the old one. */
+	private void compact () {
+		try {
+			close();
+			File temp = new File(file.getPath() + ".tmp");
+			try (FileOutputStream output = new FileOutputStream(temp)) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + records.size() * 64);
+				writeHeader(bytes);
+				for (Record record : records.values())
+					bytes.write(encode(added, record));
+				bytes.writeTo(output);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			journalRecords = records.size();
+			failed = false;
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	public synchronized void close () {
+		if (output == null) return;
+		try {
+			output.close();
+		} catch (IOException ignored) {
+		}
+		output = null;
+	}
+
+	/** Stops writing the journal and deletes it, so the folder is listed at the next startup. */
+	private void fail (IOException ex) {
+		DarkSoulsSaver.print("Error writing manifest: " + file.getAbsolutePath(), ex);
+		close();
+		file.delete();
+		failed = true;
+	}
+
+	private void writeHeader (OutputStream output) throws IOException {
+		new DataOutputStream(output).writeInt(magic);
+	}
+
+	/** @return The record's length, payload and checksum. */
+	private byte[] encode (byte kind, Record record) throws IOException {
+		buffer.reset();
+		DataOutputStream payload = new DataOutputStream(buffer);
+		payload.writeInt(0);
+		payload.writeByte(kind);
+		payload.writeUTF(record.name);
+		if (kind == added) {
+			payload.writeLong(record.number);
+			payload.writeLong(record.modified);
+			payload.writeLong(record.size);
+			payload.writeLong(record.hash);
+		}
+		byte[] bytes = Arrays.copyOf(buffer.toByteArray(), buffer.size() + 4);
+		int length = buffer.size() - 4;
+		crc.reset();
+		crc.update(bytes, 4, length);
+		putInt(bytes, 0, length);
+		putInt(bytes, bytes.length - 4, (int)crc.getValue());
+		return bytes;
+	}
+
+	static private void putInt (byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)(value >>> 24);
+		bytes[offset + 1] = (byte)(value >>> 16);
+		bytes[offset + 2] = (byte)(value >>> 8);
+		bytes[offset + 3] = (byte)value;
+	}
+
+	static class Record {
+		final String name;
+		final long number, modified, size, hash;
+
+		Record (String name, long number, long modified, long size, long hash) {
+			this.name = name;
+			this.number = number;
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Counters and gauges for one save file, readable as JMX attributes and in the Prometheus text format. Counting doesn't lock and
+ * gauges are only computed when read, so the metrics can always be on.
+ * @author Nathan Sweet */
+public class Metrics implements DynamicMBean {
+	static public final String domain = "com.esotericsoftware.darksoulssaver";
+
+	final String name;
+	final ArrayList<Metric> metrics = new ArrayList();
+
+	public Metrics (String name) {
+		this.name = name;
+	}
+
+	/** Must not be called after the metrics are registered or served. */
+	public <T extends Metric> T add (T metric) {
+		metrics.add(metric);
+		return metric;
+	}
+
+	/** Registers the metrics with the platform MBean server as domain:type=Saver,name=name. */
+	public void register () throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+			new ObjectName(domain + ":type=Saver,name=" + ObjectName.quote(name)));
+	}
+
+	Metric metric (String name) throws AttributeNotFoundException {
+		for (Metric metric : metrics)
+			if (metric.name.equals(name)) return metric;
+		throw new AttributeNotFoundException(name);
+	}
+
+	public Object getAttribute (String attribute) throws AttributeNotFoundException {
+		return metric(attribute).value();
+	}
+
+	public AttributeList getAttributes (String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException ignored) {
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute (Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+	}
+
+	public AttributeList setAttributes (AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke (String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo () {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[metrics.size()];
+		for (int i = 0, n = metrics.size(); i < n; i++) {
+			Metric metric = metrics.get(i);
+			attributes[i] = new MBeanAttributeInfo(metric.name, "long", metric.description, true, false, false);
+		}
+		return new MBeanInfo(getClass().getName(), "Metrics for " + name, attributes, null, null, null);
+	}
+
+	/** Writes the metrics in the Prometheus text format, with a game label for each. All must have the same metrics. */
+	static public void prometheus (List<Metrics> list, StringBuilder buffer) {
+		if (list.isEmpty()) return;
+		ArrayList<Metric> first = list.get(0).metrics;
+		for (int i = 0, n = first.size(); i < n; i++) {
+			Metric metric = first.get(i);
+			String name = prometheusName(metric);
+			buffer.append("# HELP ").append(name).append(' ').append(metric.description).append('\n');
+			buffer.append("# TYPE ").append(name).append(metric instanceof Counter ? " counter\n" : " gauge\n");
+			for (Metrics metrics : list) {
+				buffer.append(name).append("{game=\"");
+				String game = metrics.name;
+				for (int ii = 0, nn = game.length(); ii < nn; ii++) {
+					char c = game.charAt(ii);
+					if (c == '\\' || c == '"') buffer.append('\\');
+					buffer.append(c == '\n' ? ' ' : c);
+				}
+				buffer.append("\"} ").append(metrics.metrics.get(i).value()).append('\n');
+			}
+		}
+	}
+
+	/** @return eg darksoulssaver_backup_bytes_total for a counter named backupBytes. */
+	static String prometheusName (Metric metric) {
+		StringBuilder buffer = new StringBuilder("darksoulssaver_");
+		String name = metric.name;
+		for (int i = 0, n = name.length(); i < n; i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				buffer.append('_');
+				c = Character.toLowerCase(c);
+			}
+			buffer.append(c);
+		}
+		if (metric instanceof Counter) buffer.append("_total");
+		return buffer.toString();
+	}
+
+	/** Serves the metrics in the Prometheus text format at http://localhost:port/metrics. Only local connections are accepted. */
+	static public HttpServer serve (int port, final List<Metrics> list) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle (HttpExchange exchange) throws IOException {
+				StringBuilder buffer = new StringBuilder(4096);
+				prometheus(list, buffer);
+				byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, bytes.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(bytes);
+				}
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	static abstract public class Metric {
+		final String name, description;
+
+		/** @param name A Java identifier, eg backupBytes. */
+		public Metric (String name, String description) {
+			this.name = name;
+			this.description = description;
+		}
+
+		abstract public long value ();
+	}
+
+	/** A count that only increases. {@link #value()} can be overridden to read a count kept elsewhere. */
+	static public class Counter extends Metric {
+		private final LongAdder adder = new LongAdder();
+
+		public Counter (String name, String description) {
+			super(name, description);
+		}
+
+		public void increment () {
+			adder.increment();
+		}
+
+		public void add (long value) {
+			adder.add(value);
+		}
+
+		public long value () {
+			return adder.sum();
+		}
+	}
+
+	/** A value computed when it is read. */
+	static abstract public class Gauge extends Metric {
+		public Gauge (String name, String description) {
+			super(name, description);
+		}
+	}
+}
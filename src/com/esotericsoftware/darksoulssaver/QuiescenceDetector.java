@@ -0,0 +1,201 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+/** Waits for a file to stop being written. The file is quiet when its modified time, size and checksum don't change for the
+ * quiet time. The quiet time adapts to how far apart the writes in a burst are seen to be, and grows when a snapshot turns out
+ * to have been taken while the file was still being written.
+ * @author Nathan Sweet */
+public class QuiescenceDetector {
+	final File file;
+	final long minQuiet, maxQuiet;
+	final boolean adaptive;
+	/** The longest time between writes in a burst that has been seen recently, in milliseconds. */
+	private double gap;
+	/** The milliseconds the file must not change. */
+	long quiet;
+	private final byte[] buffer = new byte[64 * 1024];
+	private final Checksum crc = Fingerprint.checksum();
+
+	public QuiescenceDetector (File file) {
+		this(file, 100, 2000, true);
+	}
+
+	/** @param minQuiet The shortest time in milliseconds the file must not change.
+	 * @param maxQuiet The longest time in milliseconds the file must not change. Changes further apart than this are not
+	 *           considered part of the same burst.
+	 * @param adaptive If false, the file must not change for maxQuiet. */
+	public QuiescenceDetector (File file, long minQuiet, long maxQuiet, boolean adaptive) {
+		this.file = file;
+		this.minQuiet = minQuiet;
+		this.maxQuiet = maxQuiet;
+		this.adaptive = adaptive;
+		gap = maxQuiet / 4;
+		quiet = adaptive ? quiet() : maxQuiet;
+	}
+
+	/** Blocks until the file hasn't changed for the quiet time.
+	 * @return The state of the quiet file, or null if {@link #canceled()} returned true. */
+	public State await () {
+		Wait wait = new Wait();
+		long delay = wait.delay();
+		while (true) {
+			DarkSoulsSaver.zzz((int)delay);
+			delay = wait.step();
+			if (delay == -1) return null;
+			if (delay == 0) return wait.state();
+		}
+	}
+
+	/** Waits for the file to be quiet in steps, so the caller can do other work between them instead of sleeping. */
+	public class Wait {
+		private State state = sample(false);
+		private long changed = System.nanoTime();
+
+		/** Checks the file. Call after waiting the time returned by the previous step, or by {@link #delay()} for the first step.
+		 * @return The milliseconds to wait before the next step, 0 if the file is quiet, or -1 if {@link #canceled()} returned
+		 *         true. */
+		public long step () {
+			if (canceled()) return -1;
+			long now = System.nanoTime();
+			State next = sample(false);
+			if (!next.equals(state)) {
+				learn((now - changed) / 1000000);
+				changed = now;
+				state = next;
+				return delay();
+			}
+			long elapsed = (now - changed) / 1000000;
+			if (state.checksum == 0) {
+				// Halfway through the quiet time, checksum the contents. They are checked again at the end, which catches
+				// rewrites the modified time doesn't show.
+				if (elapsed >= quiet / 2) state = sample(true);
+				return delay();
+			}
+			if (elapsed < quiet) return delay();
+			next = sample(true);
+			if (!next.equals(state) || next.checksum != state.checksum) {
+				changed = now;
+				state = next;
+				return delay();
+			}
+			state = next;
+			return 0;
+		}
+
+		public long delay () {
+			return Math.max(10, quiet / 8);
+		}
+
+		/** @return The state of the quiet file once {@link #step()} returns 0. */
+		public State state () {
+			return state;
+		}
+	}
+
+	/** Returns true if the file changed since it was quiet, meaning a snapshot taken since then may be torn. When that happens the
+	 * quiet time is increased. */
+	public boolean changedSince (State state) {
+		State now = sample(true);
+		if (now.equals(state) && now.checksum == state.checksum) return false;
+		if (adaptive) {
+			gap = Math.max(gap * 2, quiet);
+			quiet = quiet();
+		}
+		return true;
+	}
+
+	/** Called while waiting. Returns true to stop waiting. */
+	protected boolean canceled () {
+		return false;
+	}
+
+	/** @return The current quiet time in milliseconds. */
+	public long getQuiet () {
+		return quiet;
+	}
+
+	private void learn (long millis) {
+		if (!adaptive || millis > maxQuiet) return;
+		// Remember the longest gap, forgetting it slowly so the quiet time can shrink again.
+		gap = Math.max(millis, gap * 0.9);
+		quiet = quiet();
+	}
+
+	private long quiet () {
+		return Math.max(minQuiet, Math.min(maxQuiet, (long)(gap * 2)));
+	}
+
+	State sample (boolean checksum) {
+		try {
+			long modified = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+			if (!checksum) return new State(modified, file.length(), 0);
+			long start = System.nanoTime(), length = 0;
+			crc.reset();
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.wrap(this.buffer);
+				while (true) {
+					buffer.clear();
+					int count = channel.read(buffer);
+					if (count == -1) break;
+					length += count;
+					crc.update(this.buffer, 0, count);
+				}
+			}
+			Fingerprint.throughput.record(length, start);
+			return new State(modified, length, Fingerprint.value(crc));
+		} catch (IOException ex) {
+			return new State(-1, -1, 0);
+		}
+	}
+
+	static public class State {
+		public final long modified, length;
+		/** The {@link Fingerprint} of the contents, or 0 if not computed. */
+		public final long checksum;
+
+		State (long modified, long length, long checksum) {
+			this.modified = modified;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		/** Compares the modified time and size. */
+		public boolean equals (Object object) {
+			if (!(object instanceof State)) return false;
+			State other = (State)object;
+			return modified == other.modified && length == other.length;
+		}
+
+		public int hashCode () {
+			return (int)(modified ^ length);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/** Decides which snapshots are no longer kept. The base class keeps the newest snapshots, up to a count and a total size.
+ * @author Nathan Sweet */
+public class Retention {
+	final int maxCount;
+	final long maxBytes;
+	/** The number of snapshots removed so far, counted by the caller that deletes them. */
+	long deleted;
+
+	/** @param maxCount Use Integer.MAX_VALUE for no limit.
+	 * @param maxBytes Use Long.MAX_VALUE for no limit. */
+	public Retention (int maxCount, long maxBytes) {
+		if (maxCount < 1) throw new IllegalArgumentException("maxCount must be > 0: " + maxCount);
+		this.maxCount = maxCount;
+		this.maxBytes = maxBytes;
+	}
+
+	/** Removes the snapshots that are no longer kept from the index. The newest snapshot is always kept.
+	 * @param removed Receives the files that were removed, which the caller deletes. */
+	public void apply (BackupIndex files, ArrayList<File> removed) {
+		while (files.size() > maxCount || (files.totalSize() > maxBytes && files.size() > 1))
+			removed.add(files.removeFirst());
+	}
+}
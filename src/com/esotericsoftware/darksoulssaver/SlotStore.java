@@ -0,0 +1,90 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/** A chunk store that splits BND4 save files at their entries, so each character slot is a chunk. A play session usually changes
+ * one slot, so only that slot and the header are stored for each snapshot. A single slot can be restored by reading only its
+ * chunk. Other files are stored with fixed size chunks.
+ * @author Nathan Sweet */
+public class SlotStore extends ChunkStore {
+	public SlotStore (File dir) {
+		super(dir, "slots", 32 * 1024);
+	}
+
+	protected int[] chunkSizes (File from) throws IOException {
+		Bnd4 bnd;
+		try (FileChannel channel = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+			bnd = Bnd4.header(channel);
+		} catch (IOException ex) {
+			return null; // Not a valid BND4 file, use fixed size chunks.
+		}
+		if (bnd == null) return null;
+		int[] layout = bnd.layout();
+		if (layout == null) return null;
+		// The header, then each entry and any bytes between entries.
+		ArrayList<Integer> sizes = new ArrayList();
+		long position = 0;
+		for (int index : layout) {
+			if (bnd.offset(index) > position) sizes.add((int)(bnd.offset(index) - position));
+			sizes.add((int)bnd.size(index));
+			position = bnd.offset(index) + bnd.size(index);
+		}
+		int[] array = new int[sizes.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = sizes.get(i);
+		return array;
+	}
+
+	/** Reads only the chunk for the entry. */
+	public void readEntry (File snapshot, int index, File to) throws IOException {
+		if (!snapshot.getName().endsWith('.' + extension)) {
+			super.readEntry(snapshot, index, to);
+			return;
+		}
+		ArrayList<String> hashes = hashes(snapshot);
+		if (hashes.isEmpty()) throw new IOException("Empty snapshot: " + snapshot.getAbsolutePath());
+		// The chunks are read instead of mapped, since on Windows a mapped chunk couldn't be deleted until it is unmapped.
+		ByteBuffer first = ByteBuffer.wrap(Files.readAllBytes(chunk(hashes.get(0)).toPath()));
+		if (!Bnd4.is(first)) throw new IOException("Not a BND4 file: " + snapshot.getAbsolutePath());
+		Bnd4 header = new Bnd4(first);
+		if (index < 0 || index >= header.size()) throw new IOException("Entry " + index + " not found: " + snapshot.getAbsolutePath());
+		long position = 0;
+		for (String hash : hashes) {
+			File chunk = chunk(hash);
+			long length = chunk.length();
+			if (position == header.offset(index) && length == header.size(index)) {
+				Bnd4.writeEntry(to, index, ByteBuffer.wrap(Files.readAllBytes(chunk.toPath())));
+				return;
+			}
+			position += length;
+		}
+		// Stored with fixed size chunks.
+		super.readEntry(snapshot, index, to);
+	}
+}
@@ -0,0 +1,72 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** Keeps the contents of the newest snapshots in memory so they can be restored without reading them from disk. When the
+ * memory limit is reached, the oldest snapshots are evicted.
+ * @author Nathan Sweet */
+public class SnapshotCache {
+	final long maxBytes;
+	private final LinkedHashMap<File, byte[]> snapshots = new LinkedHashMap();
+	private long bytes;
+	private int hits, misses, evictions;
+
+	public SnapshotCache (long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized void put (File snapshot, byte[] contents) {
+		remove(snapshot);
+		if (contents.length > maxBytes) return;
+		Iterator<byte[]> iter = snapshots.values().iterator();
+		while (bytes + contents.length > maxBytes) {
+			bytes -= iter.next().length;
+			iter.remove();
+			evictions++;
+		}
+		snapshots.put(snapshot, contents);
+		bytes += contents.length;
+	}
+
+	/** @return May be null. */
+	public synchronized byte[] get (File snapshot) {
+		byte[] contents = snapshots.get(snapshot);
+		if (contents == null)
+			misses++;
+		else
+			hits++;
+		return contents;
+	}
+
+	public synchronized void remove (File snapshot) {
+		byte[] contents = snapshots.remove(snapshot);
+		if (contents != null) bytes -= contents.length;
+	}
+
+	public synchronized String stats () {
+		return snapshots.size() + " cached, " + bytes / 1024 + " KB, " + hits + " hits, " + misses + " misses, " + evictions
+			+ " evictions";
+	}
+}
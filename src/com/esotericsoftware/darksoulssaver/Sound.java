@@ -17,45 +17,51 @@ public enum Sound {
 	Sound (String path) {
 		try (InputStream input = Sound.class.getResourceAsStream(path)) {
 			if (input == null) throw new FileNotFoundException(path);
-			if (input.read() != 'R' || input.read() != 'I' || input.read() != 'F' || input.read() != 'F')
-				throw new IOException("RIFF header not found: " + path);
+			bytes = read(input, path);
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading WAV file: " + path, ex);
+		}
+	}
 
-			skipFully(input, 4);
+	/** @return The samples from a 16 bit PCM WAV file. */
+	static byte[] read (InputStream input, String path) throws IOException {
+		if (input.read() != 'R' || input.read() != 'I' || input.read() != 'F' || input.read() != 'F')
+			throw new IOException("RIFF header not found: " + path);
 
-			if (input.read() != 'W' || input.read() != 'A' || input.read() != 'V' || input.read() != 'E')
-				throw new IOException("Invalid wave file header: " + path);
+		skipFully(input, 4);
 
-			int fmtChunkLength = seekToChunk(input, 'f', 'm', 't', ' ');
+		if (input.read() != 'W' || input.read() != 'A' || input.read() != 'V' || input.read() != 'E')
+			throw new IOException("Invalid wave file header: " + path);
 
-			int type = input.read() & 0xff | (input.read() & 0xff) << 8;
-			if (type != 1) throw new IOException("WAV files must be PCM, unsupported format: " + type);
+		int fmtChunkLength = seekToChunk(input, 'f', 'm', 't', ' ');
 
-			int channels = input.read() & 0xff | (input.read() & 0xff) << 8;
-			if (channels != 1 && channels != 2) throw new IOException("WAV files must have 1 or 2 channels: " + channels);
+		int type = input.read() & 0xff | (input.read() & 0xff) << 8;
+		if (type != 1) throw new IOException("WAV files must be PCM, unsupported format: " + type);
 
-			int sampleRate = input.read() & 0xff | (input.read() & 0xff) << 8 | (input.read() & 0xff) << 16
-				| (input.read() & 0xff) << 24;
-			if (sampleRate != Audio.sampleRate) throw new IOException("Invalid sample rate: " + sampleRate);
+		int channels = input.read() & 0xff | (input.read() & 0xff) << 8;
+		if (channels != 1 && channels != 2) throw new IOException("WAV files must have 1 or 2 channels: " + channels);
 
-			skipFully(input, 6);
+		int sampleRate = input.read() & 0xff | (input.read() & 0xff) << 8 | (input.read() & 0xff) << 16
+			| (input.read() & 0xff) << 24;
+		if (sampleRate != Audio.sampleRate) throw new IOException("Invalid sample rate: " + sampleRate);
 
-			int bitsPerSample = input.read() & 0xff | (input.read() & 0xff) << 8;
-			if (bitsPerSample != 16) throw new IOException("WAV files must have 16 bits per sample: " + bitsPerSample);
+		skipFully(input, 6);
 
-			skipFully(input, fmtChunkLength - 16);
+		int bitsPerSample = input.read() & 0xff | (input.read() & 0xff) << 8;
+		if (bitsPerSample != 16) throw new IOException("WAV files must have 16 bits per sample: " + bitsPerSample);
 
-			int remaining = seekToChunk(input, 'd', 'a', 't', 'a');
-			bytes = new byte[remaining];
-			int offset = 0;
-			while (remaining > 0) {
-				int count = input.read(bytes, offset, remaining);
-				if (count == -1) throw new EOFException();
-				remaining -= count;
-				offset += count;
-			}
-		} catch (IOException ex) {
-			throw new RuntimeException("Error reading WAV file: " + path, ex);
+		skipFully(input, fmtChunkLength - 16);
+
+		int remaining = seekToChunk(input, 'd', 'a', 't', 'a');
+		byte[] bytes = new byte[remaining];
+		int offset = 0;
+		while (remaining > 0) {
+			int count = input.read(bytes, offset, remaining);
+			if (count == -1) throw new EOFException();
+			remaining -= count;
+			offset += count;
 		}
+		return bytes;
 	}
 
 	static private int seekToChunk (InputStream input, char c1, char c2, char c3, char c4) throws IOException {
@@ -0,0 +1,162 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Replaces the save file with a snapshot by renaming a file next to it, so the save file is never partly written. The snapshot
+ * most likely to be restored next can be staged ahead of time, then restoring it is only a rename and takes the same time for
+ * any size of save file. Other snapshots are written next to the save file, verified, then renamed.
+ * @author Nathan Sweet */
+public class StagedRestore {
+	final File saveFile, staged, staging, temp, old;
+	private File snapshot;
+
+	public StagedRestore (File saveFile) {
+		this.saveFile = saveFile;
+		staged = new File(saveFile.getPath() + ".staged");
+		staging = new File(saveFile.getPath() + ".staging");
+		temp = new File(saveFile.getPath() + ".restore");
+		old = new File(saveFile.getPath() + ".old");
+		// Left from a previous run, so what they contain isn't known.
+		staged.delete();
+		staging.delete();
+		temp.delete();
+		old.delete();
+	}
+
+	/** @return true if the snapshot is staged. */
+	public synchronized boolean isStaged (File snapshot) {
+		return snapshot.equals(this.snapshot) && staged.exists();
+	}
+
+	/** Writes the snapshot next to the save file, so it can be restored with a rename. Replaces the snapshot staged before it.
+	 * @param hash The snapshot's {@link Fingerprint}, or 0 to not verify it.
+	 * @param cache May be null. */
+	public void stage (File snapshot, long hash, Store store, SnapshotCache cache) throws IOException {
+		synchronized (this) {
+			old.delete();
+		}
+		write(snapshot, hash, store, cache, staging);
+		// Flushed now so the rename doesn't wait for it, and so a crash after the rename can't leave a partly written save file.
+		try (FileChannel channel = FileChannel.open(staging.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		synchronized (this) {
+			move(staging, staged);
+			this.snapshot = snapshot;
+		}
+	}
+
+	/** Replaces the save file with the snapshot.
+	 * @param hash The snapshot's {@link Fingerprint}, or 0 to not verify it.
+	 * @param modified The time the save file was written that the snapshot was taken from.
+	 * @param cache May be null.
+	 * @return true if the snapshot was staged. */
+	public synchronized boolean restore (File snapshot, long hash, long modified, Store store, SnapshotCache cache)
+		throws IOException {
+		boolean wasStaged = isStaged(snapshot);
+		if (wasStaged)
+			this.snapshot = null;
+		else
+			write(snapshot, hash, store, cache, temp);
+		replace(wasStaged ? staged : temp);
+		// The save file gets the snapshot's time, as it did when it was copied, so the previous backup is older than it.
+		saveFile.setLastModified(modified);
+		return wasStaged;
+	}
+
+	/** Replaces one entry of the save file, such as a character slot, with the snapshot's. The entry is written to a copy of the
+	 * save file, which is then renamed, so the save file is never partly written. The save file keeps the time it is written,
+	 * since its other entries aren't from the snapshot.
+	 * @param cache May be null. */
+	public synchronized void restoreEntry (File snapshot, int index, Store store, SnapshotCache cache) throws IOException {
+		try {
+			FileCopy.copy(saveFile, temp);
+			byte[] bytes = cache == null ? null : cache.get(snapshot);
+			if (bytes != null)
+				Bnd4.writeEntry(temp, index, new Bnd4(ByteBuffer.wrap(bytes)).entry(index));
+			else
+				store.readEntry(snapshot, index, temp);
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+		} catch (IOException ex) {
+			temp.delete();
+			throw ex;
+		}
+		replace(temp);
+	}
+
+	/** Renames the file over the save file. */
+	private void replace (File file) throws IOException {
+		// Replacing the save file frees its contents, which takes longer the larger it is. A link keeps the contents until the
+		// next time a snapshot is staged.
+		old.delete();
+		try {
+			Files.createLink(old.toPath(), saveFile.toPath());
+		} catch (IOException | UnsupportedOperationException ignored) {
+		}
+		move(file, saveFile);
+	}
+
+	/** Writes the snapshot's contents to the file and checks they match the hash. */
+	static private void write (File snapshot, long hash, Store store, SnapshotCache cache, File to) throws IOException {
+		byte[] bytes = cache == null ? null : cache.get(snapshot);
+		if (bytes != null) {
+			if (hash != 0 && Fingerprint.of(bytes, 0, bytes.length) != hash)
+				throw new IOException("Snapshot in memory doesn't match its fingerprint: " + snapshot.getAbsolutePath());
+			Files.write(to.toPath(), bytes);
+		} else {
+			store.read(snapshot, to);
+			if (hash != 0 && Fingerprint.of(to) != hash) {
+				to.delete();
+				throw new IOException("Snapshot doesn't match its fingerprint: " + snapshot.getAbsolutePath());
+			}
+		}
+	}
+
+	/** Renames the file. If renaming fails, such as when the game has the save file open, the file is copied. */
+	void move (File from, File to) throws IOException {
+		try {
+			rename(from, to);
+		} catch (IOException ex) {
+			FileCopy.copy(from, to);
+			from.delete();
+		}
+	}
+
+	/** Renames the file atomically if the file system supports it. */
+	void rename (File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
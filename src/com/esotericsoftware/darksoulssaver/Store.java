@@ -0,0 +1,115 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/** Writes snapshots of the save file to a directory and restores them. The base class stores each snapshot as a full copy of the
+ * save file. Subclasses store snapshots in other formats and can also read full copies, so the store type can be changed without
+ * losing existing snapshots.
+ * @author Nathan Sweet */
+public class Store {
+	static public final String raw = "sl2";
+
+	final File dir;
+	final String extension;
+	long totalBytes, writtenBytes;
+	/** May be null. */
+	SnapshotCache cache;
+
+	public Store (File dir) {
+		this(dir, raw);
+	}
+
+	protected Store (File dir, String extension) {
+		this.dir = dir;
+		this.extension = extension;
+		dir.mkdirs();
+	}
+
+	/** Writes a snapshot of the from file.
+	 * @param to A file in this store's directory with this store's extension.
+	 * @return The number of bytes written to disk. */
+	public long write (File from, File to) throws IOException {
+		long length = FileCopy.copy(from, to);
+		totalBytes += length;
+		writtenBytes += length;
+		return length;
+	}
+
+	/** Writes a snapshot of the from file and returns the contents written, for the {@link SnapshotCache}, so the snapshot
+	 * doesn't need to be read back. */
+	public byte[] writeBytes (File from, File to) throws IOException {
+		byte[] bytes = Files.readAllBytes(from.toPath());
+		FileCopy.write(bytes, to, FileCopy.sync);
+		totalBytes += bytes.length;
+		writtenBytes += bytes.length;
+		return bytes;
+	}
+
+	/** Restores a snapshot so the to file is byte for byte identical to the file the snapshot was written from. */
+	public void read (File snapshot, File to) throws IOException {
+		FileCopy.copy(snapshot, to);
+	}
+
+	/** @return The contents of the file the snapshot was written from. */
+	public byte[] bytes (File snapshot) throws IOException {
+		return Files.readAllBytes(snapshot.toPath());
+	}
+
+	/** Restores one entry of a BND4 snapshot, such as a character slot, leaving the rest of the to file as it is. The to file must
+	 * have the same layout as the snapshot. */
+	public void readEntry (File snapshot, int index, File to) throws IOException {
+		Bnd4 bnd = new Bnd4(ByteBuffer.wrap(bytes(snapshot)));
+		if (index < 0 || index >= bnd.size()) throw new IOException("Entry " + index + " not found: " + snapshot.getAbsolutePath());
+		Bnd4.writeEntry(to, index, bnd.entry(index));
+	}
+
+	/** @return The file with the snapshot's data, for its size and modified time. This is the snapshot unless the store keeps
+	 *         snapshots in more than one folder. */
+	public File file (File snapshot) {
+		return snapshot;
+	}
+
+	/** @return The snapshot's size, which {@link Retention} limits: the length of its file, or of the file it was written from if
+	 *         its file only lists data shared with other snapshots. */
+	public long size (File snapshot) {
+		return file(snapshot).length();
+	}
+
+	/** @return The snapshots in this store with the prefix, oldest first. */
+	public BackupIndex list (String prefix) {
+		return DarkSoulsSaver.files(dir, prefix);
+	}
+
+	/** Deletes a snapshot and any data only it uses. */
+	public void delete (File snapshot) throws IOException {
+		snapshot.delete();
+	}
+
+	/** @return Information about the space used by the snapshots written so far, or an empty string. */
+	public String stats () {
+		return "";
+	}
+}
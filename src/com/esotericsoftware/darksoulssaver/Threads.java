@@ -0,0 +1,109 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** Creates the app's threads and runs its timers. Timers share one thread instead of each sleeping in a loop. Threads that block
+ * on file or process I/O are virtual threads on Java 21+, so waiting doesn't hold an OS thread, and platform threads otherwise.
+ * Threads that wait while holding a lock, need a native message loop, or must be on time, such as for audio, are always platform
+ * threads.
+ * @author Nathan Sweet */
+public class Threads {
+	static private final Object virtualBuilder;
+	static private final Method name, unstarted;
+	static {
+		Object builder = null;
+		Method nameMethod = null, unstartedMethod = null;
+		try {
+			Class builderClass = Class.forName("java.lang.Thread$Builder");
+			nameMethod = builderClass.getMethod("name", String.class);
+			unstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+		} catch (Exception ignored) { // Before Java 21.
+		}
+		virtualBuilder = builder;
+		name = nameMethod;
+		unstarted = unstartedMethod;
+	}
+
+	/** True if {@link #start(String, Runnable)} creates virtual threads. */
+	static public final boolean virtual = virtualBuilder != null;
+
+	static private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread (Runnable runnable) {
+			return platform("Timer", runnable, true);
+		}
+	});
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+		timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/** Starts a thread for blocking I/O. It is a virtual thread if available, otherwise a daemon platform thread. */
+	static public Thread start (String threadName, Runnable runnable) {
+		Thread thread = null;
+		if (virtual) {
+			try {
+				Object builder;
+				synchronized (virtualBuilder) { // Builders aren't thread safe.
+					builder = name.invoke(virtualBuilder, threadName);
+					thread = (Thread)unstarted.invoke(builder, runnable);
+				}
+			} catch (Exception ignored) {
+			}
+		}
+		if (thread == null) thread = platform(threadName, runnable, true);
+		thread.start();
+		return thread;
+	}
+
+	/** @return An unstarted platform thread. */
+	static public Thread platform (String threadName, Runnable runnable, boolean daemon) {
+		Thread thread = new Thread(runnable, threadName);
+		thread.setDaemon(daemon);
+		return thread;
+	}
+
+	/** Runs the task repeatedly on the timer thread, with the delay between the end of one run and the start of the next. The
+	 * task must not block. */
+	static public ScheduledFuture<?> repeat (Runnable task, long delay, TimeUnit unit) {
+		return timer.scheduleWithFixedDelay(task, delay, delay, unit);
+	}
+
+	/** Runs the task once on the timer thread after the delay. The task must not block. */
+	static public ScheduledFuture<?> schedule (Runnable task, long delay, TimeUnit unit) {
+		return timer.schedule(task, delay, unit);
+	}
+
+	/** Cancels the timers and waits for a running timer to finish. */
+	static public void shutdown (long timeoutMillis) {
+		timer.shutdownNow();
+		try {
+			timer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ignored) {
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Keeps fewer snapshots the older they are, for example every snapshot for 10 minutes, one per minute for an hour, then one per
+ * 10 minutes for a day. Ages are relative to the newest snapshot, so history isn't lost while the game isn't being played.
+ * <p>
+ * Each snapshot is checked once when it becomes old enough for each tier, so the work per new snapshot doesn't grow with the
+ * number of snapshots kept.
+ * @author Nathan Sweet */
+public class TieredRetention extends Retention {
+	final long[] ages, intervals;
+	/** For each tier, the number of the newest snapshot that has been checked. */
+	private final long[] checked;
+	/** The indices of the snapshots to remove, so they are removed in one pass after all tiers are checked. */
+	private int[] removing = new int[16];
+	private boolean[] marked = new boolean[16];
+
+	/** @param ages For each tier, the age in milliseconds up to which snapshots are in that tier, ascending. Snapshots older than
+	 *           the last age are removed. Use Long.MAX_VALUE to keep them.
+	 * @param intervals For each tier, the milliseconds between the snapshots kept. Use 0 to keep every snapshot. */
+	public TieredRetention (long[] ages, long[] intervals, int maxCount, long maxBytes) {
+		super(maxCount, maxBytes);
+		if (ages.length == 0 || ages.length != intervals.length)
+			throw new IllegalArgumentException("ages and intervals must have the same, nonzero length.");
+		this.ages = ages;
+		this.intervals = intervals;
+		checked = new long[ages.length];
+	}
+
+	public void apply (BackupIndex files, ArrayList<File> removed) {
+		if (files.isEmpty()) return;
+		long newest = files.modified(files.last());
+
+		long oldest = ages[ages.length - 1];
+		if (oldest != Long.MAX_VALUE) {
+			oldest = newest - oldest;
+			while (files.size() > 1 && files.modified(0) < oldest)
+				removed.add(files.removeFirst());
+		}
+
+		if (marked.length < files.size()) marked = new boolean[files.size() << 1];
+		int count = 0;
+		for (int i = 0, n = ages.length; i < n; i++) {
+			long interval = intervals[i];
+			if (interval == 0) continue;
+			// Check the snapshots that have become old enough for this tier since the last check. The newest is always kept.
+			long start = newest - (i == 0 ? 0 : ages[i - 1]);
+			int index = files.after(checked[i]), previous = index - 1;
+			while (previous >= 0 && marked[previous])
+				previous--;
+			long previousInterval = previous == -1 ? -1 : files.modified(previous) / interval;
+			for (int last = files.last(); index < last; index++) {
+				long modified = files.modified(index);
+				if (modified > start) break;
+				checked[i] = files.number(index);
+				if (marked[index]) continue;
+				// Keep only the oldest snapshot in each interval.
+				if (modified / interval == previousInterval) {
+					if (count == removing.length) removing = Arrays.copyOf(removing, count << 1);
+					removing[count++] = index;
+					marked[index] = true;
+				} else
+					previousInterval = modified / interval;
+			}
+		}
+		if (count > 0) {
+			Arrays.sort(removing, 0, count);
+			for (int i = 0; i < count; i++)
+				marked[removing[i]] = false;
+			files.remove(removing, count, removed);
+		}
+
+		super.apply(files, removed);
+	}
+
+	/** Parses tiers like "10m:0,1h:1m,1d:10m", where each tier is an age and the time between snapshots kept for that age. An age
+	 * of "*" keeps the oldest snapshots forever. Times are a number followed by s, m, h or d. */
+	static public TieredRetention parse (String tiers, int maxCount, long maxBytes) {
+		String[] values = tiers.split(",");
+		long[] ages = new long[values.length], intervals = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			String[] pair = values[i].split(":");
+			if (pair.length != 2) throw new IllegalArgumentException("Invalid retention tier: " + values[i]);
+			ages[i] = pair[0].trim().equals("*") ? Long.MAX_VALUE : millis(pair[0]);
+			intervals[i] = millis(pair[1]);
+			if (i > 0 && ages[i] <= ages[i - 1]) throw new IllegalArgumentException("Retention tier ages must ascend: " + tiers);
+		}
+		return new TieredRetention(ages, intervals, maxCount, maxBytes);
+	}
+
+	static long millis (String time) {
+		time = time.trim();
+		char unit = time.charAt(time.length() - 1);
+		if (Character.isDigit(unit)) return Long.parseLong(time);
+		long value = Long.parseLong(time.substring(0, time.length() - 1));
+		switch (unit) {
+		case 's':
+			return value * 1000;
+		case 'm':
+			return value * 60 * 1000;
+		case 'h':
+			return value * 60 * 60 * 1000;
+		case 'd':
+			return value * 24 * 60 * 60 * 1000;
+		}
+		throw new IllegalArgumentException("Invalid time unit: " + time);
+	}
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Writes snapshots as full copies to a hot folder, such as on a RAM disk, so the newest can be restored quickly, and moves them
+ * to a cold store when they are older. A snapshot is named as it is in the cold store wherever it is, so the index and manifest
+ * don't change when it moves and lookups don't need to know which folder it is in.
+ * <p>
+ * Moving a snapshot must not happen at the same time as writing or deleting snapshots. Reading can happen at any time.
+ * @author Nathan Sweet */
+public class TieredStore extends Store {
+	final Store hot, cold;
+
+	public TieredStore (Store hot, Store cold) {
+		super(cold.dir, cold.extension);
+		this.hot = hot;
+		this.cold = cold;
+	}
+
+	/** @return The snapshot's file in the hot folder, which exists until the snapshot is moved. */
+	File hotFile (File snapshot) {
+		String name = snapshot.getName();
+		return new File(hot.dir, name.substring(0, name.lastIndexOf('.') + 1) + hot.extension);
+	}
+
+	public boolean isHot (File snapshot) {
+		return hotFile(snapshot).exists();
+	}
+
+	public File file (File snapshot) {
+		File file = hotFile(snapshot);
+		return file.exists() ? file : snapshot;
+	}
+
+	public long size (File snapshot) {
+		File file = hotFile(snapshot);
+		return file.exists() ? hot.size(file) : cold.size(snapshot);
+	}
+
+	public long write (File from, File to) throws IOException {
+		long length = hot.write(from, hotFile(to));
+		totalBytes += length;
+		writtenBytes += length;
+		return length;
+	}
+
+	public byte[] writeBytes (File from, File to) throws IOException {
+		byte[] bytes = hot.writeBytes(from, hotFile(to));
+		totalBytes += bytes.length;
+		writtenBytes += bytes.length;
+		return bytes;
+	}
+
+	public void read (File snapshot, File to) throws IOException {
+		synchronized (this) {
+			File file = hotFile(snapshot);
+			if (file.exists()) {
+				hot.read(file, to);
+				return;
+			}
+		}
+		cold.read(snapshot, to);
+	}
+
+	public byte[] bytes (File snapshot) throws IOException {
+		synchronized (this) {
+			File file = hotFile(snapshot);
+			if (file.exists()) return hot.bytes(file);
+		}
+		return cold.bytes(snapshot);
+	}
+
+	public void readEntry (File snapshot, int index, File to) throws IOException {
+		synchronized (this) {
+			File file = hotFile(snapshot);
+			if (file.exists()) {
+				hot.readEntry(file, index, to);
+				return;
+			}
+		}
+		cold.readEntry(snapshot, index, to);
+	}
+
+	public void delete (File snapshot) throws IOException {
+		File file = hotFile(snapshot);
+		synchronized (this) {
+			if (file.exists()) hot.delete(file);
+		}
+		if (snapshot.exists()) cold.delete(snapshot);
+	}
+
+	/** Writes a snapshot from the hot folder to the cold store, then deletes it from the hot folder. Until then it is read from
+	 * the hot folder.
+	 * @return The number of bytes written to the cold store, or -1 if the snapshot isn't in the hot folder. */
+	public long migrate (File snapshot) throws IOException {
+		File file = hotFile(snapshot);
+		if (!file.exists()) return -1;
+		// Left by a move that was interrupted before the hot file was deleted.
+		if (snapshot.exists()) cold.delete(snapshot);
+		long written = cold.write(file, snapshot);
+		snapshot.setLastModified(file.lastModified());
+		synchronized (this) {
+			hot.delete(file);
+		}
+		return written;
+	}
+
+	/** Lists both folders. A snapshot in the hot folder is named as it would be in the cold store. */
+	public BackupIndex list (String prefix) {
+		BackupIndex hotFiles = hot.list(prefix), coldFiles = cold.list(prefix);
+		BackupIndex index = new BackupIndex(Math.max(16, (hotFiles.size() + coldFiles.size()) * 2));
+		for (int i = 0, ii = 0, n = hotFiles.size(), nn = coldFiles.size(); i < n || ii < nn;) {
+			if (ii < nn && (i == n || coldFiles.number(ii) < hotFiles.number(i))) {
+				index.add(coldFiles.file(ii), coldFiles.modified(ii), coldFiles.size(ii), coldFiles.number(ii));
+				ii++;
+				continue;
+			}
+			// A snapshot in both folders wasn't done moving and is still read from the hot folder.
+			if (ii < nn && coldFiles.number(ii) == hotFiles.number(i)) ii++;
+			File file = new File(dir, prefix + hotFiles.number(i) + '.' + extension);
+			index.add(file, hotFiles.modified(i), hotFiles.size(i), hotFiles.number(i));
+			i++;
+		}
+		return index;
+	}
+
+	public String stats () {
+		return cold.stats();
+	}
+}
@@ -68,7 +68,19 @@ public class Win {
 
 		static public native int GetCurrentProcessId ();
 
+		static public native int GetCurrentThreadId ();
+
 		static public native Pointer GetModuleHandle (Pointer lpModuleName);
+
+		static public final int SYNCHRONIZE = 0x00100000;
+		static public final int WAIT_OBJECT_0 = 0;
+		static public final int WAIT_TIMEOUT = 0x102;
+
+		static public native Pointer OpenProcess (int dwDesiredAccess, boolean bInheritHandle, int dwProcessId);
+
+		static public native int WaitForSingleObject (Pointer hHandle, int dwMilliseconds);
+
+		static public native boolean CloseHandle (Pointer hObject);
 	}
 
 	static public class User32 {
@@ -92,9 +104,12 @@ public class Win {
 		static public final int GWL_WNDPROC = -4;
 
 		static public final int WH_KEYBOARD_LL = 13;
+		static public final int LLKHF_INJECTED = 0x10;
+		static public final int LLKHF_UP = 0x80;
 		static public final int WM_HOTKEY = 0x312;
 		static public final int WM_CLIPBOARDUPDATE = 0x31D;
 		static public final int WM_CLOSE = 0x10;
+		static public final int WM_QUIT = 0x12;
 		static public final int WM_USER = 0x400;
 		static public final int WM_LBUTTONDOWN = 0x201;
 		static public final int WM_LBUTTONUP = 0x202;
@@ -143,6 +158,12 @@ public class Win {
 
 		static public native boolean GetMonitorInfo (Pointer hMonitor, MONITORINFO lpmi);
 
+		static public native boolean EnumWindows (WNDENUMPROC lpEnumFunc, Pointer lParam);
+
+		static public native boolean PostMessage (Pointer hWnd, int Msg, Parameter wParam, Parameter lParam);
+
+		static public native boolean PostThreadMessage (int idThread, int Msg, Parameter wParam, Parameter lParam);
+
 		static public native Pointer GetDC (Pointer hWnd);
 
 		// Mouse
@@ -157,6 +178,8 @@ public class Win {
 
 		static public native int CallNextHookEx (Pointer hhk, int nCode, Parameter wParam, KBDLLHOOKSTRUCT lParam);
 
+		static public native boolean UnhookWindowsHookEx (Pointer hhk);
+
 		static public native boolean RegisterHotKey (Pointer hWnd, int id, int fsModifiers, int vk);
 
 		static public native boolean UnregisterHotKey (Pointer hWnd, int id);
@@ -427,4 +450,8 @@ public class Win {
 	static public interface LowLevelKeyboardProc extends StdCallCallback {
 		public int callback (int nCode, Parameter wParam, KBDLLHOOKSTRUCT lParam);
 	}
+
+	static public interface WNDENUMPROC extends StdCallCallback {
+		public boolean callback (Pointer hWnd, Pointer lParam);
+	}
 }
@@ -0,0 +1,64 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.esotericsoftware.darksoulssaver.Audio.NullSink;
+
+/** @author Nathan Sweet */
+public class AudioTest {
+	@Test
+	public void mixesOverlappingSounds () throws Exception {
+		final AtomicLong written = new AtomicLong();
+		Audio audio = new Audio(new NullSink() {
+			public void write (byte[] bytes, int offset, int count) {
+				super.write(bytes, offset, count);
+				written.addAndGet(count);
+			}
+		});
+		Latency latency = new Latency();
+		audio.latency = latency;
+		assertTrue(audio.play(Sound.save));
+		assertTrue(audio.play(Sound.replace));
+		assertTrue(audio.play(Sound.save));
+		long end = System.currentTimeMillis() + 10000;
+		while (latency.histogram("audio.cue").count() < 3) {
+			assertTrue("Sounds weren't mixed.", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+		// Mixed while playing at the same time, so at least the longest sound is written.
+		long longest = Math.max(Sound.save.bytes.length, Sound.replace.bytes.length);
+		while (written.get() < longest) {
+			assertTrue("Sounds weren't written.", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void noOutput () {
+		assertFalse(new Audio(null).play(Sound.save));
+	}
+}
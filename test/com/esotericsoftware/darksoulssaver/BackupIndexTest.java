@@ -0,0 +1,159 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class BackupIndexTest {
+	@Test
+	public void empty () {
+		BackupIndex files = new BackupIndex();
+		assertTrue(files.isEmpty());
+		assertEquals(-1, files.last());
+		assertEquals(-1, files.olderThan(Long.MAX_VALUE));
+		assertEquals(0, files.after(0));
+		assertEquals(0, files.totalSize());
+		try {
+			files.removeFirst();
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			files.file(0);
+			fail();
+		} catch (IndexOutOfBoundsException expected) {
+		}
+	}
+
+	@Test
+	public void olderThan () {
+		BackupIndex files = index(10, 20, 30);
+		assertEquals(0, files.olderThan(5)); // Nothing older, the oldest is used.
+		assertEquals(0, files.olderThan(10));
+		assertEquals(0, files.olderThan(11));
+		assertEquals(1, files.olderThan(30));
+		assertEquals(2, files.olderThan(31));
+		assertEquals(2, files.olderThan(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void equalTimes () {
+		BackupIndex files = index(10, 20, 20, 20, 30);
+		assertEquals(0, files.olderThan(20));
+		assertEquals(3, files.olderThan(21));
+		// A time older than the last snapshot's is raised so the times stay sorted.
+		files.add(new File("6"), 15, 1, 6);
+		assertEquals(30, files.modified(5));
+		assertEquals(3, files.olderThan(30));
+		assertEquals(5, files.olderThan(31));
+	}
+
+	@Test
+	public void after () {
+		BackupIndex files = index(10, 20, 30);
+		assertEquals(0, files.after(0));
+		assertEquals(1, files.after(1));
+		assertEquals(2, files.after(2));
+		assertEquals(3, files.after(3));
+		assertEquals(3, files.after(100));
+	}
+
+	@Test
+	public void hashes () {
+		BackupIndex files = new BackupIndex();
+		files.add(new File("1"), 10, 5, 1, 0x1234);
+		files.add(new File("2"), 20, 5, 2);
+		assertEquals(0x1234, files.hash(0));
+		assertEquals(0, files.hash(1));
+		files.removeFirst();
+		assertEquals(0, files.hash(0));
+	}
+
+	@Test
+	public void remove () {
+		BackupIndex files = index(10, 20, 30, 40, 50);
+		assertEquals(150, files.totalSize());
+		assertEquals(new File("1"), files.removeFirst());
+		assertEquals(new File("3"), files.remove(1));
+		assertEquals(110, files.totalSize());
+		assertEquals(3, files.size());
+		assertEquals(2, files.number(0));
+		assertEquals(4, files.number(1));
+		assertEquals(5, files.number(files.last()));
+		assertEquals(1, files.olderThan(45));
+		ArrayList<File> removed = new ArrayList();
+		files.remove(new int[] {0, 2}, 2, removed);
+		assertEquals(2, removed.size());
+		assertEquals(new File("2"), removed.get(0));
+		assertEquals(new File("5"), removed.get(1));
+		assertEquals(1, files.size());
+		assertEquals(40, files.totalSize());
+		assertEquals(0, files.olderThan(100));
+		files.removeFirst();
+		assertTrue(files.isEmpty());
+		assertEquals(0, files.totalSize());
+		assertEquals(-1, files.olderThan(100));
+	}
+
+	@Test
+	public void setSize () {
+		BackupIndex files = index(10, 20);
+		files.setSize(1, 5);
+		assertEquals(5, files.size(1));
+		assertEquals(15, files.totalSize());
+	}
+
+	/** Adding after removing from the start reuses the freed space, and lookups still see the snapshots in order. */
+	@Test
+	public void reusesSpace () {
+		BackupIndex files = new BackupIndex(16);
+		long number = 0, total = 0;
+		for (int i = 0; i < 1000; i++) {
+			number++;
+			files.add(new File(Long.toString(number)), number * 10, number, number);
+			total += number;
+			if (files.size() > 10) {
+				total -= files.size(0);
+				files.removeFirst();
+			}
+			assertEquals(total, files.totalSize());
+			assertEquals(number, files.number(files.last()));
+			assertEquals(files.last(), files.olderThan(number * 10 + 1));
+			assertEquals(Math.max(0, files.last() - 1), files.olderThan(number * 10));
+		}
+		assertEquals(10, files.size());
+		assertEquals(991, files.number(0));
+	}
+
+	/** @return An index with a snapshot numbered from 1 for each time, each with a size of the time. */
+	static BackupIndex index (long... times) {
+		BackupIndex files = new BackupIndex();
+		for (int i = 0; i < times.length; i++)
+			files.add(new File(Integer.toString(i + 1)), times[i], times[i], i + 1);
+		return files;
+	}
+}
@@ -0,0 +1,183 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class Bnd4Test {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void writeAndRead () throws IOException {
+		byte[][] slots = slots(100, 0x60000, 16, 1);
+		byte[] save = bnd4(slots);
+		Bnd4 bnd = new Bnd4(ByteBuffer.wrap(save));
+		assertEquals(4, bnd.size());
+		long end = 0;
+		for (int i = 0; i < 4; i++) {
+			assertEquals(String.format("USER_DATA%03d", i), bnd.name(i));
+			assertEquals(slots[i].length, bnd.size(i));
+			assertEquals("Entries are aligned to 16 bytes.", 0, bnd.offset(i) % 16);
+			assertTrue(bnd.offset(i) >= end);
+			end = bnd.offset(i) + bnd.size(i);
+			assertArrayEquals(slots[i], slot(save, i));
+		}
+		assertEquals(save.length, end);
+		assertEquals(bnd.offset(0), bnd.dataStart());
+		assertArrayEquals(new int[] {0, 1, 2, 3}, bnd.layout());
+	}
+
+	/** Only the header is read from the file, which is enough for the entries' offsets, sizes and names. */
+	@Test
+	public void header () throws IOException {
+		byte[] save = bnd4(slots(1000, 2000, 3000));
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), save);
+		Bnd4 full = new Bnd4(ByteBuffer.wrap(save)), bnd;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			bnd = Bnd4.header(channel);
+		}
+		assertEquals(full.dataStart(), bnd.buffer.limit());
+		assertEquals(3, bnd.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(full.offset(i), bnd.offset(i));
+			assertEquals(full.size(i), bnd.size(i));
+			assertEquals(full.name(i), bnd.name(i));
+		}
+		try {
+			bnd.entry(0);
+			fail("The entry's data wasn't read.");
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void notBnd4 () throws IOException {
+		byte[] bytes = new byte[1000];
+		new Random(0).nextBytes(bytes);
+		assertFalse(Bnd4.is(ByteBuffer.wrap(bytes)));
+		assertFalse(Bnd4.is(ByteBuffer.wrap(new byte[] {'B', 'N', 'D', '4'})));
+		try {
+			new Bnd4(ByteBuffer.wrap(bytes));
+			fail();
+		} catch (IOException expected) {
+		}
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), bytes);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			assertNull(Bnd4.header(channel));
+		}
+	}
+
+	@Test
+	public void invalidHeader () {
+		byte[] save = bnd4(slots(100, 100));
+		ByteBuffer.wrap(save).order(ByteOrder.LITTLE_ENDIAN).putInt(0x0c, 1000000); // Entry count.
+		try {
+			new Bnd4(ByteBuffer.wrap(save));
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void overlappingEntries () throws IOException {
+		byte[] save = bnd4(slots(100, 100, 100));
+		Bnd4 bnd = new Bnd4(ByteBuffer.wrap(save));
+		// Move the second entry's offset into the first entry.
+		ByteBuffer.wrap(save).order(ByteOrder.LITTLE_ENDIAN).putInt(0x40 + 0x20 + 24, (int)bnd.offset(0) + 50);
+		assertNull(new Bnd4(ByteBuffer.wrap(save)).layout());
+	}
+
+	@Test
+	public void writeEntry () throws IOException {
+		byte[][] slots = slots(300, 400, 500);
+		byte[] save = bnd4(slots);
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), save);
+		byte[] replacement = new byte[400];
+		new Random(1).nextBytes(replacement);
+		Bnd4.writeEntry(file, 1, ByteBuffer.wrap(replacement));
+		byte[] written = Files.readAllBytes(file.toPath());
+		assertEquals(save.length, written.length);
+		assertArrayEquals(slots[0], slot(written, 0));
+		assertArrayEquals(replacement, slot(written, 1));
+		assertArrayEquals(slots[2], slot(written, 2));
+		long offset = new Bnd4(ByteBuffer.wrap(save)).offset(1);
+		for (int i = 0; i < save.length; i++)
+			if (i < offset || i >= offset + 400) assertEquals("Byte outside the entry changed: " + i, save[i], written[i]);
+	}
+
+	/** An entry that doesn't fit the file's layout isn't written. */
+	@Test
+	public void writeEntryRejects () throws IOException {
+		byte[] save = bnd4(slots(300, 400));
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), save);
+		for (int index : new int[] {-1, 2}) {
+			try {
+				Bnd4.writeEntry(file, index, ByteBuffer.wrap(new byte[400]));
+				fail();
+			} catch (IOException expected) {
+			}
+		}
+		try {
+			Bnd4.writeEntry(file, 1, ByteBuffer.wrap(new byte[401]));
+			fail();
+		} catch (IOException expected) {
+		}
+		assertArrayEquals(save, Files.readAllBytes(file.toPath()));
+
+		File other = temp.newFile("other.sl2");
+		Files.write(other.toPath(), new byte[1000]);
+		try {
+			Bnd4.writeEntry(other, 0, ByteBuffer.wrap(new byte[400]));
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	/** @return Random entries with the sizes. */
+	static byte[][] slots (int... sizes) {
+		Random random = new Random(0);
+		byte[][] slots = new byte[sizes.length][];
+		for (int i = 0; i < sizes.length; i++) {
+			slots[i] = new byte[sizes[i]];
+			random.nextBytes(slots[i]);
+		}
+		return slots;
+	}
+}
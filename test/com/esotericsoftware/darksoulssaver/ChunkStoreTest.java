@@ -0,0 +1,86 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class ChunkStoreTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void restoresEverySnapshot () throws Exception {
+		File restored = temp.newFile("restored.sl2");
+		ChunkStore store = new ChunkStore(temp.newFolder("backup"), 4 * 1024);
+		ArrayList<byte[]> contents = write(store, temp.newFile("save.sl2"), 20);
+		for (int i = 0; i < contents.size(); i++) {
+			File snapshot = snapshot(store, i + 1);
+			store.read(snapshot, restored);
+			assertArrayEquals("backup" + (i + 1), contents.get(i), Files.readAllBytes(restored.toPath()));
+			assertArrayEquals("backup" + (i + 1), contents.get(i), store.bytes(snapshot));
+		}
+	}
+
+	@Test
+	public void storesEachChunkOnce () throws Exception {
+		ChunkStore store = new ChunkStore(temp.newFolder("backup"), 4 * 1024);
+		write(store, temp.newFile("save.sl2"), 20);
+		assertTrue(store.writtenBytes < store.totalBytes / 5);
+	}
+
+	@Test
+	public void sizeIsTheSaveFileSize () throws Exception {
+		ChunkStore store = new ChunkStore(temp.newFolder("backup"), 4 * 1024);
+		ArrayList<byte[]> contents = write(store, temp.newFile("save.sl2"), 3);
+		assertEquals(contents.get(0).length, store.size(snapshot(store, 1)));
+		BackupIndex index = store.list("backup");
+		assertEquals(3, index.size());
+		assertEquals(contents.get(0).length * 3L, index.totalSize());
+	}
+
+	@Test
+	public void deleteKeepsSharedChunks () throws Exception {
+		ChunkStore store = new ChunkStore(temp.newFolder("backup"), 4 * 1024);
+		ArrayList<byte[]> contents = write(store, temp.newFile("save.sl2"), 3);
+		store.delete(snapshot(store, 1));
+		store.delete(snapshot(store, 2));
+		assertArrayEquals(contents.get(2), store.bytes(snapshot(store, 3)));
+		store.delete(snapshot(store, 3));
+		assertEquals(0, chunks(store.chunkDir));
+	}
+
+	/** Counts the chunk files, which are in folders named for the first two characters of their hash. */
+	static private int chunks (File dir) {
+		int count = 0;
+		for (File file : dir.listFiles())
+			count += file.isDirectory() ? chunks(file) : 1;
+		return count;
+	}
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class CompressedStoreTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	/** Each codec, with a save file of several blocks so they are compressed and decompressed in parallel. */
+	@Test
+	public void roundTrip () throws Exception {
+		byte[] bytes = save(5 * 256 * 1024 + 1000);
+		File save = temp.newFile("save.sl2"), restored = new File(temp.getRoot(), "restored.sl2");
+		Files.write(save.toPath(), bytes);
+		for (int level : new int[] {0, 1, 9}) {
+			File dir = temp.newFolder("backup" + level);
+			CompressedStore store = new CompressedStore(dir, level, 0);
+			File snapshot = new File(dir, "backup1.z");
+			store.write(save, snapshot);
+			assertTrue(snapshot.length() < bytes.length);
+
+			// A new store reads the file instead of returning the bytes it last wrote.
+			store = new CompressedStore(dir, level, 0);
+			assertArrayEquals(bytes, store.bytes(snapshot));
+			store.read(snapshot, restored);
+			assertArrayEquals(bytes, Files.readAllBytes(restored.toPath()));
+		}
+	}
+
+	@Test
+	public void incompressible () throws Exception {
+		byte[] bytes = new byte[300 * 1024];
+		new Random(0).nextBytes(bytes);
+		File save = temp.newFile("save.sl2");
+		Files.write(save.toPath(), bytes);
+		File dir = temp.newFolder("backup");
+		File snapshot = new File(dir, "backup1.z");
+		new CompressedStore(dir, 0, 0).write(save, snapshot);
+		assertArrayEquals(bytes, new CompressedStore(dir, 0, 0).bytes(snapshot));
+	}
+
+	/** A snapshot cut short fails to restore and leaves the file being restored to as it was. */
+	@Test
+	public void truncated () throws Exception {
+		byte[] bytes = save(3 * 256 * 1024);
+		File save = temp.newFile("save.sl2"), restored = temp.newFile("restored.sl2");
+		Files.write(save.toPath(), bytes);
+		Files.write(restored.toPath(), new byte[] {1, 2, 3});
+		File dir = temp.newFolder("backup");
+		File snapshot = new File(dir, "backup1.z");
+		new CompressedStore(dir, 0, 0).write(save, snapshot);
+		long length = snapshot.length();
+		for (long cut : new long[] {length - 1, length / 2, 20, 4}) {
+			try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+				file.setLength(cut);
+			}
+			CompressedStore store = new CompressedStore(dir, 0, 0);
+			try {
+				store.bytes(snapshot);
+				fail("Truncated to " + cut + " bytes.");
+			} catch (IOException expected) {
+			}
+			try {
+				store.read(snapshot, restored);
+				fail("Truncated to " + cut + " bytes.");
+			} catch (IOException expected) {
+			}
+			assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(restored.toPath()));
+		}
+	}
+
+	/** Corrupt LZ blocks among valid ones are rejected when the blocks are decompressed in parallel into one array. */
+	@Test
+	public void corruptBlocks () throws Exception {
+		File dir = temp.newFolder("backup");
+		byte[] block = save(1024), compressed = new byte[Lz.maxCompressed(1024)];
+		int compressedLength = Lz.compress(block, 0, 1024, compressed);
+		byte[][] corrupt = {
+			{(byte)0xf0, (byte)255, (byte)255, 0}, // Literals past the block's output.
+			{0x40, 1, 2, 3, 4, 0, 0, 0}, // Match offset of 0.
+			{0x40, 1, 2, 3, 4, 100, 0, 0}, // Match before the block's output.
+			Arrays.copyOf(compressed, compressedLength - 1), // Truncated.
+		};
+		for (int i = 0; i < corrupt.length; i++) {
+			File snapshot = new File(dir, "backup" + (i + 1) + ".z");
+			try (DataOutputStream output = new DataOutputStream(new FileOutputStream(snapshot))) {
+				output.writeInt(0x4453535A);
+				output.writeInt(1024);
+				output.writeLong(8 * 1024);
+				for (int ii = 0; ii < 8; ii++) {
+					byte[] data = ii == 5 ? corrupt[i] : Arrays.copyOf(compressed, compressedLength);
+					output.writeByte(CompressedStore.lz);
+					output.writeInt(data.length);
+					output.write(data);
+				}
+			}
+			CompressedStore store = new CompressedStore(dir, 0, 0);
+			try {
+				store.bytes(snapshot);
+				fail("Corrupt block " + i);
+			} catch (IOException expected) {
+			}
+			try {
+				store.read(snapshot, new File(temp.getRoot(), "restored.sl2"));
+				fail("Corrupt block " + i);
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	/** @return Compressible bytes with some random regions, like a save file. */
+	static private byte[] save (int length) {
+		Random random = new Random(0);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte)(i % 4096 < 512 ? random.nextInt() : i / 100);
+		return bytes;
+	}
+}
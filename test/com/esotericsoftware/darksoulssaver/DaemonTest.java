@@ -0,0 +1,152 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.swing.KeyStroke;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class DaemonTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	private File[] saves = new File[2];
+	private Daemon daemon;
+
+	/** Two games, the second with its own key for saving. */
+	@Before
+	public void setup () throws Exception {
+		String[] configs = new String[2];
+		for (int i = 0; i < 2; i++) {
+			String name = "daemonTest" + i;
+			saves[i] = temp.newFile(name + ".sl2");
+			Files.write(saves[i].toPath(), new byte[] {(byte)i});
+			File config = new File(temp.getRoot(), name + ".txt");
+			ArrayList<String> lines = new ArrayList(Arrays.asList(saves[i].getAbsolutePath(), "run", "game" + i + ".exe", "",
+				"dir=" + new File(temp.getRoot(), name).getAbsolutePath(), "journal=", "latencyInterval=0"));
+			if (i == 1) lines.add("key.save=ctrl F8");
+			Files.write(config.toPath(), lines);
+			configs[i] = config.getPath();
+		}
+		daemon = new Daemon(configs, new Audio(null));
+	}
+
+	/** Stops what {@link Daemon#start()} started, without shutting down the timer other tests use. */
+	@After
+	public void shutdown () throws Exception {
+		daemon.running = false;
+		if (daemon.watch != null) daemon.watch.interrupt();
+		daemon.watcher.close();
+		daemon.scheduler.shutdown(1000);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (DarkSoulsSaver saver : daemon.savers) {
+			ObjectName name = objectName(saver);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+		}
+	}
+
+	/** Each game has its own folders and metrics. */
+	@Test
+	public void loadsEachGame () throws Exception {
+		assertEquals(2, daemon.savers.size());
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (int i = 0; i < 2; i++) {
+			DarkSoulsSaver saver = daemon.savers.get(i);
+			assertEquals("daemonTest" + i, saver.name);
+			File dir = new File(temp.getRoot(), "daemonTest" + i);
+			assertEquals(new File(dir, "backup").getAbsoluteFile(), saver.backupDir.getAbsoluteFile());
+			assertSame(saver.metrics, daemon.metrics.get(i));
+			assertEquals(0L, server.getAttribute(objectName(saver), "backups"));
+		}
+	}
+
+	/** A change to either save file is backed up into that game's backup folder. */
+	@Test
+	public void backsUpEachGame () throws Exception {
+		daemon.start();
+		for (int i = 0; i < 2; i++) {
+			long modified = saves[i].lastModified();
+			Files.write(saves[i].toPath(), new byte[] {(byte)i, 1});
+			saves[i].setLastModified(modified + 2000);
+		}
+		for (int i = 0; i < 2; i++) {
+			DarkSoulsSaver saver = daemon.savers.get(i);
+			long end = System.currentTimeMillis() + 10000;
+			while (saver.backups.value() == 0) {
+				assertTrue("Not backed up: " + saver.name, System.currentTimeMillis() < end);
+				DarkSoulsSaver.zzz(10);
+			}
+			synchronized (saver) {
+				assertEquals(1, saver.backupFiles.size());
+				File backup = saver.backupFiles.file(0);
+				assertEquals(saver.backupDir.getAbsoluteFile(), backup.getParentFile().getAbsoluteFile());
+				assertArrayEquals(new byte[] {(byte)i, 1}, Files.readAllBytes(backup.toPath()));
+			}
+		}
+	}
+
+	/** A hotkey goes to the game it is bound to. A hotkey shared by games goes to the first when none are running. */
+	@Test
+	public void routesHotkeys () throws IOException {
+		daemon.bind(new Keyboard());
+		DarkSoulsSaver saver0 = daemon.savers.get(0), saver1 = daemon.savers.get(1);
+		assertEquals(2, daemon.bindings.get(KeyStroke.getKeyStroke("F1")).size());
+		assertEquals(1, daemon.bindings.get(KeyStroke.getKeyStroke("F8")).size());
+		assertEquals(1, daemon.bindings.get(KeyStroke.getKeyStroke("ctrl F8")).size());
+		assertFalse(saver0.game.isRunning());
+		assertFalse(saver1.game.isRunning());
+
+		daemon.keyPressed(KeyStroke.getKeyStroke("F8"));
+		assertEquals(1, saver0.saves.value());
+		assertEquals(0, saver1.saves.value());
+		daemon.keyPressed(KeyStroke.getKeyStroke("ctrl F8"));
+		assertEquals(1, saver0.saves.value());
+		assertEquals(1, saver1.saves.value());
+
+		// Shared, so it goes to the first game, which now has a save to restore.
+		Files.write(saves[0].toPath(), new byte[] {9});
+		daemon.keyPressed(KeyStroke.getKeyStroke("F1"));
+		assertEquals(1, saver0.restores.value());
+		assertEquals(0, saver1.restores.value());
+		assertArrayEquals(new byte[] {0}, Files.readAllBytes(saves[0].toPath()));
+
+		daemon.keyPressed(KeyStroke.getKeyStroke("F9"));
+	}
+
+	static private ObjectName objectName (DarkSoulsSaver saver) throws Exception {
+		return new ObjectName(Metrics.domain + ":type=Saver,name=" + ObjectName.quote(saver.name));
+	}
+}
@@ -0,0 +1,237 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class DarkSoulsSaverTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	private File save;
+	private byte[] contents;
+	private DarkSoulsSaver saver;
+	private IoScheduler scheduler;
+	/** When true, writing a backup presses a hotkey, like a hotkey pressed while the snapshot is being written. */
+	private volatile boolean pressDuringWrite;
+	private int writes;
+
+	@Before
+	public void setup () throws Exception {
+		save = temp.newFile("save.sl2");
+		contents = new byte[64 * 1024];
+		contents[0] = 1;
+		Files.write(save.toPath(), contents);
+		scheduler = new IoScheduler(1);
+		saver = saver();
+	}
+
+	/** @return A saver for the save file, with its backups and saves in the temp folder. */
+	private DarkSoulsSaver saver (String... options) throws Exception {
+		File config = new File(temp.getRoot(), "game.txt");
+		ArrayList<String> lines = new ArrayList();
+		Collections.addAll(lines, save.getAbsolutePath(), "run", "game.exe", "",
+			"dir=" + new File(temp.getRoot(), "game").getAbsolutePath());
+		Collections.addAll(lines, options);
+		Files.write(config.toPath(), lines);
+		DarkSoulsSaver saver = new DarkSoulsSaver(config, null, new Audio(null), new Latency()) {
+			Store createStore (File dir) {
+				if (!dir.getName().equals("backup")) return super.createStore(dir);
+				return new Store(dir) {
+					public long write (File from, File to) throws IOException {
+						written();
+						return super.write(from, to);
+					}
+
+					public byte[] writeBytes (File from, File to) throws IOException {
+						written();
+						return super.writeBytes(from, to);
+					}
+				};
+			}
+		};
+		saver.io = scheduler.owner("game");
+		return saver;
+	}
+
+	@After
+	public void shutdown () {
+		scheduler.shutdown(1000);
+	}
+
+	void written () {
+		writes++;
+		if (pressDuringWrite) saver.hotkeys.incrementAndGet();
+	}
+
+	/** A hotkey pressed while the snapshot is written cancels the backup, and the change is backed up by the next run. */
+	@Test
+	public void hotkeyCancelsAndBackupRetries () throws Exception {
+		change(2);
+		pressDuringWrite = true;
+		saver.io.submit(saver.backup);
+		await(saver.backupsCanceled, 1);
+		assertEquals(1, writes);
+		synchronized (saver) {
+			assertTrue(saver.backupFiles.isEmpty());
+		}
+		assertEquals("The canceled snapshot is deleted.", 0, saver.backupDir.listFiles(snapshots()).length);
+
+		pressDuringWrite = false;
+		saver.io.submit(saver.backup);
+		await(saver.backups, 1);
+		assertEquals(2, writes);
+		assertEquals(1, saver.backupsCanceled.value());
+		synchronized (saver) {
+			assertEquals(1, saver.backupFiles.size());
+			File backup = saver.backupFiles.file(0);
+			assertArrayEquals(contents, Files.readAllBytes(backup.toPath()));
+			assertEquals(Fingerprint.of(save), saver.backupFiles.hash(0));
+		}
+	}
+
+	/** A save file rewritten with the same bytes isn't backed up again. */
+	@Test
+	public void unchangedSaveIsSkipped () throws Exception {
+		change(2);
+		saver.io.submit(saver.backup);
+		await(saver.backups, 1);
+
+		save.setLastModified(save.lastModified() + 2000);
+		saver.io.submit(saver.backup);
+		await(saver.backupsUnchanged, 1);
+		assertEquals(1, writes);
+		synchronized (saver) {
+			assertEquals(1, saver.backupFiles.size());
+		}
+
+		change(3);
+		saver.io.submit(saver.backup);
+		await(saver.backups, 2);
+		synchronized (saver) {
+			assertEquals(2, saver.backupFiles.size());
+		}
+	}
+
+	/** A change while backups are skipped after a hotkey isn't backed up, and isn't forgotten once they are no longer skipped. */
+	@Test
+	public void skippedChangeIsBackedUpLater () throws Exception {
+		saver.skipBackup(20);
+		change(2);
+		saver.io.submit(saver.backup);
+		await(saver.backupsSuppressed, 1);
+		assertEquals(0, writes);
+
+		saver.skipBackupTime = 0;
+		saver.io.submit(saver.backup);
+		await(saver.backups, 1);
+		assertEquals(1, writes);
+	}
+
+	/** With the slot option, F2 restores one slot from the backup before the save file, leaving the other slots. Pressed again,
+	 * it restores from the backup before that one, even though the save file has the time it was written. */
+	@Test
+	public void restoreSlot () throws Exception {
+		byte[][] slots = Bnd4Test.slots(1000, 1000, 1000);
+		byte[][] versions = new byte[3][];
+		for (int i = 0; i < 3; i++) {
+			slots[1][0] = (byte)i;
+			slots[2][0] = (byte)i;
+			versions[i] = bnd4(slots);
+		}
+		contents = versions[0];
+		Files.write(save.toPath(), contents);
+		saver = saver("slot=1");
+		for (int i = 0; i < 2; i++) {
+			change(versions[i]);
+			saver.io.submit(saver.backup);
+			await(saver.backups, i + 1);
+		}
+		change(versions[2]);
+		long[] backupTimes = new long[2];
+		synchronized (saver) {
+			assertEquals(2, saver.backupFiles.size());
+			backupTimes[0] = saver.backupFiles.modified(0);
+			backupTimes[1] = saver.backupFiles.modified(1);
+		}
+
+		saver.keyPressed("replaceWithPreviousBackup");
+		byte[] restored = Files.readAllBytes(save.toPath());
+		assertArrayEquals(slot(versions[1], 1), slot(restored, 1));
+		assertArrayEquals(slot(versions[2], 2), slot(restored, 2));
+		assertNotEquals(backupTimes[1], save.lastModified());
+		assertEquals(backupTimes[1], saver.saveTime());
+
+		saver.keyPressed("replaceWithPreviousBackup");
+		restored = Files.readAllBytes(save.toPath());
+		assertArrayEquals(slot(versions[0], 1), slot(restored, 1));
+		assertArrayEquals(slot(versions[2], 2), slot(restored, 2));
+		assertEquals(2, saver.restores.value());
+
+		// Once the game writes the save file, its own time is used again.
+		change(versions[2]);
+		assertEquals(save.lastModified(), saver.saveTime());
+	}
+
+	/** Rewrites the save file with new contents and a newer modified time. */
+	private void change (int value) throws IOException {
+		contents[0] = (byte)value;
+		change(contents);
+	}
+
+	private void change (byte[] bytes) throws IOException {
+		long modified = save.lastModified();
+		Files.write(save.toPath(), bytes);
+		save.setLastModified(modified + 2000);
+	}
+
+	private FilenameFilter snapshots () {
+		return new FilenameFilter() {
+			public boolean accept (File dir, String name) {
+				return name.endsWith(".sl2");
+			}
+		};
+	}
+
+	static private void await (Metrics.Counter counter, long value) {
+		long end = System.currentTimeMillis() + 10000;
+		while (counter.value() < value) {
+			if (System.currentTimeMillis() > end) fail(counter.name + " never reached " + value + ": " + counter.value());
+			DarkSoulsSaver.zzz(5);
+		}
+		DarkSoulsSaver.zzz(20); // Let the task finish after the counter changes.
+		assertEquals(value, counter.value());
+	}
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class DeltaStoreTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void restoresEverySnapshot () throws Exception {
+		File save = temp.newFile("save.sl2"), restored = temp.newFile("restored.sl2");
+		File dir = temp.newFolder("backup");
+		DeltaStore store = new DeltaStore(dir, 5);
+		ArrayList<byte[]> contents = write(store, save, 23);
+
+		// A new store rebuilds every snapshot from the files.
+		store = new DeltaStore(dir, 5);
+		for (int i = 0; i < contents.size(); i++) {
+			File snapshot = snapshot(store, i + 1);
+			store.read(snapshot, restored);
+			assertArrayEquals("backup" + (i + 1), contents.get(i), Files.readAllBytes(restored.toPath()));
+			assertArrayEquals("backup" + (i + 1), contents.get(i), store.bytes(snapshot));
+		}
+	}
+
+	@Test
+	public void writesOnlyChanges () throws Exception {
+		DeltaStore store = new DeltaStore(temp.newFolder("backup"), 20);
+		write(store, temp.newFile("save.sl2"), 20);
+		// One keyframe, then deltas of a few KB.
+		assertTrue(store.writtenBytes < store.totalBytes / 10);
+	}
+
+	@Test
+	public void deletesBasesAfterDependents () throws Exception {
+		File dir = temp.newFolder("backup");
+		DeltaStore store = new DeltaStore(dir, 20);
+		ArrayList<byte[]> contents = write(store, temp.newFile("save.sl2"), 5);
+		for (int i = 1; i <= 3; i++)
+			store.delete(snapshot(store, i));
+		assertEquals(2, store.list("backup").size());
+
+		// Deferred deletions are kept across a restart.
+		store = new DeltaStore(dir, 20);
+		assertArrayEquals(contents.get(4), store.bytes(snapshot(store, 5)));
+		store.delete(snapshot(store, 4));
+		assertArrayEquals(contents.get(4), store.bytes(snapshot(store, 5)));
+		store.delete(snapshot(store, 5));
+		assertEquals(0, dir.list().length);
+	}
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class FileCopyTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+	private final long parallelSize = FileCopy.parallelSize;
+	private final int threads = FileCopy.threads;
+
+	@After
+	public void reset () {
+		FileCopy.parallelSize = parallelSize;
+		FileCopy.threads = threads;
+	}
+
+	@Test
+	public void copiesSmallFiles () throws Exception {
+		long parallel = FileCopy.parallel.bytes();
+		File from = file(100 * 1024 + 1), to = temp.newFile("to.sl2");
+		Files.write(to.toPath(), new byte[200 * 1024]); // Replaced, not overwritten in place.
+		assertEquals(from.length(), FileCopy.copy(from, to));
+		assertArrayEquals(Files.readAllBytes(from.toPath()), Files.readAllBytes(to.toPath()));
+		assertEquals(parallel, FileCopy.parallel.bytes());
+	}
+
+	@Test
+	public void copiesInRanges () throws Exception {
+		FileCopy.parallelSize = 0;
+		for (int ranges : new int[] {2, 4}) {
+			FileCopy.threads = ranges;
+			long parallel = FileCopy.parallel.bytes();
+			// Not a multiple of the range size, so the last range is short.
+			File from = file(ranges * 4 * 1024 * 1024 + 12345), to = temp.newFile("to" + ranges + ".sl2");
+			assertEquals(from.length(), FileCopy.copy(from, to, true));
+			assertEquals(Fingerprint.of(from), Fingerprint.of(to));
+			assertEquals(from.length(), to.length());
+			assertEquals(parallel + from.length(), FileCopy.parallel.bytes());
+		}
+	}
+
+	@Test
+	public void writesBytes () throws Exception {
+		byte[] bytes = new byte[300 * 1024];
+		new Random(1).nextBytes(bytes);
+		File to = temp.newFile("to.sl2");
+		Files.write(to.toPath(), new byte[400 * 1024]);
+		FileCopy.write(bytes, to, false);
+		assertArrayEquals(bytes, Files.readAllBytes(to.toPath()));
+	}
+
+	private File file (int size) throws Exception {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		File file = temp.newFile();
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+}
@@ -0,0 +1,106 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class FileWatcherTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void seesChange () throws Exception {
+		final File file = new File(temp.getRoot(), "save.sl2");
+		File other = temp.newFile("other.sl2");
+		FileWatcher watcher = new FileWatcher(file);
+		try {
+			assertTrue(watcher.isWatching());
+			ArrayList<File> changed = new ArrayList();
+			// A file in the directory that isn't watched doesn't end the wait.
+			Files.write(other.toPath(), new byte[] {1});
+			assertFalse(watcher.waitForChanges(200, changed));
+			assertTrue(changed.isEmpty());
+
+			Thread writer = new Thread() {
+				public void run () {
+					DarkSoulsSaver.zzz(100);
+					try {
+						Files.write(file.toPath(), new byte[] {1, 2, 3});
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			writer.start();
+			long start = System.nanoTime();
+			assertTrue(watcher.waitForChanges(10000, changed));
+			assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+			assertEquals(1, changed.size());
+			assertEquals(file.getAbsoluteFile(), changed.get(0));
+			writer.join();
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void seesChangesToSeveralFiles () throws Exception {
+		File first = temp.newFile("first.sl2"), second = new File(temp.newFolder("dir"), "second.sl2");
+		FileWatcher watcher = new FileWatcher();
+		try {
+			watcher.add(first);
+			watcher.add(second);
+			Files.write(first.toPath(), new byte[] {1});
+			Files.write(second.toPath(), new byte[] {1});
+			ArrayList<File> changed = new ArrayList();
+			long end = System.currentTimeMillis() + 10000;
+			while (changed.size() < 2 && System.currentTimeMillis() < end)
+				watcher.waitForChanges(1000, changed);
+			assertTrue(changed.contains(first.getAbsoluteFile()));
+			assertTrue(changed.contains(second.getAbsoluteFile()));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	/** Once the watch service is unavailable, waiting sleeps for the timeout so the caller can poll. */
+	@Test
+	public void pollsWhenClosed () throws Exception {
+		File file = temp.newFile("save.sl2");
+		FileWatcher watcher = new FileWatcher(file);
+		watcher.close();
+		assertFalse(watcher.isWatching());
+		Files.write(file.toPath(), new byte[] {1});
+		long start = System.nanoTime();
+		assertFalse(watcher.waitForChange(100));
+		assertTrue((System.nanoTime() - start) / 1000000 >= 100);
+		watcher.add(temp.newFile("other.sl2"));
+		assertFalse(watcher.isWatching());
+	}
+}
@@ -0,0 +1,67 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class FingerprintTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void fileAndBytesMatch () throws Exception {
+		byte[] bytes = new byte[200 * 1024];
+		new Random(0).nextBytes(bytes);
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), bytes);
+		long fingerprint = Fingerprint.of(bytes, 0, bytes.length);
+		assertEquals(fingerprint, Fingerprint.of(file));
+		bytes[1000]++;
+		assertNotEquals(fingerprint, Fingerprint.of(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void recordsAlgorithm () {
+		byte[] bytes = {1, 2, 3};
+		long fingerprint = Fingerprint.of(bytes, 0, bytes.length);
+		assertEquals(fingerprint, Fingerprint.known(fingerprint));
+		Checksum checksum = Fingerprint.checksum();
+		assertEquals(Fingerprint.algorithm, checksum instanceof CRC32 ? "CRC32" : "CRC32C");
+
+		// A fingerprint without the algorithm, as written before it was recorded, isn't used.
+		assertEquals(0, Fingerprint.known(fingerprint & 0xffffffffL));
+		if (!(checksum instanceof CRC32)) {
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			assertEquals(0, Fingerprint.known(Fingerprint.value(crc)));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.jna.Platform;
+
+/** Starts and stops a copy of sleep with a name no other process has. Windows is tested by hand with the game.
+ * @author Nathan Sweet */
+public class GameProcessControllerTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void startsAndStops () throws Exception {
+		File sleep = new File("/bin/sleep");
+		assumeTrue(!Platform.isWindows() && sleep.exists());
+		String exeName = "dss-test-" + (System.nanoTime() % 100000);
+		File exe = new File(temp.getRoot(), exeName);
+		Files.copy(sleep.toPath(), exe.toPath());
+		assertTrue(exe.setExecutable(true));
+
+		GameProcessController game = GameProcessController.create(exeName);
+		assertFalse(game.isRunning());
+		for (int i = 0; i < 3; i++) {
+			game.start(exe.getAbsolutePath() + " 600");
+			long end = System.currentTimeMillis() + 5000;
+			while (!game.isRunning()) {
+				assertTrue("Not found after starting.", System.currentTimeMillis() < end);
+				DarkSoulsSaver.zzz(1);
+			}
+			assertEquals(1, game.find().length);
+			long start = System.nanoTime();
+			assertTrue(game.stop(5000));
+			assertTrue("Stopping took too long.", (System.nanoTime() - start) / 1000000 < 2000);
+			assertFalse(game.isRunning());
+		}
+		assertTrue(game.stop(1000));
+	}
+
+	/** A process that ignores SIGTERM is waited for until the timeout. */
+	@Test
+	public void stopTimesOut () throws Exception {
+		File shell = new File("/bin/sh");
+		assumeTrue(!Platform.isWindows() && shell.exists());
+		String exeName = "dss-test-" + (System.nanoTime() % 100000);
+		File exe = new File(temp.getRoot(), exeName);
+		Files.copy(shell.toPath(), exe.toPath());
+		assertTrue(exe.setExecutable(true));
+
+		Process process = new ProcessBuilder(exe.getAbsolutePath(), "-c", "trap '' TERM; while true; do sleep 1; done").start();
+		try {
+			GameProcessController game = GameProcessController.create(exeName);
+			long end = System.currentTimeMillis() + 5000;
+			while (!game.isRunning()) {
+				assertTrue("Not found after starting.", System.currentTimeMillis() < end);
+				DarkSoulsSaver.zzz(1);
+			}
+			DarkSoulsSaver.zzz(100); // Let the shell set the trap.
+			long start = System.nanoTime();
+			assertFalse(game.stop(300));
+			long elapsed = (System.nanoTime() - start) / 1000000;
+			assertTrue("Returned early: " + elapsed, elapsed >= 300);
+			assertTrue("Returned late: " + elapsed, elapsed < 1000);
+			assertTrue(process.isAlive());
+		} finally {
+			process.destroyForcibly().waitFor();
+		}
+	}
+
+	@Test
+	public void waitForExited () {
+		assumeTrue(!Platform.isWindows());
+		// Higher than Linux allows process IDs to be.
+		assertTrue(GameProcessController.Linux.waitFor(Integer.MAX_VALUE, System.currentTimeMillis()));
+	}
+
+	@Test
+	public void contains () {
+		assertTrue(GameProcessController.contains(new int[] {3, 1, 2}, 1));
+		assertFalse(GameProcessController.contains(new int[] {3, 1, 2}, 4));
+		assertFalse(GameProcessController.contains(new int[0], 1));
+	}
+}
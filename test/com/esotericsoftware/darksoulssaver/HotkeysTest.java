@@ -0,0 +1,125 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Hotkeys.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class HotkeysTest {
+	static private final int f1 = 0x70, f2 = 0x71, vkLshift = 0xa0, vkRcontrol = 0xa3, vkLmenu = 0xa4;
+
+	@Test
+	public void matchesModifiers () {
+		Hotkeys hotkeys = new Hotkeys(64);
+		int plain = hotkeys.add(f1, 0), shifted = hotkeys.add(f1, shift), other = hotkeys.add(f2, control | alt);
+		assertEquals("Duplicate hotkey added.", -1, hotkeys.add(f1, 0));
+
+		hotkeys.key(f1, true, 1);
+		hotkeys.key(f1, true, 2); // Repeat.
+		hotkeys.key(f1, false, 3);
+		hotkeys.key(vkLshift, true, 4);
+		hotkeys.key(f1, true, 5);
+		hotkeys.key(f1, false, 6);
+		hotkeys.key(vkLshift, false, 7);
+		hotkeys.key(vkRcontrol, true, 8);
+		hotkeys.key(f2, true, 9); // Missing alt.
+		hotkeys.key(f2, false, 10);
+		hotkeys.key(vkLmenu, true, 11);
+		hotkeys.key(f2, true, 12);
+		int[] expected = {plain, 1, shifted, 5, other, 12};
+		for (int i = 0; i < expected.length; i += 2) {
+			assertEquals(expected[i], hotkeys.poll());
+			assertEquals(expected[i + 1], hotkeys.time());
+		}
+		assertEquals("Extra hotkey.", -1, hotkeys.poll());
+	}
+
+	/** Matched hotkeys are swallowed by the keyboard hook, including repeats while the hotkey is held. */
+	@Test
+	public void matches () {
+		Hotkeys hotkeys = new Hotkeys(64);
+		hotkeys.add(f1, shift);
+		hotkeys.key(f1, true, 1);
+		assertFalse("Missing shift.", hotkeys.matches(f1));
+		hotkeys.key(f1, false, 2);
+		hotkeys.key(vkLshift, true, 3);
+		hotkeys.key(f1, true, 4);
+		assertTrue(hotkeys.matches(f1));
+		assertFalse("Repeat queued.", hotkeys.key(f1, true, 5));
+		assertTrue("Repeat not matched.", hotkeys.matches(f1));
+		assertFalse(hotkeys.matches(f2));
+		assertFalse(hotkeys.matches(-1));
+	}
+
+	/** Hotkeys are dropped rather than waiting when the queue is full, and counted. */
+	@Test
+	public void dropsWhenFull () {
+		Hotkeys hotkeys = new Hotkeys(4);
+		hotkeys.add(f1, 0);
+		for (int i = 1; i <= 6; i++) {
+			assertEquals(i <= 4, hotkeys.key(f1, true, i));
+			hotkeys.key(f1, false, 0);
+		}
+		assertEquals(2, hotkeys.dropped());
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(0, hotkeys.poll());
+			assertEquals(i, hotkeys.time());
+		}
+		assertEquals(-1, hotkeys.poll());
+		assertTrue(hotkeys.key(f1, true, 7));
+		assertEquals(2, hotkeys.dropped());
+	}
+
+	/** Hotkeys queued by one thread are all taken by another, in order. */
+	@Test
+	public void dispatchesToAnotherThread () throws Exception {
+		final Hotkeys hotkeys = new Hotkeys(64);
+		hotkeys.add(f1, 0);
+		final int events = 20000;
+		final long[] times = new long[events];
+		Thread thread = new Thread("Hotkey dispatch") {
+			public void run () {
+				try {
+					for (int i = 0; i < events; i++) {
+						hotkeys.take();
+						times[i] = hotkeys.time();
+					}
+				} catch (InterruptedException ignored) {
+				}
+			}
+		};
+		thread.start();
+		for (int i = 0; i < events;) {
+			if (hotkeys.key(f1, true, i + 1))
+				i++;
+			else
+				Thread.yield();
+			hotkeys.key(f1, false, 0);
+		}
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		for (int i = 0; i < events; i++)
+			assertEquals(i + 1, times[i]);
+	}
+}
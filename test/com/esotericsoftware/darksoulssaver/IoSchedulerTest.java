@@ -0,0 +1,166 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.esotericsoftware.darksoulssaver.IoScheduler.Owner;
+import com.esotericsoftware.darksoulssaver.IoScheduler.Task;
+
+/** @author Nathan Sweet */
+public class IoSchedulerTest {
+	private IoScheduler scheduler;
+
+	@After
+	public void shutdown () {
+		if (scheduler != null) scheduler.shutdown(1000);
+	}
+
+	@Test
+	public void runsOwnerTasksInOrder () throws Exception {
+		scheduler = new IoScheduler(4);
+		Owner owner = scheduler.owner("owner");
+		final ArrayList<Integer> order = new ArrayList();
+		final AtomicInteger running = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(20);
+		for (int i = 0; i < 20; i++) {
+			final int index = i;
+			owner.submit(new Task() {
+				public long run () {
+					if (running.incrementAndGet() != 1) fail("Tasks of one owner ran at the same time.");
+					DarkSoulsSaver.zzz(2);
+					synchronized (order) {
+						order.add(index);
+					}
+					running.decrementAndGet();
+					done.countDown();
+					return -1;
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 20; i++)
+			assertEquals(i, (int)order.get(i));
+	}
+
+	@Test
+	public void queuesTaskOnce () throws Exception {
+		scheduler = new IoScheduler(1);
+		Owner owner = scheduler.owner("owner");
+		final CountDownLatch blocked = new CountDownLatch(1), release = new CountDownLatch(1);
+		owner.submit(new Task() {
+			public long run () {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+				return -1;
+			}
+		});
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		Task task = new Task() {
+			public long run () {
+				runs.incrementAndGet();
+				done.countDown();
+				return -1;
+			}
+		};
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		owner.submit(task);
+		owner.submit(task);
+		release.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		DarkSoulsSaver.zzz(50);
+		assertEquals(1, runs.get());
+	}
+
+	/** A task waiting between steps doesn't hold the thread, so another owner's task runs meanwhile. */
+	@Test
+	public void delayDoesNotHoldThread () throws Exception {
+		scheduler = new IoScheduler(1);
+		final long start = System.nanoTime();
+		final long[] steps = new long[2], other = new long[1];
+		final CountDownLatch done = new CountDownLatch(2);
+		scheduler.owner("waiting").submit(new Task() {
+			int step;
+
+			public long run () {
+				steps[step] = System.nanoTime() - start;
+				if (++step == 1) return 200;
+				done.countDown();
+				return -1;
+			}
+		});
+		DarkSoulsSaver.zzz(20);
+		scheduler.owner("other").submit(new Task() {
+			public long run () {
+				other[0] = System.nanoTime() - start;
+				done.countDown();
+				return -1;
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(other[0] < steps[1]);
+		assertTrue(steps[1] - steps[0] >= 200 * 1000000L);
+	}
+
+	/** Two owners always have 100 ms tasks queued. Another owner's short tasks wait for at most about one of them. */
+	@Test
+	public void busyOwnersDontStarveOthers () throws Exception {
+		scheduler = new IoScheduler(2);
+		for (int i = 0; i < 2; i++) {
+			final Owner large = scheduler.owner("large" + i);
+			large.submit(new Task() {
+				public long run () {
+					DarkSoulsSaver.zzz(100);
+					large.submit(this);
+					return -1;
+				}
+			});
+		}
+		Owner small = scheduler.owner("small");
+		final Latency latency = new Latency();
+		for (int i = 0; i < 10; i++) {
+			final long submitted = System.nanoTime();
+			final CountDownLatch done = new CountDownLatch(1);
+			small.submit(new Task() {
+				public long run () {
+					latency.record("io.wait", submitted);
+					done.countDown();
+					return -1;
+				}
+			});
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			DarkSoulsSaver.zzz(130);
+		}
+		assertTrue(latency.histogram("io.wait").max() < 250 * 1000000L);
+	}
+}
@@ -0,0 +1,216 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.darksoulssaver.Journal.Event;
+
+/** @author Nathan Sweet */
+public class JournalTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	/** Events written to the journal file are read back, and printed as text and CSV. */
+	@Test
+	public void roundTrip () throws Exception {
+		File file = new File(temp.getRoot(), "journal.bin");
+		Journal journal = new Journal(64);
+		journal.open(file, 0);
+		long before = System.currentTimeMillis();
+		assertTrue(journal.log(Journal.message, null, 0, "Started.", null));
+		assertTrue(journal.log(Journal.backup, "ds1", 1234, "Backup: backup1.sl2", null));
+		assertTrue(journal.log(Journal.restore, "ds2", 0, "Restore, \"quoted\"", new IOException("Failed.")));
+		journal.flush();
+		journal.close();
+		long after = System.currentTimeMillis();
+
+		ArrayList<Event> events = read(file);
+		assertEquals(3, events.size());
+		Event event = events.get(0);
+		assertEquals(Journal.message, event.type);
+		assertNull(event.source);
+		assertEquals(0, event.value);
+		assertEquals("Started.", event.text);
+		assertNull(event.errorText);
+		assertTrue(event.time >= before && event.time <= after);
+		event = events.get(1);
+		assertEquals(Journal.backup, event.type);
+		assertEquals("ds1", event.source);
+		assertEquals(1234, event.value);
+		assertEquals("Backup: backup1.sl2", event.text);
+		event = events.get(2);
+		assertEquals(Journal.restore, event.type);
+		assertEquals("Restore, \"quoted\"", event.text);
+		assertTrue(event.errorText.startsWith("java.io.IOException: Failed."));
+
+		String[] text = main(file.getPath()).split("\n");
+		String time = Journal.dateFormat.format(Instant.ofEpochMilli(events.get(1).time));
+		assertEquals(time + " backup ds1 (1234): Backup: backup1.sl2", text[1]);
+		assertTrue(text[0].endsWith(" message: Started."));
+		assertTrue(text[2].endsWith(" restore ds2: Restore, \"quoted\""));
+		assertEquals("java.io.IOException: Failed.", text[3]);
+
+		String[] csv = main(file.getPath(), "csv").split("\n");
+		assertEquals("time,type,source,value,text,error", csv[0]);
+		assertEquals(Instant.ofEpochMilli(events.get(1).time) + ",backup,ds1,1234,Backup: backup1.sl2,", csv[2]);
+		assertTrue(csv[3].startsWith(Instant.ofEpochMilli(events.get(2).time) + ",restore,ds2,0,\"Restore, \"\"quoted\"\"\",\""));
+
+		assertEquals("Type filter.", 2, main(file.getPath(), "csv", "type=backup").split("\n").length);
+	}
+
+	/** A partly written event at the end of the file is removed when the journal is opened again. */
+	@Test
+	public void tornTail () throws Exception {
+		File file = new File(temp.getRoot(), "journal.bin");
+		Journal journal = new Journal(64);
+		journal.open(file, 0);
+		journal.log(Journal.message, null, 0, "One.", null);
+		journal.log(Journal.message, null, 0, "Two.", null);
+		journal.flush();
+		journal.close();
+		long length = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length - 3);
+		}
+		assertEquals(1, read(file).size());
+
+		journal.open(file, 0);
+		journal.log(Journal.message, null, 0, "Three.", null);
+		journal.flush();
+		journal.close();
+		ArrayList<Event> events = read(file);
+		assertEquals(2, events.size());
+		assertEquals("One.", events.get(0).text);
+		assertEquals("Three.", events.get(1).text);
+
+		// A file that isn't a journal is replaced.
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			output.write("Not a journal.".getBytes(StandardCharsets.UTF_8));
+		}
+		journal.open(file, 0);
+		journal.log(Journal.message, null, 0, "Four.", null);
+		journal.flush();
+		journal.close();
+		events = read(file);
+		assertEquals(1, events.size());
+		assertEquals("Four.", events.get(0).text);
+	}
+
+	/** The file is renamed when it reaches its maximum length and a new file is started, so it can't grow without bound. */
+	@Test
+	public void rotates () throws Exception {
+		File file = new File(temp.getRoot(), "journal.bin"), rotated = Journal.rotated(file);
+		Journal journal = new Journal(64);
+		int maxLength = 1000;
+		journal.open(file, maxLength);
+		for (int i = 0; i < 100; i++) {
+			journal.log(Journal.message, null, i, "Event " + i + '.', null);
+			if (i % 10 == 9) journal.flush(); // Don't drop any.
+		}
+		journal.flush();
+		journal.close();
+		assertTrue(rotated.exists());
+		assertTrue(file.length() < maxLength);
+		assertTrue(rotated.length() < maxLength + 100);
+
+		// The newest events are in the file and the ones before them in the rotated file.
+		ArrayList<Event> events = read(rotated);
+		events.addAll(read(file));
+		assertTrue(events.size() > 10);
+		long value = 100 - events.size();
+		for (Event event : events)
+			assertEquals(value++, event.value);
+
+		// A file already at its maximum length is rotated when opened.
+		journal.open(rotated, 100);
+		journal.close();
+		assertEquals(4, rotated.length());
+		assertTrue(Journal.rotated(rotated).exists());
+	}
+
+	/** Events are dropped rather than waiting when the queue is full. Every event is written or counted as dropped. */
+	@Test
+	public void dropsWhenFull () throws Exception {
+		File file = new File(temp.getRoot(), "journal.bin");
+		Journal journal = new Journal(2);
+		journal.open(file, 0);
+		int logged = 0, dropped = 0;
+		for (int i = 0; i < 2000; i++) {
+			if (journal.log(Journal.message, null, i, "Event.", null))
+				logged++;
+			else
+				dropped++;
+		}
+		journal.flush();
+		journal.close();
+		assertTrue("No events were dropped.", dropped > 0);
+		assertEquals(dropped, journal.dropped());
+		ArrayList<Event> events = read(file);
+		assertEquals(logged, events.size());
+		for (int i = 1; i < events.size(); i++)
+			assertTrue("Out of order.", events.get(i).value > events.get(i - 1).value);
+	}
+
+	static private ArrayList<Event> read (File file) throws IOException {
+		ArrayList<Event> events = new ArrayList();
+		long length = Journal.validLength(file);
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			assertEquals(Journal.magic, input.readInt());
+			while (true) {
+				Event event = new Event();
+				if (!Journal.read(input, event)) break;
+				events.add(event);
+			}
+		} catch (IOException ex) { // Partly written event.
+		}
+		assertTrue(length > 0);
+		return events;
+	}
+
+	/** @return What {@link Journal#main(String[])} prints. */
+	static private String main (String... args) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(bytes, true, "UTF-8"));
+		try {
+			Journal.main(args);
+		} finally {
+			System.setOut(out);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+	}
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.esotericsoftware.darksoulssaver.Latency.Histogram;
+
+/** @author Nathan Sweet */
+public class LatencyTest {
+	@Test
+	public void percentiles () {
+		Random random = new Random(0);
+		Histogram histogram = new Histogram("test");
+		long[] samples = new long[200000];
+		for (int i = 0; i < samples.length; i++) {
+			// Log-normal durations centered on 2 ms, like the backup phases.
+			samples[i] = (long)Math.exp(Math.log(2e6) + random.nextGaussian() * 1.5);
+			histogram.record(samples[i]);
+		}
+		Arrays.sort(samples);
+		assertEquals(samples.length, histogram.count());
+		for (double percentile : new double[] {50, 90, 99, 99.9}) {
+			long expected = samples[(int)Math.ceil(samples.length * percentile / 100) - 1], actual = histogram.percentile(percentile);
+			double error = Math.abs(actual - expected) * 100d / expected;
+			assertTrue("p" + percentile + ": " + actual + " ns, expected " + expected + " ns", error <= 1);
+		}
+	}
+
+	@Test
+	public void buckets () {
+		for (long value : new long[] {0, 1, 255, 256, 257, 1000, 123456789, Long.MAX_VALUE}) {
+			int index = Histogram.index(value);
+			assertTrue("Above bucket: " + value, value <= Histogram.highest(index));
+			assertTrue("Below bucket: " + value, index == 0 || value > Histogram.highest(index - 1));
+		}
+	}
+
+	@Test
+	public void recordsFromManyThreads () throws Exception {
+		final Latency latency = new Latency();
+		final int count = 100000;
+		Thread[] recorders = new Thread[4];
+		for (int i = 0; i < recorders.length; i++) {
+			recorders[i] = new Thread() {
+				public void run () {
+					long time = System.nanoTime();
+					for (int ii = 0; ii < count; ii++)
+						time = latency.record("phase", time);
+				}
+			};
+			recorders[i].start();
+		}
+		for (Thread thread : recorders)
+			thread.join();
+		assertEquals(recorders.length * count, latency.histogram("phase").count());
+	}
+}
@@ -0,0 +1,174 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class LzTest {
+	@Test
+	public void roundTrip () throws IOException {
+		Random random = new Random(0);
+		for (int length : new int[] {0, 1, 3, 4, 5, 15, 16, 19, 20, 300, 70000, 256 * 1024}) {
+			byte[] bytes = new byte[length];
+			roundTrip(bytes); // Zeros, one long overlapping match.
+			random.nextBytes(bytes);
+			roundTrip(bytes); // Incompressible, only literals.
+			for (int i = 0; i < length; i++)
+				bytes[i] = (byte)(i % 7 == 0 ? random.nextInt() : i / 64);
+			roundTrip(bytes);
+		}
+		// Matches further back than an offset can reach.
+		byte[] bytes = new byte[200000];
+		random.nextBytes(bytes);
+		System.arraycopy(bytes, 0, bytes, 100000, 100000);
+		roundTrip(bytes);
+	}
+
+	/** Decompresses into the middle of a larger array, like CompressedStore does for each block, without touching the rest. */
+	@Test
+	public void decompressIntoLargerArray () throws IOException {
+		byte[] bytes = text(10000);
+		byte[] compressed = compress(bytes);
+		byte[] output = new byte[bytes.length + 200];
+		Arrays.fill(output, (byte)-1);
+		Lz.decompress(compressed, 0, compressed.length, output, 100, bytes.length);
+		assertArrayEquals(bytes, Arrays.copyOfRange(output, 100, 100 + bytes.length));
+		checkUntouched(output, 100, bytes.length);
+	}
+
+	@Test
+	public void truncated () {
+		byte[] compressed = compress(text(5000));
+		for (int length = 0; length < compressed.length; length++) {
+			try {
+				Lz.decompress(compressed, 0, length, new byte[5000], 0, 5000);
+				fail("Truncated to " + length + " bytes.");
+			} catch (IOException expected) {
+			}
+		}
+		// Truncated data followed by other bytes in the same array.
+		byte[] padded = Arrays.copyOf(compressed, compressed.length + 64);
+		try {
+			Lz.decompress(padded, 0, compressed.length - 1, new byte[5000], 0, 5000);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void extraData () {
+		byte[] compressed = compress(text(5000));
+		try {
+			Lz.decompress(Arrays.copyOf(compressed, compressed.length + 1), 0, compressed.length + 1, new byte[5000], 0, 5000);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void badOffset () {
+		// 4 literals, then a match with offset 0, which would read bytes not yet written.
+		decompressFails(new byte[] {0x40, 1, 2, 3, 4, 0, 0, 0x00}, 8);
+		// Offset 5 with only 4 bytes written, which would read before the output.
+		decompressFails(new byte[] {0x40, 1, 2, 3, 4, 5, 0, 0x00}, 8);
+	}
+
+	/** Literals past the end of the block's output are rejected before anything is copied, so a corrupt block can't overwrite
+	 * the blocks around it in a shared array. */
+	@Test
+	public void literalsPastOutput () {
+		byte[] compressed = {(byte)0xf0, 10, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25};
+		byte[] output = new byte[64];
+		Arrays.fill(output, (byte)-1);
+		try {
+			Lz.decompress(compressed, 0, compressed.length, output, 20, 10);
+			fail();
+		} catch (IOException expected) {
+		}
+		checkUntouched(output, 20, 0);
+		for (int i = 20; i < 30; i++)
+			assertEquals(-1, output[i]);
+	}
+
+	@Test
+	public void literalsPastInput () {
+		// 15 + 10 literals claimed but only 5 present, followed by bytes that aren't part of this block.
+		byte[] input = new byte[64];
+		input[0] = (byte)0xf0;
+		input[1] = 10;
+		byte[] output = new byte[25];
+		try {
+			Lz.decompress(input, 0, 7, output, 0, output.length);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void matchPastOutput () {
+		// 4 literals, then a match of 4 + 15 + 100 bytes into an output of 20.
+		decompressFails(new byte[] {0x4f, 1, 2, 3, 4, 4, 0, 100, 0x00}, 20);
+	}
+
+	static private void decompressFails (byte[] compressed, int outputLength) {
+		try {
+			Lz.decompress(compressed, 0, compressed.length, new byte[outputLength], 0, outputLength);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	static private void roundTrip (byte[] bytes) throws IOException {
+		byte[] compressed = compress(bytes);
+		assertTrue(compressed.length <= Lz.maxCompressed(bytes.length));
+		byte[] output = new byte[bytes.length];
+		Lz.decompress(compressed, 0, compressed.length, output, 0, output.length);
+		assertArrayEquals(bytes, output);
+	}
+
+	static private byte[] compress (byte[] bytes) {
+		byte[] output = new byte[Lz.maxCompressed(bytes.length)];
+		return Arrays.copyOf(output, Lz.compress(bytes, 0, bytes.length, output));
+	}
+
+	/** @return Compressible bytes with short repeats, like text. */
+	static private byte[] text (int length) {
+		Random random = new Random(0);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte)('a' + random.nextInt(4));
+		return bytes;
+	}
+
+	static private void checkUntouched (byte[] output, int offset, int length) {
+		for (int i = 0; i < offset; i++)
+			assertEquals("Written before the output: " + i, -1, output[i]);
+		for (int i = offset + length; i < output.length; i++)
+			assertEquals("Written after the output: " + i, -1, output[i]);
+	}
+}
@@ -0,0 +1,213 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class ManifestTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void reopen () throws Exception {
+		File dir = temp.newFolder("backup");
+		Manifest manifest = new Manifest(new File(dir, "backup.manifest"));
+		BackupIndex index = new BackupIndex();
+		index.manifest = manifest;
+		for (int i = 1; i <= 10; i++)
+			index.add(new File(dir, "backup" + i + ".sl2"), i * 1000L, i * 10, i, hash(i));
+		index.removeFirst();
+		index.remove(3);
+		index.setSize(0, 5);
+		manifest.close();
+
+		BackupIndex loaded = new Manifest(manifest.file).load(dir);
+		check(index, loaded);
+	}
+
+	@Test
+	public void missing () throws Exception {
+		assertNull(new Manifest(new File(temp.getRoot(), "backup.manifest")).load(temp.getRoot()));
+	}
+
+	@Test
+	public void invalidHeader () throws Exception {
+		File file = temp.newFile("backup.manifest");
+		Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+		assertNull(new Manifest(file).load(temp.getRoot()));
+	}
+
+	/** A record cut short by a crash is dropped, and records appended after reopening aren't lost behind it. */
+	@Test
+	public void tornTail () throws Exception {
+		File dir = temp.newFolder("backup");
+		Manifest manifest = new Manifest(new File(dir, "backup.manifest"));
+		BackupIndex index = write(manifest, dir, 5);
+		manifest.close();
+		long length = manifest.file.length();
+		for (int cut = 1; cut < 20; cut++) {
+			try (RandomAccessFile file = new RandomAccessFile(manifest.file, "rw")) {
+				file.setLength(length - cut);
+			}
+			manifest = new Manifest(manifest.file);
+			BackupIndex loaded = manifest.load(dir);
+			assertEquals(4, loaded.size());
+			assertEquals(4, loaded.number(loaded.last()));
+
+			loaded.add(new File(dir, "backup5.sl2"), 5000, 50, 5, hash(5));
+			manifest.close();
+			check(index, new Manifest(manifest.file).load(dir));
+			length = manifest.file.length();
+		}
+	}
+
+	/** A record with a wrong checksum and the records after it are ignored. */
+	@Test
+	public void checksum () throws Exception {
+		File dir = temp.newFolder("backup");
+		Manifest manifest = new Manifest(new File(dir, "backup.manifest"));
+		write(manifest, dir, 5);
+		manifest.close();
+		// Change the last byte of the third record's name. Each record is the length, kind, name, 4 longs and checksum.
+		int recordLength = 4 + 1 + 2 + "backup1.sl2".length() + 32 + 4;
+		try (RandomAccessFile file = new RandomAccessFile(manifest.file, "rw")) {
+			file.seek(4 + recordLength * 2 + 4 + 1 + 2 + "backup1.sl2".length() - 1);
+			file.write('x');
+		}
+		BackupIndex loaded = new Manifest(manifest.file).load(dir);
+		assertEquals(2, loaded.size());
+		assertEquals(2, loaded.number(loaded.last()));
+		// The journal was rewritten without the bad records.
+		assertEquals(4 + recordLength * 2, manifest.file.length());
+	}
+
+	/** When most records are for deleted snapshots, the journal is rewritten in the background with only the current ones. */
+	@Test
+	public void compacts () throws Exception {
+		File dir = temp.newFolder("backup");
+		Manifest manifest = new Manifest(new File(dir, "backup.manifest"));
+		BackupIndex index = new BackupIndex();
+		index.manifest = manifest;
+		long largest = 0;
+		// 75 records for 5 snapshots, so compacting starts after the 65th.
+		for (int i = 1; i <= 40; i++) {
+			index.add(new File(dir, "backup" + i + ".sl2"), i * 1000L, i * 10, i, hash(i));
+			if (index.size() > 5) index.removeFirst();
+			synchronized (manifest) {
+				largest = Math.max(largest, manifest.file.length());
+			}
+		}
+		long end = System.currentTimeMillis() + 10000;
+		while (true) {
+			synchronized (manifest) {
+				if (manifest.file.length() < largest / 3) break;
+			}
+			assertTrue("Not compacted.", System.currentTimeMillis() < end);
+			DarkSoulsSaver.zzz(10);
+		}
+		manifest.close();
+		check(index, new Manifest(manifest.file).load(dir));
+		assertFalse(new File(manifest.file.getPath() + ".tmp").exists());
+	}
+
+	/** The index is loaded from the manifest without listing the folder, then reconciled with the folder when it is listed
+	 * later. */
+	@Test
+	public void reconcile () throws Exception {
+		File dir = temp.newFolder("backup");
+		Store store = new Store(dir);
+		for (int i : new int[] {1, 3, 5, 6})
+			snapshot(dir, i);
+		BackupIndex index = DarkSoulsSaver.index(store, "backup");
+		assertEquals(4, index.size());
+		index.manifest.close();
+
+		// Changed while the app wasn't running.
+		snapshot(dir, 2);
+		snapshot(dir, 4);
+		new File(dir, "backup5.sl2").delete();
+		index = DarkSoulsSaver.index(store, "backup");
+		assertEquals("Loaded from the manifest.", 4, index.size());
+
+		BackupIndex found = store.list("backup");
+		// Committed after the folder was listed.
+		snapshot(dir, 7);
+		index.add(new File(dir, "backup7.sl2"), 7000, 7, 7);
+		// Deleted after the folder was listed.
+		new File(dir, "backup4.sl2").delete();
+		// Written but not committed, newer than the index.
+		snapshot(dir, 8);
+
+		assertEquals(2, index.reconcile(found, store)); // Added 2, removed 5. 4 was listed but is gone, 7 wasn't listed.
+		assertArrayEquals(new long[] {1, 2, 3, 6, 7}, numbers(index));
+		assertEquals(0, index.reconcile(store.list("backup"), store)); // 8 is newer than the index.
+		assertArrayEquals(new long[] {1, 2, 3, 6, 7}, numbers(index));
+		index.manifest.close();
+		assertArrayEquals(new long[] {1, 2, 3, 6, 7}, numbers(new Manifest(index.manifest.file).load(dir)));
+	}
+
+	private BackupIndex write (Manifest manifest, File dir, int count) {
+		BackupIndex index = new BackupIndex();
+		index.manifest = manifest;
+		for (int i = 1; i <= count; i++)
+			index.add(new File(dir, "backup" + i + ".sl2"), i * 1000L, i * 10, i, hash(i));
+		return index;
+	}
+
+	static private void snapshot (File dir, int number) throws Exception {
+		File file = new File(dir, "backup" + number + ".sl2");
+		Files.write(file.toPath(), new byte[number]);
+		file.setLastModified(number * 1000L);
+	}
+
+	static private long[] numbers (BackupIndex index) {
+		long[] numbers = new long[index.size()];
+		for (int i = 0; i < numbers.length; i++)
+			numbers[i] = index.number(i);
+		return numbers;
+	}
+
+	/** @return A fingerprint as the manifest keeps it. */
+	static private long hash (int value) {
+		return Fingerprint.of(new byte[] {(byte)value}, 0, 1);
+	}
+
+	static private void check (BackupIndex expected, BackupIndex actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.file(i), actual.file(i));
+			assertEquals(expected.modified(i), actual.modified(i));
+			assertEquals(expected.size(i), actual.size(i));
+			assertEquals(expected.number(i), actual.number(i));
+			assertEquals(expected.hash(i), actual.hash(i));
+		}
+		assertEquals(expected.totalSize(), actual.totalSize());
+	}
+}
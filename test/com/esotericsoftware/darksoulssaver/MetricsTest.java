@@ -0,0 +1,157 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.esotericsoftware.darksoulssaver.Metrics.Counter;
+import com.esotericsoftware.darksoulssaver.Metrics.Gauge;
+import com.sun.net.httpserver.HttpServer;
+
+/** @author Nathan Sweet */
+public class MetricsTest {
+	/** Counters and gauges are read as attributes of the registered MBean. */
+	@Test
+	public void attributes () throws Exception {
+		final long[] lag = {0};
+		Metrics metrics = new Metrics("MetricsTest attributes");
+		Counter backups = metrics.add(new Counter("backups", "Backups kept."));
+		metrics.add(new Gauge("backupLagMillis", "Milliseconds since the save file changed without a backup, or 0.") {
+			public long value () {
+				return lag[0];
+			}
+		});
+		metrics.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(Metrics.domain + ":type=Saver,name=" + ObjectName.quote("MetricsTest attributes"));
+		try {
+			assertEquals(0L, server.getAttribute(name, "backups"));
+			backups.increment();
+			backups.add(2);
+			lag[0] = 1500;
+			assertEquals(3L, server.getAttribute(name, "backups"));
+			assertEquals(1500L, server.getAttribute(name, "backupLagMillis"));
+
+			MBeanAttributeInfo[] infos = server.getMBeanInfo(name).getAttributes();
+			assertEquals(2, infos.length);
+			assertEquals("backups", infos[0].getName());
+			assertEquals("long", infos[0].getType());
+			assertEquals("Backups kept.", infos[0].getDescription());
+			assertTrue(infos[0].isReadable());
+			assertFalse(infos[0].isWritable());
+			assertEquals("backupLagMillis", infos[1].getName());
+
+			AttributeList list = server.getAttributes(name, new String[] {"backupLagMillis", "missing", "backups"});
+			assertEquals(2, list.size());
+			assertEquals(1500L, ((Attribute)list.get(0)).getValue());
+			assertEquals(3L, ((Attribute)list.get(1)).getValue());
+
+			try {
+				server.getAttribute(name, "missing");
+				fail();
+			} catch (AttributeNotFoundException expected) {
+			}
+			try {
+				server.setAttribute(name, new Attribute("backups", 0L));
+				fail();
+			} catch (AttributeNotFoundException expected) {
+			}
+			assertEquals(3L, server.getAttribute(name, "backups"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void prometheusNames () {
+		assertEquals("darksoulssaver_backup_bytes_total", Metrics.prometheusName(new Counter("backupBytes", "")));
+		assertEquals("darksoulssaver_backups_total", Metrics.prometheusName(new Counter("backups", "")));
+		assertEquals("darksoulssaver_backup_lag_millis", Metrics.prometheusName(new Gauge("backupLagMillis", "") {
+			public long value () {
+				return 0;
+			}
+		}));
+	}
+
+	/** The loopback endpoint serves each game's metrics in the Prometheus text format, with the game as a label. */
+	@Test
+	public void serve () throws Exception {
+		ArrayList<Metrics> list = new ArrayList();
+		for (String game : new String[] {"ds1", "say \"hi\"\\\nbye"}) {
+			Metrics metrics = new Metrics(game);
+			metrics.add(new Counter("backupBytes", "Bytes written to disk for backups.")).add(game.length());
+			metrics.add(new Gauge("saveFiles", "Saves in the save folder.") {
+				public long value () {
+					return 7;
+				}
+			});
+			list.add(metrics);
+		}
+
+		HttpServer server = Metrics.serve(0, list);
+		try {
+			assertTrue(server.getAddress().getAddress().isLoopbackAddress());
+			URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+			HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertEquals("text/plain; version=0.0.4; charset=utf-8", connection.getContentType());
+			String body;
+			try (InputStream input = connection.getInputStream()) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				for (int count; (count = input.read(buffer)) != -1;)
+					bytes.write(buffer, 0, count);
+				body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+			}
+			assertEquals(Arrays.asList( //
+				"# HELP darksoulssaver_backup_bytes_total Bytes written to disk for backups.", //
+				"# TYPE darksoulssaver_backup_bytes_total counter", //
+				"darksoulssaver_backup_bytes_total{game=\"ds1\"} 3", //
+				"darksoulssaver_backup_bytes_total{game=\"say \\\"hi\\\"\\\\ bye\"} 13", //
+				"# HELP darksoulssaver_save_files Saves in the save folder.", //
+				"# TYPE darksoulssaver_save_files gauge", //
+				"darksoulssaver_save_files{game=\"ds1\"} 7", //
+				"darksoulssaver_save_files{game=\"say \\\"hi\\\"\\\\ bye\"} 7"), //
+				Arrays.asList(body.split("\n")));
+			assertTrue(body.endsWith("\n"));
+		} finally {
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.esotericsoftware.darksoulssaver.QuiescenceDetector.State;
+import com.esotericsoftware.darksoulssaver.QuiescenceDetector.Wait;
+
+/** @author Nathan Sweet */
+public class QuiescenceDetectorTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void awaitsQuietFile () throws Exception {
+		File file = temp.newFile("save.sl2");
+		Files.write(file.toPath(), new byte[64 * 1024]);
+		QuiescenceDetector detector = new QuiescenceDetector(file, 20, 200, true);
+		long start = System.nanoTime();
+		State state = detector.await();
+		assertNotNull(state);
+		assertTrue((System.nanoTime() - start) / 1000000 >= 20);
+		assertEquals(file.lastModified(), state.modified / 1000000);
+		assertEquals(file.length(), state.length);
+		assertNotEquals(0, state.checksum);
+		assertFalse(detector.changedSince(state));
+	}
+
+	@Test
+	public void waitsAgainAfterChange () throws Exception {
+		File file = temp.newFile("save.sl2");
+		write(file, 1);
+		QuiescenceDetector detector = new QuiescenceDetector(file, 20, 200, true);
+		Wait wait = detector.new Wait();
+		DarkSoulsSaver.zzz((int)wait.delay());
+		assertTrue(wait.step() > 0);
+		write(file, 2);
+		file.setLastModified(file.lastModified() + 2000);
+		long delay;
+		while ((delay = wait.step()) > 0)
+			DarkSoulsSaver.zzz((int)delay);
+		assertEquals(0, delay);
+		assertEquals(file.lastModified(), wait.state().modified / 1000000);
+		assertEquals(Fingerprint.of(file), wait.state().checksum);
+	}
+
+	/** A rewrite in place that leaves the modified time and size the same is caught by the checksum. */
+	@Test
+	public void changedSinceChecksContents () throws Exception {
+		File file = temp.newFile("save.sl2");
+		write(file, 1);
+		QuiescenceDetector detector = new QuiescenceDetector(file, 20, 200, true);
+		State state = detector.await();
+		long modified = file.lastModified();
+		write(file, 2);
+		file.setLastModified(modified);
+		assertTrue(detector.changedSince(state));
+	}
+
+	@Test
+	public void cancels () throws Exception {
+		File file = temp.newFile("save.sl2");
+		write(file, 1);
+		QuiescenceDetector detector = new QuiescenceDetector(file, 20, 200, true) {
+			protected boolean canceled () {
+				return true;
+			}
+		};
+		assertNull(detector.await());
+	}
+
+	static private void write (File file, int value) throws Exception {
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			byte[] bytes = new byte[64 * 1024];
+			bytes[0] = (byte)value;
+			output.write(bytes);
+		}
+	}
+}
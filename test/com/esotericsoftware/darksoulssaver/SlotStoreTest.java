@@ -0,0 +1,104 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class SlotStoreTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	/** Each slot is a chunk, so a snapshot after one slot changed writes only that slot. */
+	@Test
+	public void writesChangedSlot () throws Exception {
+		File save = temp.newFile("save.sl2"), restored = new File(temp.getRoot(), "restored.sl2");
+		SlotStore store = new SlotStore(temp.newFolder("backup"));
+		byte[][] slots = Bnd4Test.slots(100 * 1024, 100 * 1024, 100 * 1024, 100);
+		byte[] first = bnd4(slots);
+		Files.write(save.toPath(), first);
+		store.write(save, snapshot(store, 1));
+
+		new Random(1).nextBytes(slots[1]);
+		byte[] second = bnd4(slots);
+		Files.write(save.toPath(), second);
+		long written = store.writtenBytes;
+		store.write(save, snapshot(store, 2));
+		written = store.writtenBytes - written;
+		assertTrue("Wrote " + written + " bytes.", written >= 100 * 1024 && written < 110 * 1024);
+
+		store = new SlotStore(store.dir);
+		assertArrayEquals(first, store.bytes(snapshot(store, 1)));
+		store.read(snapshot(store, 2), restored);
+		assertArrayEquals(second, Files.readAllBytes(restored.toPath()));
+	}
+
+	/** One slot is restored from a snapshot, leaving the other slots as they are. */
+	@Test
+	public void readEntry () throws Exception {
+		File save = temp.newFile("save.sl2");
+		SlotStore store = new SlotStore(temp.newFolder("backup"));
+		byte[][] slots = Bnd4Test.slots(50 * 1024, 50 * 1024, 50 * 1024);
+		byte[] snapshot = bnd4(slots);
+		Files.write(save.toPath(), snapshot);
+		store.write(save, snapshot(store, 1));
+
+		Random random = new Random(1);
+		for (byte[] slot : slots)
+			random.nextBytes(slot);
+		byte[] current = bnd4(slots);
+		Files.write(save.toPath(), current);
+		store.readEntry(snapshot(store, 1), 1, save);
+		byte[] restored = Files.readAllBytes(save.toPath());
+		assertArrayEquals(slot(current, 0), slot(restored, 0));
+		assertArrayEquals(slot(snapshot, 1), slot(restored, 1));
+		assertArrayEquals(slot(current, 2), slot(restored, 2));
+
+		try {
+			store.readEntry(snapshot(store, 1), 3, save);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertArrayEquals(restored, Files.readAllBytes(save.toPath()));
+	}
+
+	/** A file that isn't a BND4 container is stored with fixed size chunks. */
+	@Test
+	public void otherFiles () throws Exception {
+		File save = temp.newFile("save.sl2");
+		SlotStore store = new SlotStore(temp.newFolder("backup"));
+		byte[] bytes = new byte[200 * 1024];
+		new Random(0).nextBytes(bytes);
+		Files.write(save.toPath(), bytes);
+		assertNull(store.chunkSizes(save));
+		store.write(save, snapshot(store, 1));
+		assertArrayEquals(bytes, new SlotStore(store.dir).bytes(snapshot(store, 1)));
+	}
+}
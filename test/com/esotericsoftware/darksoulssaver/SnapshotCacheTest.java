@@ -0,0 +1,83 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class SnapshotCacheTest {
+	private final File a = new File("backup1.sl2"), b = new File("backup2.sl2"), c = new File("backup3.sl2");
+
+	@Test
+	public void getsWhatWasPut () {
+		SnapshotCache cache = new SnapshotCache(100);
+		byte[] contents = new byte[10];
+		cache.put(a, contents);
+		assertSame(contents, cache.get(a));
+		assertNull(cache.get(b));
+		assertEquals("1 cached, 0 KB, 1 hits, 1 misses, 0 evictions", cache.stats());
+
+		cache.remove(a);
+		assertNull(cache.get(a));
+		cache.remove(a);
+	}
+
+	/** The oldest snapshots are evicted to stay under the limit. */
+	@Test
+	public void evictsOldest () {
+		SnapshotCache cache = new SnapshotCache(100);
+		cache.put(a, new byte[40]);
+		cache.put(b, new byte[40]);
+		cache.put(c, new byte[40]);
+		assertNull(cache.get(a));
+		assertNotNull(cache.get(b));
+		assertNotNull(cache.get(c));
+
+		// Putting a snapshot again replaces it, and only evicts as much as is needed.
+		cache.put(b, new byte[61]);
+		assertNull(cache.get(c));
+		assertEquals(61, cache.get(b).length);
+		cache.put(a, new byte[39]);
+		assertNotNull(cache.get(a));
+		assertNotNull(cache.get(b));
+		assertTrue(cache.stats(), cache.stats().endsWith(" 2 evictions"));
+	}
+
+	/** A snapshot larger than the limit isn't cached, and doesn't evict the others. */
+	@Test
+	public void skipsTooLarge () {
+		SnapshotCache cache = new SnapshotCache(100);
+		cache.put(a, new byte[50]);
+		cache.put(b, new byte[101]);
+		assertNull(cache.get(b));
+		assertNotNull(cache.get(a));
+
+		// Replacing a cached snapshot with one that is too large removes it.
+		cache.put(a, new byte[101]);
+		assertNull(cache.get(a));
+		cache.put(c, new byte[100]);
+		assertNotNull(cache.get(c));
+	}
+}
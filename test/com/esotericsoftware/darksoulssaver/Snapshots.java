@@ -0,0 +1,78 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Writes snapshots of a synthetic save file for the store tests.
+ * @author Nathan Sweet */
+class Snapshots {
+	/** Writes snapshots of a save file that changes a few KB each time.
+	 * @return The contents of each snapshot. */
+	static ArrayList<byte[]> write (Store store, File save, int count) throws Exception {
+		Random random = new Random(0);
+		byte[] bytes = new byte[256 * 1024];
+		random.nextBytes(bytes);
+		ArrayList<byte[]> contents = new ArrayList();
+		for (int i = 1; i <= count; i++) {
+			for (int ii = 0; ii < 4; ii++) {
+				int offset = random.nextInt(bytes.length - 1024);
+				for (int iii = 0; iii < 1024; iii++)
+					bytes[offset + iii] = (byte)random.nextInt();
+			}
+			Files.write(save.toPath(), bytes);
+			store.write(save, snapshot(store, i));
+			contents.add(bytes.clone());
+		}
+		return contents;
+	}
+
+	static File snapshot (Store store, int number) {
+		return new File(store.dir, "backup" + number + '.' + store.extension);
+	}
+
+	/** @return A BND4 container laid out like a save file, with an entry for each slot. */
+	static byte[] bnd4 (byte[][] slots) {
+		String[] names = new String[slots.length];
+		ByteBuffer[] entries = new ByteBuffer[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			names[i] = String.format("USER_DATA%03d", i);
+			entries[i] = ByteBuffer.wrap(slots[i]);
+		}
+		ByteBuffer buffer = Bnd4.write(names, entries);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/** @return The bytes of an entry in a BND4 container. */
+	static byte[] slot (byte[] container, int index) throws IOException {
+		ByteBuffer entry = new Bnd4(ByteBuffer.wrap(container)).entry(index);
+		byte[] bytes = new byte[entry.remaining()];
+		entry.get(bytes);
+		return bytes;
+	}
+}
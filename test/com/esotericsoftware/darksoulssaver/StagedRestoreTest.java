@@ -0,0 +1,302 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class StagedRestoreTest {
+	static private final long modified = 1600000000000L;
+
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	/** A staged snapshot replaces the save file with a rename. Readers see the old or new save file, never a mix, and a reader that
+	 * had the old save file open still reads it. */
+	@Test
+	public void restoreStaged () throws Exception {
+		byte[] current = bytes(1, 256 * 1024), snapshot = bytes(2, 256 * 1024);
+		File save = save(current);
+		Store store = new Store(temp.newFolder("backup"));
+		File snapshotFile = write(store, snapshot);
+		StagedRestore restorer = new StagedRestore(save);
+		restorer.stage(snapshotFile, Fingerprint.of(snapshot, 0, snapshot.length), store, null);
+		assertTrue(restorer.isStaged(snapshotFile));
+		assertFalse(restorer.staging.exists());
+
+		AtomicInteger torn = new AtomicInteger();
+		AtomicBoolean done = new AtomicBoolean();
+		Thread reader = reader(save, current, snapshot, torn, done);
+		try (FileChannel channel = FileChannel.open(save.toPath(), StandardOpenOption.READ)) {
+			assertTrue(restorer.restore(snapshotFile, Fingerprint.of(snapshot, 0, snapshot.length), modified, store, null));
+			ByteBuffer buffer = ByteBuffer.allocate(current.length);
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+			}
+			assertArrayEquals("Save file was written in place.", current, buffer.array());
+		}
+		done.set(true);
+		reader.join(10000);
+		assertEquals("Torn reads.", 0, torn.get());
+		assertArrayEquals(snapshot, Files.readAllBytes(save.toPath()));
+		assertEquals(modified, save.lastModified());
+		assertFalse(restorer.staged.exists());
+		assertFalse(restorer.isStaged(snapshotFile));
+	}
+
+	/** A snapshot that isn't staged is written next to the save file, then renamed. */
+	@Test
+	public void restoreUnstaged () throws Exception {
+		byte[] current = bytes(1, 10000), snapshot = bytes(2, 10000);
+		File save = save(current);
+		Store store = new Store(temp.newFolder("backup"));
+		File snapshotFile = write(store, snapshot);
+		StagedRestore restorer = new StagedRestore(save);
+
+		AtomicInteger torn = new AtomicInteger();
+		AtomicBoolean done = new AtomicBoolean();
+		Thread reader = reader(save, current, snapshot, torn, done);
+		assertFalse(restorer.restore(snapshotFile, Fingerprint.of(snapshot, 0, snapshot.length), modified, store, null));
+		done.set(true);
+		reader.join(10000);
+		assertEquals("Torn reads.", 0, torn.get());
+		assertArrayEquals(snapshot, Files.readAllBytes(save.toPath()));
+		assertEquals(modified, save.lastModified());
+		assertFalse(restorer.temp.exists());
+	}
+
+	/** When the save file can't be renamed over, such as when the game has it open, the snapshot is copied instead. */
+	@Test
+	public void copyWhenRenameFails () throws Exception {
+		byte[] current = bytes(1, 10000), snapshot = bytes(2, 10000);
+		File save = save(current);
+		Store store = new Store(temp.newFolder("backup"));
+		File snapshotFile = write(store, snapshot);
+		final AtomicInteger renames = new AtomicInteger();
+		StagedRestore restorer = new StagedRestore(save) {
+			void rename (File from, File to) throws IOException {
+				renames.incrementAndGet();
+				throw new IOException("The file is in use.");
+			}
+		};
+		restorer.stage(snapshotFile, 0, store, null);
+		assertTrue(restorer.isStaged(snapshotFile));
+		assertFalse(restorer.staging.exists());
+		assertTrue(restorer.restore(snapshotFile, 0, modified, store, null));
+		assertEquals(2, renames.get());
+		assertArrayEquals(snapshot, Files.readAllBytes(save.toPath()));
+		assertFalse(restorer.staged.exists());
+
+		assertFalse(restorer.restore(snapshotFile, 0, modified, store, null));
+		assertEquals(3, renames.get());
+		assertFalse(restorer.temp.exists());
+	}
+
+	/** Files left next to the save file by a previous run are deleted, and a staged snapshot is only restored once. */
+	@Test
+	public void staleStageIsNotRestored () throws Exception {
+		byte[] current = bytes(1, 10000), snapshot1 = bytes(2, 10000), snapshot2 = bytes(3, 10000);
+		File save = save(current);
+		Store store = new Store(temp.newFolder("backup"));
+		File snapshotFile1 = write(store, snapshot1), snapshotFile2 = write(store, snapshot2);
+		byte[] stale = bytes(4, 10000);
+		for (String suffix : new String[] {".staged", ".staging", ".restore", ".old"})
+			Files.write(new File(save.getPath() + suffix).toPath(), stale);
+
+		StagedRestore restorer = new StagedRestore(save);
+		assertFalse(restorer.staged.exists());
+		assertFalse(restorer.staging.exists());
+		assertFalse(restorer.temp.exists());
+		assertFalse(restorer.old.exists());
+		assertFalse(restorer.isStaged(snapshotFile1));
+		assertFalse(restorer.restore(snapshotFile1, 0, modified, store, null));
+		assertArrayEquals(snapshot1, Files.readAllBytes(save.toPath()));
+
+		// Another snapshot is restored instead of the staged one.
+		restorer.stage(snapshotFile1, 0, store, null);
+		assertFalse(restorer.restore(snapshotFile2, 0, modified, store, null));
+		assertArrayEquals(snapshot2, Files.readAllBytes(save.toPath()));
+
+		// The staged snapshot is renamed, then written again when restored a second time.
+		assertTrue(restorer.restore(snapshotFile1, 0, modified, store, null));
+		assertArrayEquals(snapshot1, Files.readAllBytes(save.toPath()));
+		Files.write(save.toPath(), current);
+		assertFalse(restorer.restore(snapshotFile1, 0, modified, store, null));
+		assertArrayEquals(snapshot1, Files.readAllBytes(save.toPath()));
+
+		// The staged file is gone, so it isn't staged even though it was the last snapshot staged.
+		restorer.stage(snapshotFile2, 0, store, null);
+		restorer.staged.delete();
+		Files.write(save.toPath(), current);
+		assertFalse(restorer.restore(snapshotFile2, 0, modified, store, null));
+		assertArrayEquals(snapshot2, Files.readAllBytes(save.toPath()));
+	}
+
+	/** A snapshot that doesn't match its fingerprint is never staged or restored, and the save file is unchanged. */
+	@Test
+	public void fingerprintMismatch () throws Exception {
+		byte[] current = bytes(1, 10000), snapshot = bytes(2, 10000), other = bytes(3, 10000);
+		File save = save(current);
+		Store store = new Store(temp.newFolder("backup"));
+		File snapshotFile = write(store, snapshot), otherFile = write(store, other);
+		long wrong = Fingerprint.of(current, 0, current.length);
+		SnapshotCache cache = new SnapshotCache(1024 * 1024);
+		StagedRestore restorer = new StagedRestore(save);
+		restorer.stage(otherFile, Fingerprint.of(other, 0, other.length), store, null);
+
+		for (SnapshotCache from : new SnapshotCache[] {null, cache}) {
+			if (from != null) from.put(snapshotFile, snapshot);
+			try {
+				restorer.restore(snapshotFile, wrong, modified, store, from);
+				fail();
+			} catch (IOException expected) {
+			}
+			assertArrayEquals(current, Files.readAllBytes(save.toPath()));
+			assertFalse(restorer.temp.exists());
+
+			try {
+				restorer.stage(snapshotFile, wrong, store, from);
+				fail();
+			} catch (IOException expected) {
+			}
+			assertFalse(restorer.isStaged(snapshotFile));
+			assertFalse(restorer.staging.exists());
+			assertArrayEquals(current, Files.readAllBytes(save.toPath()));
+		}
+
+		// The snapshot staged before is still staged.
+		assertTrue(restorer.restore(otherFile, Fingerprint.of(other, 0, other.length), modified, store, null));
+		assertArrayEquals(other, Files.readAllBytes(save.toPath()));
+	}
+
+	/** One slot is restored by writing it to a copy of the save file and renaming the copy. */
+	@Test
+	public void restoreEntry () throws Exception {
+		File save = temp.newFile("save.sl2");
+		SlotStore store = new SlotStore(temp.newFolder("backup"));
+		byte[][] slots = Bnd4Test.slots(20 * 1024, 20 * 1024, 20 * 1024);
+		byte[] snapshot = bnd4(slots);
+		Files.write(save.toPath(), snapshot);
+		File snapshotFile = snapshot(store, 1);
+		store.write(save, snapshotFile);
+
+		Random random = new Random(1);
+		for (byte[] slot : slots)
+			random.nextBytes(slot);
+		byte[] current = bnd4(slots);
+		Files.write(save.toPath(), current);
+		StagedRestore restorer = new StagedRestore(save);
+		restorer.restoreEntry(snapshotFile, 2, store, null);
+		byte[] restored = Files.readAllBytes(save.toPath());
+		assertArrayEquals(slot(current, 0), slot(restored, 0));
+		assertArrayEquals(slot(current, 1), slot(restored, 1));
+		assertArrayEquals(slot(snapshot, 2), slot(restored, 2));
+		assertFalse(restorer.temp.exists());
+
+		// From the cache instead of the store.
+		SnapshotCache cache = new SnapshotCache(1024 * 1024);
+		cache.put(snapshotFile, snapshot);
+		restorer.restoreEntry(snapshotFile, 0, new Store(temp.newFolder("empty")), cache);
+		restored = Files.readAllBytes(save.toPath());
+		assertArrayEquals(slot(snapshot, 0), slot(restored, 0));
+		assertArrayEquals(slot(current, 1), slot(restored, 1));
+		assertArrayEquals(slot(snapshot, 2), slot(restored, 2));
+	}
+
+	/** A slot that can't be restored leaves the save file as it was. */
+	@Test
+	public void restoreEntryFails () throws Exception {
+		File save = temp.newFile("save.sl2");
+		SlotStore store = new SlotStore(temp.newFolder("backup"));
+		byte[] snapshot = bnd4(Bnd4Test.slots(1000, 2000));
+		Files.write(save.toPath(), snapshot);
+		File snapshotFile = snapshot(store, 1);
+		store.write(save, snapshotFile);
+
+		// The save file's slot is a different size, so the layouts differ.
+		byte[] current = bnd4(Bnd4Test.slots(1000, 3000));
+		Files.write(save.toPath(), current);
+		StagedRestore restorer = new StagedRestore(save);
+		for (int index : new int[] {1, 5}) {
+			try {
+				restorer.restoreEntry(snapshotFile, index, store, null);
+				fail();
+			} catch (IOException expected) {
+			}
+			assertArrayEquals(current, Files.readAllBytes(save.toPath()));
+			assertFalse(restorer.temp.exists());
+		}
+	}
+
+	private File save (byte[] bytes) throws IOException {
+		File save = new File(temp.getRoot(), "save.sl2");
+		Files.write(save.toPath(), bytes);
+		return save;
+	}
+
+	private File write (Store store, byte[] bytes) throws IOException {
+		File from = temp.newFile();
+		Files.write(from.toPath(), bytes);
+		File snapshot = snapshot(store, store.dir.list().length + 1);
+		store.write(from, snapshot);
+		return snapshot;
+	}
+
+	static private byte[] bytes (int seed, int size) {
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	/** Reads the save file until done, counting reads that are neither the old nor the new contents. */
+	static private Thread reader (final File save, final byte[] before, final byte[] after, final AtomicInteger torn,
+		final AtomicBoolean done) {
+		Thread thread = new Thread("Reader") {
+			public void run () {
+				while (!done.get()) {
+					try {
+						byte[] bytes = Files.readAllBytes(save.toPath());
+						if (!Arrays.equals(bytes, before) && !Arrays.equals(bytes, after)) torn.incrementAndGet();
+					} catch (IOException ex) {
+						torn.incrementAndGet(); // The save file was missing.
+					}
+					Thread.yield();
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+}
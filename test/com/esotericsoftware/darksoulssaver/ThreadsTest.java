@@ -0,0 +1,92 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class ThreadsTest {
+	@Test
+	public void start () throws Exception {
+		final AtomicReference<Thread> ran = new AtomicReference();
+		Thread thread = Threads.start("ThreadsTest", new Runnable() {
+			public void run () {
+				ran.set(Thread.currentThread());
+			}
+		});
+		thread.join(10000);
+		assertSame(thread, ran.get());
+		assertEquals("ThreadsTest", thread.getName());
+		// Virtual threads are always daemons, so the app can always exit while I/O threads are blocked.
+		assertTrue(thread.isDaemon());
+	}
+
+	@Test
+	public void platform () {
+		Thread thread = Threads.platform("ThreadsTest", new Runnable() {
+			public void run () {
+			}
+		}, false);
+		assertEquals("ThreadsTest", thread.getName());
+		assertFalse(thread.isDaemon());
+		assertEquals(Thread.State.NEW, thread.getState());
+		assertTrue(Threads.platform("ThreadsTest", null, true).isDaemon());
+	}
+
+	/** Timers run on the shared timer thread, and stop when canceled. */
+	@Test
+	public void timers () throws Exception {
+		final CountDownLatch scheduled = new CountDownLatch(1);
+		final AtomicReference<String> threadName = new AtomicReference();
+		long start = System.nanoTime();
+		Threads.schedule(new Runnable() {
+			public void run () {
+				threadName.set(Thread.currentThread().getName());
+				scheduled.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		assertTrue(scheduled.await(10, TimeUnit.SECONDS));
+		assertTrue("Ran early.", System.nanoTime() - start >= 50 * 1000000L);
+		assertEquals("Timer", threadName.get());
+
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch repeated = new CountDownLatch(3);
+		ScheduledFuture<?> future = Threads.repeat(new Runnable() {
+			public void run () {
+				runs.incrementAndGet();
+				repeated.countDown();
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		assertTrue(repeated.await(10, TimeUnit.SECONDS));
+		future.cancel(false);
+		int count = runs.get();
+		Thread.sleep(100);
+		assertTrue("Ran after canceled.", runs.get() <= count + 1);
+	}
+}
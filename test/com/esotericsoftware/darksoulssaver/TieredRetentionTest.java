@@ -0,0 +1,136 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** @author Nathan Sweet */
+public class TieredRetentionTest {
+	static private final long minute = 60 * 1000, hour = 60 * minute, day = 24 * hour;
+
+	/** Simulates weeks of saves, with play sessions of frequent saves separated by idle time, and checks after each snapshot that
+	 * the tiers are kept. */
+	@Test
+	public void keepsTiers () {
+		TieredRetention retention = TieredRetention.parse("10m:0,1h:1m,1d:10m,*:1d", Integer.MAX_VALUE, Long.MAX_VALUE);
+		BackupIndex files = new BackupIndex();
+		ArrayList<File> removed = new ArrayList();
+		Random random = new Random(0);
+		long time = 0;
+		int snapshots = 0, removedCount = 0;
+		while (time < 14 * day) {
+			// Sessions of 1 to 4 hours with a save every 2 to 120 seconds, then 2 to 20 idle hours.
+			long sessionEnd = time + (1 + random.nextInt(4)) * hour;
+			while (time < sessionEnd) {
+				time += 2000 + random.nextInt(118000);
+				snapshots++;
+				files.add(new File("backup" + snapshots + ".sl2"), time, 4 * 1024 * 1024, snapshots);
+				retention.apply(files, removed);
+				removedCount += removed.size();
+				removed.clear();
+				check(retention, files);
+			}
+			time += (2 + random.nextInt(18)) * hour;
+		}
+		assertEquals(snapshots, files.size() + removedCount);
+		assertEquals(snapshots, files.number(files.last()));
+		// About one a day, plus the tiers for the last day.
+		assertTrue(files.size() < 14 + 6 * 24 + 60 + 200);
+	}
+
+	/** An index of many snapshots that were never thinned, such as from an old manifest, is thinned in one apply. */
+	@Test
+	public void thinsLargeIndex () {
+		TieredRetention retention = TieredRetention.parse("10m:0,1h:1m,1d:10m,*:1d", Integer.MAX_VALUE, Long.MAX_VALUE);
+		BackupIndex files = new BackupIndex();
+		int count = 200000;
+		for (int i = 1; i <= count; i++)
+			files.add(new File("backup" + i + ".sl2"), i * 1000L, 10, i);
+		ArrayList<File> removed = new ArrayList();
+		retention.apply(files, removed);
+		check(retention, files);
+		assertEquals(count, files.size() + removed.size());
+		assertEquals(count, files.number(files.last()));
+		long totalSize = 0;
+		for (int i = 0, n = files.size(); i < n; i++) {
+			totalSize += files.size(i);
+			if (i > 0) assertTrue(files.number(i) > files.number(i - 1));
+		}
+		assertEquals(totalSize, files.totalSize());
+	}
+
+	@Test
+	public void limitsBytes () {
+		TieredRetention retention = TieredRetention.parse("10m:0", Integer.MAX_VALUE, 100);
+		BackupIndex files = new BackupIndex();
+		ArrayList<File> removed = new ArrayList();
+		for (int i = 1; i <= 20; i++) {
+			files.add(new File("backup" + i + ".sl2"), i * 1000L, 30, i);
+			retention.apply(files, removed);
+		}
+		assertEquals(3, files.size());
+		assertEquals(18, files.number(0));
+	}
+
+	@Test
+	public void parse () {
+		TieredRetention retention = TieredRetention.parse("10m:0, 1h:1m, *:1d", 1, 1);
+		assertArrayEquals(new long[] {10 * minute, hour, Long.MAX_VALUE}, retention.ages);
+		assertArrayEquals(new long[] {0, minute, day}, retention.intervals);
+		assertEquals(30000, TieredRetention.millis("30s"));
+		assertEquals(1500, TieredRetention.millis("1500"));
+		try {
+			TieredRetention.parse("1h:1m,10m:0", 1, 1);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			TieredRetention.parse("1h", 1, 1);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	static private void check (TieredRetention retention, BackupIndex files) {
+		long newest = files.modified(files.last());
+		for (int i = 1, n = files.last(); i < n; i++) {
+			long age = newest - files.modified(i), previousAge = newest - files.modified(i - 1);
+			for (int tier = 0; tier < retention.ages.length; tier++) {
+				if (age > retention.ages[tier]) continue;
+				long interval = retention.intervals[tier];
+				// Both snapshots are old enough to have been checked for this tier, so they must not share an interval.
+				long tierStart = tier == 0 ? 0 : retention.ages[tier - 1];
+				if (interval > 0 && age >= tierStart && previousAge >= tierStart
+					&& files.modified(i) / interval == files.modified(i - 1) / interval)
+					fail("Two snapshots in one interval: " + files.file(i - 1) + ", " + files.file(i));
+				break;
+			}
+		}
+		assertFalse("Snapshot older than the last tier: " + files.file(0),
+			newest - files.modified(0) > retention.ages[retention.ages.length - 1]);
+	}
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2020, Esoteric Software
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following
+ * conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.esotericsoftware.darksoulssaver;
+
+import static com.esotericsoftware.darksoulssaver.Snapshots.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Nathan Sweet */
+public class TieredStoreTest {
+	@Rule public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void readsWhileMoving () throws Exception {
+		final TieredStore store = new TieredStore(new Store(temp.newFolder("hot")),
+			new CompressedStore(temp.newFolder("cold"), 1, 0));
+		final int count = 10;
+		final ArrayList<byte[]> contents = write(store, temp.newFile("save.sl2"), count);
+		for (int i = 1; i <= count; i++)
+			assertTrue(store.isHot(snapshot(store, i)));
+
+		// Read the snapshot being moved until it has moved.
+		final AtomicInteger moving = new AtomicInteger();
+		final AtomicReference<Throwable> failed = new AtomicReference();
+		Thread reader = new Thread("Reader") {
+			public void run () {
+				try {
+					for (int i; (i = moving.get()) < count;)
+						if (!Arrays.equals(contents.get(i), store.bytes(snapshot(store, i + 1))))
+							throw new AssertionError("Differs while moving: backup" + (i + 1));
+				} catch (Throwable ex) {
+					failed.set(ex);
+				}
+			}
+		};
+		reader.start();
+		for (int i = 0; i < count; i++) {
+			assertTrue(store.migrate(snapshot(store, i + 1)) > 0);
+			moving.set(i + 1);
+		}
+		reader.join();
+		if (failed.get() != null) throw new AssertionError(failed.get());
+
+		assertEquals(-1, store.migrate(snapshot(store, 1)));
+		assertEquals(count, store.list("backup").size());
+		for (int i = 0; i < count; i++) {
+			File snapshot = snapshot(store, i + 1);
+			assertFalse(store.isHot(snapshot));
+			assertArrayEquals(contents.get(i), store.bytes(snapshot));
+		}
+	}
+
+	@Test
+	public void listsBothFolders () throws Exception {
+		TieredStore store = new TieredStore(new Store(temp.newFolder("hot")), new Store(temp.newFolder("cold")));
+		write(store, temp.newFile("save.sl2"), 4);
+		store.migrate(snapshot(store, 1));
+		store.migrate(snapshot(store, 2));
+		BackupIndex index = store.list("backup");
+		assertEquals(4, index.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 1, index.number(i));
+			assertEquals(snapshot(store, i + 1), index.file(i));
+		}
+		store.delete(snapshot(store, 1));
+		store.delete(snapshot(store, 4));
+		assertEquals(2, store.list("backup").size());
+	}
+}